@@ -0,0 +1,68 @@
+import bench.DocumentFixture;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+// the benchmarks' view of EditorCore, with files read and written the way the editor does it
+public class CoreFixture implements DocumentFixture {
+    private final EditorCore core = new EditorCore();
+    private TextFormat format = TextFormat.DEFAULT;
+
+    public void open(Path file) throws IOException {
+        format = TextFormat.detect(file);
+        core.setDocument(new PieceTable(FileLoader.read(file.toFile(), format)));
+        core.setLineSeparator(format.getLineSeparator());
+    }
+
+    public void save(Path file) throws IOException {
+        new FileSaver(file, format, core.snapshot()).save();
+    }
+
+    public long length() {
+        return core.getLength();
+    }
+
+    public int lineCount() {
+        return core.getLineCount();
+    }
+
+    public long lineStart(int line) {
+        return core.getLineStart(line);
+    }
+
+    public int lineOfOffset(long offset) {
+        return core.getLineOfOffset(offset);
+    }
+
+    public void insert(long offset, String text) {
+        core.insert(offset, text);
+    }
+
+    public void delete(long start, long end) {
+        core.delete(start, end);
+    }
+
+    public long caretPosition() {
+        return core.getCaretPosition();
+    }
+
+    public void setCaretPosition(long position) {
+        core.setCaretPosition(position);
+    }
+
+    public int caretLine() {
+        return core.getCaretLine();
+    }
+
+    public void moveCaretLines(int delta) {
+        core.moveCaretLines(delta);
+    }
+
+    public void moveCaretWordForward() {
+        core.moveCaretWordForward();
+    }
+
+    public int findAll(String query, boolean regex) {
+        return core.findAll(new SearchQuery(query, regex, false)).size();
+    }
+}
@@ -0,0 +1,36 @@
+import bench.PaintFixture;
+
+import javax.swing.*;
+import java.awt.*;
+import java.nio.file.Path;
+
+// the benchmarks' view of the viewer in an editor window that is never shown
+public class ViewerFixture implements PaintFixture {
+    private TextEditor.Text text;
+    private TextEditor.Viewer viewer;
+
+    public void open(Path file, int width, int height, boolean wrap) throws Exception {
+        // tiles are images of the screen, which a window that is not shown does not have
+        System.setProperty("editor.directRendering", "true");
+        TextSource source = FileLoader.read(file.toFile(), TextFormat.detect(file));
+        SwingUtilities.invokeAndWait(() -> {
+            text = new TextEditor().activeText();
+            viewer = text.getViewer();
+            viewer.setSize(width, height);
+            viewer.setWrap(wrap);
+            text.setSource(source);
+        });
+    }
+
+    public int lineCount() {
+        return text.getLineCount();
+    }
+
+    public void scrollTo(int row) {
+        viewer.scrollTo(row);
+    }
+
+    public void paint(Graphics g) {
+        viewer.paint(g);
+    }
+}
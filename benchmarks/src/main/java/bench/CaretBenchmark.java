@@ -0,0 +1,50 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// the caret walking through the document by lines and by words, starting over at the end
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class CaretBenchmark {
+    @Param({"1KB", "1MB", "64MB", "1GB"})
+    public String size;
+
+    private DocumentFixture fixture;
+    private int lastLine;
+
+    @Setup
+    public void open() throws IOException {
+        fixture = DocumentFixture.create();
+        fixture.open(Documents.file(size));
+        lastLine = fixture.lineCount() - 1;
+    }
+
+    @Benchmark
+    public long moveDown() {
+        if (fixture.caretLine() == lastLine) {
+            fixture.setCaretPosition(0);
+        } else {
+            fixture.moveCaretLines(1);
+        }
+        return fixture.caretPosition();
+    }
+
+    @Benchmark
+    public long moveWordForward() {
+        long before = fixture.caretPosition();
+        fixture.moveCaretWordForward();
+        if (fixture.caretPosition() == before) {
+            // at the end of the line
+            int line = fixture.caretLine();
+            fixture.setCaretPosition(line == lastLine ? 0 : fixture.lineStart(line + 1));
+        }
+        return fixture.caretPosition();
+    }
+}
@@ -0,0 +1,41 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+// the editing core as the benchmarks see it; the editor's classes are in the default package, which code in a
+// package cannot name, so CoreFixture in the default package implements this and is made by name
+public interface DocumentFixture {
+    void open(Path file) throws IOException;
+
+    void save(Path file) throws IOException;
+
+    long length();
+
+    int lineCount();
+
+    long lineStart(int line);
+
+    int lineOfOffset(long offset);
+
+    void insert(long offset, String text);
+
+    void delete(long start, long end);
+
+    long caretPosition();
+
+    void setCaretPosition(long position);
+
+    int caretLine();
+
+    void moveCaretLines(int delta);
+
+    void moveCaretWordForward();
+
+    // the number of matches
+    int findAll(String query, boolean regex);
+
+    static DocumentFixture create() {
+        return Fixtures.create("CoreFixture", DocumentFixture.class);
+    }
+}
@@ -0,0 +1,79 @@
+package bench;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+// log-like test files of an exact size, generated once into the temp directory and reused by later runs and forks
+public final class Documents {
+    private static final String[] WORDS = {
+            "INFO", "DEBUG", "WARN", "request", "response", "user", "session", "cache", "miss", "hit",
+            "took", "ms", "id=", "status", "200", "404", "{\"key\":", "\"value\"}", "at", "java.lang.String"
+    };
+    // one line in this many holds the word the search benchmarks look for
+    private static final int NEEDLE_LINES = 1000;
+
+    private Documents() {
+    }
+
+    // sizes such as 1KB, 64MB or 1GB
+    public static Path file(String size) throws IOException {
+        long bytes = parseSize(size);
+        Path path = Paths.get(System.getProperty("java.io.tmpdir"), "editor-bench-" + size + ".txt");
+        if (Files.exists(path) && Files.size(path) == bytes) {
+            return path;
+        }
+        Path temp = Files.createTempFile(path.getParent(), "editor-bench-", ".tmp");
+        try {
+            write(temp, bytes);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return path;
+    }
+
+    public static long parseSize(String size) {
+        String unit = size.replaceAll("[0-9]", "");
+        long count = Long.parseLong(size.substring(0, size.length() - unit.length()));
+        switch (unit) {
+            case "KB":
+                return count << 10;
+            case "MB":
+                return count << 20;
+            case "GB":
+                return count << 30;
+            default:
+                return count;
+        }
+    }
+
+    private static void write(Path path, long bytes) throws IOException {
+        Random random = new Random(bytes);
+        StringBuilder line = new StringBuilder();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), 1 << 20)) {
+            long written = 0;
+            for (long number = 0; written < bytes; number++) {
+                line.setLength(0);
+                if (random.nextInt(NEEDLE_LINES) == 0) {
+                    line.append("needle ").append(number).append(' ');
+                }
+                int words = random.nextInt(16);
+                for (int i = 0; i < words; i++) {
+                    line.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+                }
+                line.append(number).append('\n');
+                byte[] encoded = line.toString().getBytes(StandardCharsets.US_ASCII);
+                int count = (int) Math.min(encoded.length, bytes - written);
+                out.write(encoded, 0, count);
+                written += count;
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// one char inserted and deleted again through the editing core, so the document stays the same size
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class EditBenchmark {
+    @Param({"1KB", "1MB", "64MB", "1GB"})
+    public String size;
+
+    @Param({"start", "middle", "end"})
+    public String position;
+
+    private DocumentFixture fixture;
+    private long offset;
+
+    @Setup
+    public void open() throws IOException {
+        fixture = DocumentFixture.create();
+        fixture.open(Documents.file(size));
+        offset = position.equals("start") ? 0 : position.equals("middle") ? fixture.length() / 2 : fixture.length();
+    }
+
+    @Benchmark
+    public long insertDelete() {
+        fixture.insert(offset, "x");
+        fixture.delete(offset, offset + 1);
+        return fixture.length();
+    }
+
+    @Benchmark
+    public long insertDeleteLine() {
+        fixture.insert(offset, "a new line\n");
+        fixture.delete(offset, offset + 11);
+        return fixture.length();
+    }
+}
@@ -0,0 +1,14 @@
+package bench;
+
+final class Fixtures {
+    private Fixtures() {
+    }
+
+    static <T> T create(String className, Class<T> type) {
+        try {
+            return type.cast(Class.forName(className).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("cannot create " + className, e);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// line start of a line number and line number of an offset, at random places
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class LineBenchmark {
+    private static final int PLACES = 1024;
+
+    @Param({"1KB", "1MB", "64MB", "1GB"})
+    public String size;
+
+    private DocumentFixture fixture;
+    private final int[] lines = new int[PLACES];
+    private final long[] offsets = new long[PLACES];
+    private int next;
+
+    @Setup
+    public void open() throws IOException {
+        fixture = DocumentFixture.create();
+        fixture.open(Documents.file(size));
+        Random random = new Random(42);
+        for (int i = 0; i < PLACES; i++) {
+            lines[i] = random.nextInt(fixture.lineCount());
+            offsets[i] = (long) (random.nextDouble() * fixture.length());
+        }
+    }
+
+    @Benchmark
+    public long lineStart() {
+        return fixture.lineStart(lines[next++ & (PLACES - 1)]);
+    }
+
+    @Benchmark
+    public int lineOfOffset() {
+        return fixture.lineOfOffset(offsets[next++ & (PLACES - 1)]);
+    }
+}
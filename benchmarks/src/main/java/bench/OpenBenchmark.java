@@ -0,0 +1,40 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// reading a file into a document; the bytes counter gives the throughput in bytes per second
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class OpenBenchmark {
+    @Param({"1KB", "1MB", "64MB", "1GB"})
+    public String size;
+
+    private Path file;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Setup
+    public void prepare() throws IOException {
+        file = Documents.file(size);
+    }
+
+    @Benchmark
+    public int open(Bytes counter) throws IOException {
+        DocumentFixture fixture = DocumentFixture.create();
+        fixture.open(file);
+        counter.bytes += fixture.length();
+        return fixture.lineCount();
+    }
+}
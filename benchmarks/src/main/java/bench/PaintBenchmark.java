@@ -0,0 +1,57 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+// the viewer drawing a full window of text into an image, in place and while scrolling one row at a time
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class PaintBenchmark {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 800;
+
+    @Param({"1MB", "64MB"})
+    public String size;
+
+    @Param({"false", "true"})
+    public boolean wrap;
+
+    private PaintFixture fixture;
+    private Graphics2D graphics;
+    private int middle;
+    private int row;
+
+    @Setup
+    public void open() throws Exception {
+        fixture = PaintFixture.create();
+        fixture.open(Documents.file(size), WIDTH, HEIGHT, wrap);
+        graphics = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB).createGraphics();
+        middle = fixture.lineCount() / 2;
+        row = middle;
+    }
+
+    @TearDown
+    public void close() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public void paint() {
+        fixture.scrollTo(middle);
+        fixture.paint(graphics);
+    }
+
+    @Benchmark
+    public void scroll() {
+        row = row + 1 < fixture.lineCount() ? row + 1 : middle;
+        fixture.scrollTo(row);
+        fixture.paint(graphics);
+    }
+}
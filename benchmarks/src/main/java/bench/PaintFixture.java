@@ -0,0 +1,20 @@
+package bench;
+
+import java.awt.*;
+import java.nio.file.Path;
+
+// the viewer of an editor window that is never shown, implemented by ViewerFixture in the default package;
+// the window needs a display, so these benchmarks fail on a headless machine
+public interface PaintFixture {
+    void open(Path file, int width, int height, boolean wrap) throws Exception;
+
+    int lineCount();
+
+    void scrollTo(int row);
+
+    void paint(Graphics g);
+
+    static PaintFixture create() {
+        return Fixtures.create("ViewerFixture", PaintFixture.class);
+    }
+}
@@ -0,0 +1,54 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// writing a document to a file the way Save does; the bytes counter gives the throughput in bytes per second
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class SaveBenchmark {
+    @Param({"1KB", "1MB", "64MB", "1GB"})
+    public String size;
+
+    // a saved document that was edited is written piece by piece, an untouched one is copied
+    @Param({"false", "true"})
+    public boolean edited;
+
+    private Path target;
+    private DocumentFixture saving;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Setup
+    public void prepare() throws IOException {
+        target = Files.createTempFile("editor-bench-save-", ".txt");
+        saving = DocumentFixture.create();
+        saving.open(Documents.file(size));
+        if (edited) {
+            saving.insert(saving.length() / 2, "edited");
+        }
+    }
+
+    @TearDown
+    public void delete() throws IOException {
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public void save(Bytes counter) throws IOException {
+        saving.save(target);
+        counter.bytes += saving.length();
+    }
+}
@@ -0,0 +1,36 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// every match of a word on about one line in a thousand, found on all cores the way Find All does it
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class SearchBenchmark {
+    @Param({"1KB", "1MB", "64MB", "1GB"})
+    public String size;
+
+    private DocumentFixture fixture;
+
+    @Setup
+    public void open() throws IOException {
+        fixture = DocumentFixture.create();
+        fixture.open(Documents.file(size));
+    }
+
+    @Benchmark
+    public int literal() {
+        return fixture.findAll("needle", false);
+    }
+
+    @Benchmark
+    public int regex() {
+        return fixture.findAll("needle \\d+", true);
+    }
+}
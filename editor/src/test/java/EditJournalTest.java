@@ -0,0 +1,37 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class EditJournalTest {
+    @Test
+    void changesMadeWhileSavingAreWrittenOnceTheSaveIsDone() throws Exception {
+        Path dir = Files.createTempDirectory("journal");
+        Path path = dir.resolve(".file.journal");
+        EditJournal journal = new EditJournal(path, e -> fail(e));
+        journal.splice(3, 0, "abc");
+        journal.splice(1, 2, "");
+        Thread.sleep(400);
+        // nothing goes to disk before the saved file is known
+        assertFalse(Files.exists(path));
+        journal.begin(10, 1234);
+        List<EditJournal.Splice> splices = null;
+        for (int tries = 0; tries < 50 && (splices == null || splices.size() < 2); tries++) {
+            Thread.sleep(100);
+            if (Files.exists(path)) {
+                splices = EditJournal.read(path, 10, 1234);
+            }
+        }
+        assertEquals(2, splices.size());
+        assertEquals(3, splices.get(0).getOffset());
+        assertEquals("abc", splices.get(0).getInserted());
+        assertEquals(1, splices.get(1).getOffset());
+        assertEquals(2, splices.get(1).getRemoved());
+        journal.delete();
+    }
+}
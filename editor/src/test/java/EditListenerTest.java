@@ -0,0 +1,168 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EditListenerTest {
+    // follows the edits the way an index does, on its own copy of the text
+    private static class Mirror implements EditorCore.Listener {
+        EditorCore core;
+        final StringBuilder text = new StringBuilder();
+        int lineCount;
+        int replaced;
+
+        public void edited(long offset, long removed, CharSequence inserted, int line, int lineDelta) {
+            text.replace((int) offset, (int) (offset + removed), inserted.toString());
+            lineCount += lineDelta;
+            assertEquals(line, lineOf(offset));
+        }
+
+        public void rangesEdited(Edit edit, boolean undo, EditRanges ranges) {
+            for (int i = 0; i < ranges.size(); i++) {
+                int offset = (int) ranges.getOffset(i);
+                // an offset counts the changes before it, so the inserted text is found at it in the new document
+                String inserted = core.getText(offset, offset + ranges.getInserted(i));
+                text.replace(offset, offset + (int) ranges.getRemoved(i), inserted);
+                lineCount += ranges.getLineDelta(i);
+                assertEquals(ranges.getLine(i), lineOf(offset));
+            }
+        }
+
+        public void replaced(Edit edit, boolean undo) {
+            replaced++;
+            text.setLength(0);
+            text.append(core.getText());
+            lineCount = core.getLineCount();
+        }
+
+        public void appended(int line, int lineDelta) {
+        }
+
+        public void caretMoved(long oldCaret) {
+        }
+
+        public void selectionChanged(long oldStart, long oldEnd) {
+        }
+
+        public void caretsChanged() {
+        }
+
+        private int lineOf(long offset) {
+            int line = 0;
+            for (int i = 0; i < offset; i++) {
+                if (text.charAt(i) == '\n') {
+                    line++;
+                }
+            }
+            return line;
+        }
+    }
+
+    private static EditorCore open(Mirror mirror, String text) {
+        EditorCore core = new EditorCore(mirror);
+        mirror.core = core;
+        core.setDocument(new PieceTable(text));
+        mirror.text.append(text);
+        mirror.lineCount = core.getLineCount();
+        return core;
+    }
+
+    private static void check(Mirror mirror, EditorCore core) {
+        assertEquals(core.getText(), mirror.text.toString());
+        assertEquals(core.getLineCount(), mirror.lineCount);
+        assertEquals(0, mirror.replaced);
+    }
+
+    @Test
+    void undoOfOneRangeIsFollowedAsAnEdit() {
+        Mirror mirror = new Mirror();
+        EditorCore core = open(mirror, "first\nsecond\nthird");
+        core.setCaretPosition(5);
+        core.type(" line");
+        core.select(6, 20);
+        core.replaceSelection("a\nb");
+        core.delete(0, 3);
+        assertEquals("st a\nbird", core.getText());
+        check(mirror, core);
+        while (core.undo()) {
+            check(mirror, core);
+        }
+        assertEquals("first\nsecond\nthird", core.getText());
+        while (core.redo()) {
+            check(mirror, core);
+        }
+        assertEquals("st a\nbird", core.getText());
+    }
+
+    @Test
+    void replaceAllIsStillReplaced() {
+        Mirror mirror = new Mirror();
+        EditorCore core = open(mirror, "a b a");
+        core.replaceAll(new SearchQuery("a", false, false), "c");
+        assertEquals(1, mirror.replaced);
+        core.undo();
+        assertEquals(2, mirror.replaced);
+        assertEquals("a b a", mirror.text.toString());
+    }
+
+    @Test
+    void typingAtCaretsIsFollowedRangeByRange() {
+        Mirror mirror = new Mirror();
+        EditorCore core = open(mirror, "ab\ncd\nef\ngh");
+        core.setCarets(new long[]{1, 4, 7}, new long[]{1, 4, 7}, 0);
+        core.type("X");
+        core.type("Y");
+        assertEquals("aXYb\ncXYd\neXYf\ngh", core.getText());
+        check(mirror, core);
+        core.replaceSelection("1\n2\n3");
+        assertEquals("aXY1b\ncXY2d\neXY3f\ngh", core.getText());
+        check(mirror, core);
+        assertTrue(core.undo());
+        check(mirror, core);
+        assertTrue(core.undo());
+        assertEquals("ab\ncd\nef\ngh", core.getText());
+        check(mirror, core);
+        assertTrue(core.redo());
+        check(mirror, core);
+    }
+
+    @Test
+    void selectionsAcrossLinesAreFollowed() {
+        Mirror mirror = new Mirror();
+        EditorCore core = open(mirror, "one\ntwo\nthree\nfour\nfive");
+        core.setCarets(new long[]{2, 12}, new long[]{6, 16}, 0);
+        core.type("\n\n");
+        check(mirror, core);
+        core.deleteBackward();
+        check(mirror, core);
+        while (core.undo()) {
+            check(mirror, core);
+        }
+        assertEquals("one\ntwo\nthree\nfour\nfive", core.getText());
+    }
+
+    @Test
+    void occurrencesMoveWithEveryRange() {
+        EditorCore core = new EditorCore();
+        core.setDocument(new PieceTable("foo x foo y foo z foo"));
+        SearchResult batch = core.findAll(new SearchQuery("foo", false, false));
+        SearchResult single = core.findAll(new SearchQuery("foo", false, false));
+        // a deletion touching the second match, an insert just before the third and one right after the last
+        EditRanges ranges = new EditRanges(3);
+        ranges.add(5, 2, 0, 0, 0);
+        ranges.add(9, 0, 3, 0, 0);
+        ranges.add(22, 0, 1, 0, 0);
+        batch.edited(ranges);
+        single.edited(5, 2, 0);
+        single.edited(9, 0, 3);
+        single.edited(22, 0, 1);
+        assertEquals(single.size(), batch.size());
+        for (int i = 0; i < single.size(); i++) {
+            assertEquals(single.getStart(i), batch.getStart(i));
+            assertEquals(single.getEnd(i), batch.getEnd(i));
+        }
+        assertEquals(2, batch.size());
+        assertEquals(0, batch.getStart(0));
+        assertEquals(13, batch.getStart(1));
+    }
+}
@@ -0,0 +1,130 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EditorCoreTest {
+    @Test
+    void typingIsUndoneAndRedone() {
+        EditorCore core = new EditorCore();
+        core.setDocument(new PieceTable("hello"));
+        core.setCaretPosition(5);
+        core.type(" ");
+        core.type("w");
+        core.type("o");
+        assertEquals("hello wo", core.getText());
+        assertTrue(core.isModified());
+        // typed chars in a row join into one edit
+        assertTrue(core.undo());
+        assertEquals("hello", core.getText());
+        assertFalse(core.undo());
+        assertTrue(core.redo());
+        assertEquals("hello wo", core.getText());
+        assertFalse(core.redo());
+    }
+
+    @Test
+    void typingFromOneReusedBuilder() {
+        EditorCore core = new EditorCore();
+        core.setDocument(new PieceTable("ab"));
+        core.setCaretPosition(1);
+        StringBuilder input = new StringBuilder();
+        for (String burst : new String[]{"x", "yz", "\n", "w"}) {
+            input.append(burst);
+            core.type(input);
+            input.setLength(0);
+        }
+        assertEquals("axyz\nwb", core.getText());
+        // a finished line ends the run of typing
+        assertTrue(core.undo());
+        assertEquals("axyz\nb", core.getText());
+        assertTrue(core.undo());
+        assertEquals("ab", core.getText());
+        assertTrue(core.redo());
+        assertTrue(core.redo());
+        assertEquals("axyz\nwb", core.getText());
+    }
+
+    @Test
+    void deletedTextCountsAgainstTheUndoBudget() {
+        EditorCore core = new EditorCore();
+        core.setDocument(new PieceTable("x".repeat(40_000)));
+        core.getHistory().setBudget(60_000);
+        core.delete(0, 20_000);
+        assertTrue(core.getHistory().canUndo());
+        // the two deletes hold 80 KB of text between them, so the older one is dropped
+        core.delete(0, 20_000);
+        assertTrue(core.undo());
+        assertEquals(20_000, core.getLength());
+        assertFalse(core.undo());
+    }
+
+    @Test
+    void typingOverASelectionIsOneUndo() {
+        EditorCore core = new EditorCore();
+        core.setDocument(new PieceTable("foo bar baz"));
+        core.setCaretPosition(0);
+        core.type("x");
+        core.setCaretPosition(8);
+        core.select(5, 8);
+        core.type("Q");
+        assertEquals("xfoo Q baz", core.getText());
+        assertTrue(core.undo());
+        // the selection is back, and the typing before it is still there
+        assertEquals("xfoo bar baz", core.getText());
+        assertTrue(core.redo());
+        assertEquals("xfoo Q baz", core.getText());
+    }
+
+    @Test
+    void pasteOverASelectionIsOneUndo() {
+        EditorCore core = new EditorCore();
+        core.setDocument(new PieceTable("one two three"));
+        core.select(4, 7);
+        core.replaceSelection("2\n2");
+        assertEquals("one 2\n2 three", core.getText());
+        assertEquals(7, core.getCaretPosition());
+        assertTrue(core.undo());
+        assertEquals("one two three", core.getText());
+        assertFalse(core.undo());
+    }
+
+    @Test
+    void replaceAllIsOneUndo() {
+        EditorCore core = new EditorCore();
+        core.setDocument(new PieceTable("user a\nuser b\nno one\nuser"));
+        assertEquals(3, core.replaceAll(new SearchQuery("user", false, false), "person"));
+        assertEquals("person a\nperson b\nno one\nperson", core.getText());
+        assertEquals(4, core.getLineCount());
+        assertTrue(core.undo());
+        assertEquals("user a\nuser b\nno one\nuser", core.getText());
+        assertTrue(core.redo());
+        assertEquals("person a\nperson b\nno one\nperson", core.getText());
+    }
+
+    @Test
+    void regexMatchesRunAlongLinesLongerThanTheOverlap() {
+        // the first match starts just before the end of a 1 MB chunk and runs 200 K chars past it
+        long start = (1 << 20) - 10;
+        String line = "x".repeat((int) start) + "a" + "b".repeat(200_000) + "c";
+        EditorCore core = new EditorCore();
+        core.setDocument(new PieceTable(line + "\nabbc\n"));
+        SearchResult matches = core.findAll(new SearchQuery("ab+c", true, false));
+        assertEquals(2, matches.size());
+        assertEquals(start, matches.getStart(0));
+        assertEquals(line.length(), matches.getEnd(0));
+        assertEquals(line.length() + 1, matches.getStart(1));
+    }
+
+    @Test
+    void insertedLineBreaksTakeTheDocumentSeparator() {
+        EditorCore core = new EditorCore();
+        core.setDocument(new PieceTable("a\r\nb"));
+        core.setLineSeparator("\r\n");
+        core.setCaretPosition(1);
+        core.replaceSelection("\nx");
+        assertEquals("a\r\nx\r\nb", core.getText());
+        assertEquals(3, core.getLineCount());
+    }
+}
@@ -0,0 +1,53 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MainTest {
+    private static String run(String text, String lineSeparator, String... script) {
+        EditorCore core = new EditorCore();
+        core.setDocument(new PieceTable(text));
+        core.setLineSeparator(lineSeparator);
+        for (String line : script) {
+            Main.scriptStep(line).apply(core);
+        }
+        return core.getText();
+    }
+
+    @Test
+    void insertOverAFoundWordIsUndoneWhole() {
+        String text = "foo bar\r\nfoo baz\r\nlast foo";
+        assertEquals("foo bar\r\nfoo Q\r\nlast foo", run(text, "\r\n", "find baz", "insert Q"));
+        assertEquals(text, run(text, "\r\n", "find baz", "insert Q", "undo"));
+        assertEquals("foo bar\r\nfoo Q\r\nlast foo", run(text, "\r\n", "find baz", "insert Q", "undo", "redo"));
+    }
+
+    @Test
+    void caretCommands() {
+        assertEquals("a\n>b\nc", run("a\nb\nc", "\n", "line 2", "insert >"));
+        assertEquals("ab!c", run("abc", "\n", "offset 2", "insert !"));
+        assertEquals("a-c", run("abc", "\n", "select 1 2", "insert -"));
+        assertEquals("a\nline\nb", run("ab", "\n", "offset 1", "insert \\nline\\n"));
+    }
+
+    @Test
+    void deleteCommands() {
+        assertEquals("ad", run("abcd", "\n", "offset 1", "delete 2"));
+        assertEquals("cd", run("abcd", "\n", "offset 2", "backspace 2"));
+        assertEquals("abcd", run("abcd", "\n", "offset 2", "backspace 2", "undo"));
+        assertEquals("ad", run("abcd", "\n", "select 1 3", "delete"));
+    }
+
+    @Test
+    void replaceCommand() {
+        assertEquals("x b x", run("a b a", "\n", "replace a\tx"));
+        assertEquals("a b a", run("a b a", "\n", "replace a\tx", "undo"));
+    }
+
+    @Test
+    void badCommandsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> Main.scriptStep("jump 3"));
+        assertThrows(IllegalArgumentException.class, () -> Main.scriptStep("select 3"));
+        assertThrows(IllegalStateException.class, () -> run("abc", "\n", "find zzz"));
+    }
+}
@@ -0,0 +1,77 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PieceTableTest {
+    @Test
+    void linesOfTheOriginalText() {
+        PieceTable doc = new PieceTable("a\nbc\n\nd");
+        assertEquals(4, doc.getLineCount());
+        assertEquals(0, doc.getLineStart(0));
+        assertEquals(2, doc.getLineStart(1));
+        assertEquals(5, doc.getLineStart(2));
+        assertEquals(6, doc.getLineStart(3));
+        assertEquals(0, doc.getLineOfOffset(1));
+        assertEquals(1, doc.getLineOfOffset(2));
+        assertEquals(3, doc.getLineOfOffset(7));
+    }
+
+    @Test
+    void linesFollowInsertsAndDeletes() {
+        PieceTable doc = new PieceTable("one\ntwo\nthree");
+        doc.insert(4, "new\n");
+        assertEquals("one\nnew\ntwo\nthree", doc.toString());
+        assertEquals(4, doc.getLineCount());
+        assertEquals(8, doc.getLineStart(2));
+        doc.delete(2, 9);
+        assertEquals("onwo\nthree", doc.toString());
+        assertEquals(2, doc.getLineCount());
+        assertEquals(5, doc.getLineStart(1));
+        assertEquals(1, doc.getLineOfOffset(5));
+    }
+
+    // random edits checked against the same edits on a StringBuilder
+    @Test
+    void lineIndexAgreesWithTheText() {
+        Random random = new Random(7);
+        StringBuilder expected = new StringBuilder("first\nsecond\n");
+        PieceTable doc = new PieceTable(expected.toString());
+        for (int round = 0; round < 2000; round++) {
+            int offset = random.nextInt(expected.length() + 1);
+            if (random.nextInt(3) == 0 && offset < expected.length()) {
+                int end = Math.min(expected.length(), offset + 1 + random.nextInt(8));
+                expected.delete(offset, end);
+                doc.delete(offset, end);
+            } else {
+                String text = random.nextBoolean() ? "x\n" : "yz";
+                expected.insert(offset, text);
+                doc.insert(offset, text);
+            }
+        }
+        assertEquals(expected.toString(), doc.toString());
+        int line = 0;
+        for (int i = 0; i < expected.length(); i++) {
+            assertEquals(line, doc.getLineOfOffset(i), "line of offset " + i);
+            if (expected.charAt(i) == '\n') {
+                line++;
+                assertEquals(i + 1, doc.getLineStart(line));
+            }
+        }
+        assertEquals(line + 1, doc.getLineCount());
+    }
+
+    @Test
+    void snapshotKeepsItsTextAfterLaterEdits() {
+        PieceTable doc = new PieceTable("abc");
+        doc.insert(3, "def");
+        DocumentSnapshot snapshot = new DocumentSnapshot(doc.snapshot());
+        doc.insert(3, "XYZ");
+        doc.delete(0, 2);
+        char[] chars = new char[(int) snapshot.length()];
+        snapshot.getChars(0, chars.length, chars, 0);
+        assertEquals("abcdef", new String(chars));
+        assertEquals("cXYZdef", doc.toString());
+    }
+}
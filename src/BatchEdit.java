@@ -0,0 +1,140 @@
+import java.util.Arrays;
+
+// the same keystroke or paste at many carets: each range's removed and inserted text, applied and undone in one pass
+public class BatchEdit implements Edit {
+    private static final long RANGE_BYTES = 64;
+
+    // in the document before the edit
+    private final long[] starts;
+    private final long[] ends;
+    private final String[] removed;
+    // a run of typing grows a builder per caret; they become strings when the run is undone, as it cannot go on after
+    private final CharSequence[] inserted;
+    private final long undoCaret;
+    private long redoCaret;
+
+    public BatchEdit(long[] starts, long[] ends, String[] removed, CharSequence[] inserted, long undoCaret, long redoCaret) {
+        this.starts = starts;
+        this.ends = ends;
+        this.removed = removed;
+        this.inserted = inserted;
+        this.undoCaret = undoCaret;
+        this.redoCaret = redoCaret;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    // where range i ends up after the edit: its start and the end of its inserted text
+    public long[] insertedStarts() {
+        long[] result = new long[starts.length];
+        long shift = 0;
+        for (int i = 0; i < starts.length; i++) {
+            result[i] = starts[i] + shift;
+            shift += inserted[i].length() - (ends[i] - starts[i]);
+        }
+        return result;
+    }
+
+    public long[] insertedEnds() {
+        long[] result = insertedStarts();
+        for (int i = 0; i < result.length; i++) {
+            result[i] += inserted[i].length();
+        }
+        return result;
+    }
+
+    // the deletes and inserts undo or redo made, read from the document as it is afterwards; a range replacing text
+    // is a delete followed by an insert, so the lines it spans are told apart from the lines it added
+    public EditRanges ranges(Document doc, boolean undo) {
+        EditRanges ranges = new EditRanges(starts.length);
+        long[] at = undo ? starts : insertedStarts();
+        for (int i = 0; i < starts.length; i++) {
+            CharSequence gone = undo ? inserted[i] : removed[i];
+            CharSequence now = undo ? removed[i] : inserted[i];
+            int line = doc.getLineOfOffset(at[i]);
+            if (gone.length() > 0) {
+                ranges.add(at[i], gone.length(), 0, line, -newlines(gone));
+            }
+            if (now.length() > 0) {
+                ranges.add(at[i], 0, now.length(), line, newlines(now));
+            }
+        }
+        return ranges;
+    }
+
+    private static int newlines(CharSequence text) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void undo(Document doc) {
+        for (int i = 0; i < inserted.length; i++) {
+            inserted[i] = inserted[i].toString();
+        }
+        doc.replaceRanges(insertedStarts(), insertedEnds(), removed);
+    }
+
+    public void redo(Document doc) {
+        doc.replaceRanges(starts, ends, inserted);
+    }
+
+    // one splice per range; undoing range i finds it back at its old offset, as the ranges before it are undone already
+    public void journal(EditJournal journal, boolean undo) {
+        long shift = 0;
+        for (int i = 0; i < starts.length; i++) {
+            if (undo) {
+                journal.splice(starts[i], inserted[i].length(), removed[i]);
+            } else {
+                journal.splice(starts[i] + shift, ends[i] - starts[i], inserted[i]);
+                shift += inserted[i].length() - (ends[i] - starts[i]);
+            }
+        }
+    }
+
+    public long getUndoCaret() {
+        return undoCaret;
+    }
+
+    public long getRedoCaret() {
+        return redoCaret;
+    }
+
+    // typing at every caret: the next batch inserts at exactly the carets this one left
+    public boolean absorb(Edit next) {
+        if (!(next instanceof BatchEdit)) {
+            return false;
+        }
+        BatchEdit edit = (BatchEdit) next;
+        if (edit.size() != size() || !Arrays.equals(edit.starts, edit.ends) || !Arrays.equals(edit.starts, insertedEnds())) {
+            return false;
+        }
+        for (CharSequence text : inserted) {
+            if (text.length() > 0 && text.charAt(text.length() - 1) == '\n') {
+                return false;
+            }
+        }
+        for (int i = 0; i < inserted.length; i++) {
+            if (!(inserted[i] instanceof StringBuilder)) {
+                inserted[i] = new StringBuilder(inserted[i]);
+            }
+            ((StringBuilder) inserted[i]).append(edit.inserted[i]);
+        }
+        redoCaret = edit.redoCaret;
+        return true;
+    }
+
+    public long getMemoryUsage() {
+        long usage = RANGE_BYTES * starts.length;
+        for (int i = 0; i < starts.length; i++) {
+            usage += 2L * (removed[i].length() + inserted[i].length());
+        }
+        return usage;
+    }
+}
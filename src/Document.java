@@ -0,0 +1,38 @@
+import java.util.List;
+
+public interface Document {
+    long length();
+
+    char charAt(long offset);
+
+    String getText(long start, long end);
+
+    void insert(long offset, CharSequence text);
+
+    void delete(long start, long end);
+
+    int getLineCount();
+
+    long getLineStart(int line);
+
+    int getLineOfOffset(long offset);
+
+    // references to the buffer ranges making up start..end; nothing is copied
+    List<Segment> pieces(long start, long end);
+
+    // inserts text given as buffer ranges, typically ones returned by pieces
+    void insertPieces(long offset, List<Segment> pieces);
+
+    // replaces every match with the same text as one edit
+    void replaceAll(SearchResult matches, CharSequence replacement);
+
+    // replaces starts[i]..ends[i] with texts[i] for every i as one edit; the ranges are in order and do not overlap
+    void replaceRanges(long[] starts, long[] ends, CharSequence[] texts);
+
+    void extendOriginal();
+
+    long getMemoryUsage();
+
+    // the pieces making up the document, in order; the buffers only grow, so the result can be read off the EDT
+    List<Segment> snapshot();
+}
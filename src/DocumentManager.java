@@ -0,0 +1,59 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// keeps open documents resident up to a memory budget, evicting the least recently used first
+public class DocumentManager {
+    // -Deditor.documentBudget=<bytes> sets the budget for all open documents together
+    private static final long DEFAULT_BUDGET = Long.getLong("editor.documentBudget", 256L * 1024 * 1024);
+
+    public interface Resident {
+        long getMemoryUsage();
+
+        // gives back whatever can be read again from disk; false when nothing could be released
+        boolean evict();
+    }
+
+    private final Map<Resident, Boolean> residents = new LinkedHashMap<>(16, 0.75f, true);
+    private final long budget;
+
+    public DocumentManager() {
+        this(DEFAULT_BUDGET);
+    }
+
+    public DocumentManager(long budget) {
+        this.budget = budget;
+    }
+
+    public void add(Resident resident) {
+        residents.put(resident, Boolean.TRUE);
+        trim();
+    }
+
+    public void remove(Resident resident) {
+        residents.remove(resident);
+    }
+
+    // marks the resident as the most recently used one
+    public void touch(Resident resident) {
+        residents.get(resident);
+        trim();
+    }
+
+    // the most recently used resident is never evicted
+    public void trim() {
+        List<Resident> order = new ArrayList<>(residents.keySet());
+        long total = 0;
+        for (Resident resident : order) {
+            total += resident.getMemoryUsage();
+        }
+        for (int i = 0; i < order.size() - 1 && total > budget; i++) {
+            Resident resident = order.get(i);
+            long before = resident.getMemoryUsage();
+            if (resident.evict()) {
+                total -= before - resident.getMemoryUsage();
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+import java.util.List;
+
+// an immutable view of the document at one moment, safe to read from background threads
+public class DocumentSnapshot {
+    private final List<Segment> segments;
+    private final long[] starts;
+    private final long length;
+
+    public DocumentSnapshot(List<Segment> segments) {
+        this.segments = segments;
+        starts = new long[segments.size() + 1];
+        for (int i = 0; i < segments.size(); i++) {
+            starts[i + 1] = starts[i] + segments.get(i).length();
+        }
+        length = starts[segments.size()];
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    public void getChars(long start, long end, char[] dst, int dstBegin) {
+        int i = segmentOf(start);
+        while (start < end) {
+            Segment segment = segments.get(i);
+            long count = Math.min(end, starts[i + 1]) - start;
+            long from = segment.getStart() + start - starts[i];
+            segment.getSource().getChars(from, from + count, dst, dstBegin);
+            dstBegin += count;
+            start += count;
+            i++;
+        }
+    }
+
+    private int segmentOf(long offset) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,20 @@
+// one undoable change, kept as references into the document's buffers rather than copies of its text
+public interface Edit {
+    void undo(Document doc);
+
+    void redo(Document doc);
+
+    // where the caret goes after undo and after redo
+    long getUndoCaret();
+
+    long getRedoCaret();
+
+    // writes what undo or redo did to the document as splices
+    void journal(EditJournal journal, boolean undo);
+
+    // folds next into this edit when they read as one action, such as a run of typing
+    boolean absorb(Edit next);
+
+    // rough size of what the history keeps alive for this edit
+    long getMemoryUsage();
+}
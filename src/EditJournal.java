@@ -0,0 +1,269 @@
+import javax.swing.*;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// append-only log of the changes made to a file since it was read or saved, so unsaved text survives a crash
+public class EditJournal {
+    // -Deditor.journalCommit and -Deditor.journalSync set how often, in milliseconds, changes are written and forced to disk
+    private static final long COMMIT_INTERVAL = Long.getLong("editor.journalCommit", 200);
+    private static final long SYNC_INTERVAL = Long.getLong("editor.journalSync", 1000);
+    private static final int MAGIC = 0x454a4e31;
+    private static final byte SPLICE = 1;
+    // type, offset and removed length ahead of the inserted chars
+    private static final int SPLICE_HEADER = 17;
+    private static final int SHRINK_SIZE = 1 << 20;
+
+    // called on the event dispatch thread
+    public interface Listener {
+        void failed(IOException e);
+    }
+
+    // removed chars at offset replaced by inserted
+    public static class Splice {
+        private final long offset;
+        private final long removed;
+        private final String inserted;
+
+        Splice(long offset, long removed, String inserted) {
+            this.offset = offset;
+            this.removed = removed;
+            this.inserted = inserted;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getRemoved() {
+            return removed;
+        }
+
+        public String getInserted() {
+            return inserted;
+        }
+    }
+
+    private final Path path;
+    private long baseSize;
+    private long baseModified;
+    private final Listener listener;
+    private final CRC32 crc = new CRC32();
+    // frames not written yet; filled on the event dispatch thread, taken by the journal thread
+    private byte[] buffer = new byte[8192];
+    private int size;
+    private boolean commitScheduled;
+    private boolean closed;
+    // the file it belongs to is still being saved, so changes wait in memory for its size and modification time
+    private boolean held;
+    // journal thread only
+    private FileChannel channel;
+    private long lastSync;
+    private boolean syncScheduled;
+
+    // the journal belongs to the file whose size and modification time are given; nothing is written before the first change
+    public EditJournal(Path path, long baseSize, long baseModified, Listener listener) {
+        this.path = path;
+        this.baseSize = baseSize;
+        this.baseModified = baseModified;
+        this.listener = listener;
+    }
+
+    // a journal for a file that is being saved, taking the changes made meanwhile; begin() once the save is done
+    public EditJournal(Path path, Listener listener) {
+        this(path, -1, -1, listener);
+        held = true;
+    }
+
+    // the save finished with the file at this size and modification time; what was kept meanwhile is written now
+    public synchronized void begin(long baseSize, long baseModified) {
+        this.baseSize = baseSize;
+        this.baseModified = baseModified;
+        held = false;
+        if (size > 0 && !commitScheduled) {
+            commitScheduled = true;
+            Workers.journal().schedule(this::commit, COMMIT_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // the sidecar next to the file
+    public static Path pathFor(Path file) {
+        Path absolute = file.toAbsolutePath();
+        return absolute.resolveSibling("." + absolute.getFileName() + ".journal");
+    }
+
+    // only copies the change into memory; the journal thread writes it with everything else from the same moment
+    public synchronized void splice(long offset, long removed, CharSequence inserted) {
+        if (closed) {
+            return;
+        }
+        int length = SPLICE_HEADER + 2 * inserted.length();
+        ensure(8 + length);
+        int start = size + 4;
+        putInt(length);
+        buffer[size++] = SPLICE;
+        putLong(offset);
+        putLong(removed);
+        for (int i = 0; i < inserted.length(); i++) {
+            char c = inserted.charAt(i);
+            buffer[size++] = (byte) (c >>> 8);
+            buffer[size++] = (byte) c;
+        }
+        crc.reset();
+        crc.update(buffer, start, length);
+        putInt((int) crc.getValue());
+        if (!commitScheduled && !held) {
+            commitScheduled = true;
+            Workers.journal().schedule(this::commit, COMMIT_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // the changes are no longer needed, such as after a save
+    public synchronized void delete() {
+        closed = true;
+        size = 0;
+        Workers.journal().execute(() -> {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                // a stale journal is recognized by its header and discarded when the file is opened
+            }
+        });
+    }
+
+    // the changes in the journal at path, or null when it was written for a different version of the file
+    public static List<Splice> read(Path path, long baseSize, long baseModified) throws IOException {
+        List<Splice> splices = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            try {
+                if (in.readInt() != MAGIC || in.readLong() != baseSize || in.readLong() != baseModified) {
+                    return null;
+                }
+            } catch (EOFException e) {
+                // the header never made it to disk, so neither did any change
+                return splices;
+            }
+            CRC32 check = new CRC32();
+            while (true) {
+                byte[] frame;
+                try {
+                    int length = in.readInt();
+                    if (length < SPLICE_HEADER || (length - SPLICE_HEADER) % 2 != 0) {
+                        break;
+                    }
+                    frame = new byte[length];
+                    in.readFully(frame);
+                    check.reset();
+                    check.update(frame, 0, length);
+                    if (in.readInt() != (int) check.getValue()) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    // the last frame was cut short by the crash
+                    break;
+                }
+                ByteBuffer bytes = ByteBuffer.wrap(frame);
+                if (bytes.get() != SPLICE) {
+                    break;
+                }
+                long offset = bytes.getLong();
+                long removed = bytes.getLong();
+                splices.add(new Splice(offset, removed, bytes.asCharBuffer().toString()));
+            }
+        }
+        return splices;
+    }
+
+    private void commit() {
+        byte[] frames;
+        synchronized (this) {
+            commitScheduled = false;
+            if (closed || size == 0) {
+                return;
+            }
+            frames = Arrays.copyOf(buffer, size);
+            size = 0;
+            if (buffer.length > SHRINK_SIZE) {
+                buffer = new byte[8192];
+            }
+        }
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                ByteBuffer header = ByteBuffer.allocate(20);
+                header.putInt(MAGIC).putLong(baseSize).putLong(baseModified).flip();
+                write(header);
+            }
+            write(ByteBuffer.wrap(frames));
+            long now = System.nanoTime();
+            long sinceSync = TimeUnit.NANOSECONDS.toMillis(now - lastSync);
+            if (sinceSync >= SYNC_INTERVAL) {
+                sync();
+            } else if (!syncScheduled) {
+                // whatever is written now reaches the disk within one sync interval
+                syncScheduled = true;
+                Workers.journal().schedule(this::sync, SYNC_INTERVAL - sinceSync, TimeUnit.MILLISECONDS);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void sync() {
+        syncScheduled = false;
+        try {
+            if (channel != null && channel.isOpen()) {
+                channel.force(false);
+                lastSync = System.nanoTime();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void write(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    private void fail(IOException e) {
+        synchronized (this) {
+            closed = true;
+            size = 0;
+        }
+        SwingUtilities.invokeLater(() -> listener.failed(e));
+    }
+
+    private void ensure(int count) {
+        if (size + count > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + count));
+        }
+    }
+
+    private void putInt(int value) {
+        buffer[size++] = (byte) (value >>> 24);
+        buffer[size++] = (byte) (value >>> 16);
+        buffer[size++] = (byte) (value >>> 8);
+        buffer[size++] = (byte) value;
+    }
+
+    private void putLong(long value) {
+        putInt((int) (value >>> 32));
+        putInt((int) value);
+    }
+}
@@ -0,0 +1,64 @@
+import java.util.Arrays;
+
+// a multi-caret edit as the plain deletes and inserts it comes down to, in document order. Each one counts its offset
+// and line in the text as the ones before it left it, so an index follows them one after another, the way it follows
+// single edits, and only moves forward through its own data
+public class EditRanges {
+    private long[] offsets;
+    private long[] removed;
+    private long[] inserted;
+    private int[] lines;
+    private int[] lineDeltas;
+    private int count;
+
+    public EditRanges(int capacity) {
+        capacity = Math.max(1, capacity);
+        offsets = new long[capacity];
+        removed = new long[capacity];
+        inserted = new long[capacity];
+        lines = new int[capacity];
+        lineDeltas = new int[capacity];
+    }
+
+    public void add(long offset, long removedLength, long insertedLength, int line, int lineDelta) {
+        if (count == offsets.length) {
+            int capacity = count * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            removed = Arrays.copyOf(removed, capacity);
+            inserted = Arrays.copyOf(inserted, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            lineDeltas = Arrays.copyOf(lineDeltas, capacity);
+        }
+        offsets[count] = offset;
+        removed[count] = removedLength;
+        inserted[count] = insertedLength;
+        lines[count] = line;
+        lineDeltas[count] = lineDelta;
+        count++;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public long getOffset(int index) {
+        return offsets[index];
+    }
+
+    public long getRemoved(int index) {
+        return removed[index];
+    }
+
+    public long getInserted(int index) {
+        return inserted[index];
+    }
+
+    // the line holding the offset, and how many lines the change added, or removed when negative
+    public int getLine(int index) {
+        return lines[index];
+    }
+
+    public int getLineDelta(int index) {
+        return lineDeltas[index];
+    }
+}
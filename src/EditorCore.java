@@ -0,0 +1,809 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongUnaryOperator;
+
+// the editing engine without any user interface: document, caret, selection, history and the edits on them
+public class EditorCore {
+    private static final long[] NONE = {};
+    private static final Listener IGNORE = new Listener() {
+        public void edited(long offset, long removed, CharSequence inserted, int line, int lineDelta) {
+        }
+
+        public void rangesEdited(Edit edit, boolean undo, EditRanges ranges) {
+        }
+
+        public void replaced(Edit edit, boolean undo) {
+        }
+
+        public void appended(int line, int lineDelta) {
+        }
+
+        public void caretMoved(long oldCaret) {
+        }
+
+        public void selectionChanged(long oldStart, long oldEnd) {
+        }
+
+        public void caretsChanged() {
+        }
+    };
+
+    // called on whatever thread makes the change
+    public interface Listener {
+        // removed chars at offset were replaced by inserted; the lines after line moved by lineDelta
+        void edited(long offset, long removed, CharSequence inserted, int line, int lineDelta);
+
+        // a multi-caret edit, its undo or its redo, as the deletes and inserts it made in order
+        void rangesEdited(Edit edit, boolean undo, EditRanges ranges);
+
+        // a replace all, its undo or its redo, which may have changed text anywhere
+        void replaced(Edit edit, boolean undo);
+
+        // text arrived at the end without being an edit, such as while loading or following a file
+        void appended(int line, int lineDelta);
+
+        void caretMoved(long oldCaret);
+
+        // -1 when there was no selection
+        void selectionChanged(long oldStart, long oldEnd);
+
+        // carets besides the primary one were added, moved or dropped
+        void caretsChanged();
+    }
+
+    private final Listener listener;
+    private Document doc;
+    private final UndoHistory history = new UndoHistory();
+    // bumped by every edit, so background work can tell whether its snapshot is still current
+    private int editCount;
+    private int savedEditCount;
+    private long caret;
+    private long selectionStart = -1;
+    private long selectionEnd = -1;
+    // the other carets of a multi-caret or column selection, each selecting extraStarts[i]..extraEnds[i] with the caret
+    // at the end; in order, apart from each other and from the primary caret, which is the one the fields above hold
+    private long[] extraStarts = NONE;
+    private long[] extraEnds = NONE;
+    // what typed and pasted line breaks become, so they match the file's own
+    private String lineSeparator = "\n";
+
+    public EditorCore() {
+        this(IGNORE);
+    }
+
+    public EditorCore(Listener listener) {
+        this.listener = listener;
+        doc = new PieceTable("");
+    }
+
+    // a new document with no history, unmodified, with the caret at the start
+    public void setDocument(Document doc) {
+        this.doc = doc;
+        editCount = 0;
+        savedEditCount = 0;
+        history.clear();
+        caret = 0;
+        selectionStart = -1;
+        selectionEnd = -1;
+        extraStarts = NONE;
+        extraEnds = NONE;
+    }
+
+    public Document getDocument() {
+        return doc;
+    }
+
+    public String getLineSeparator() {
+        return lineSeparator;
+    }
+
+    // \n or \r\n; either way a line ends at its \n, and a \r before that is part of the line break
+    public void setLineSeparator(String lineSeparator) {
+        this.lineSeparator = lineSeparator;
+    }
+
+    public UndoHistory getHistory() {
+        return history;
+    }
+
+    public int getEditCount() {
+        return editCount;
+    }
+
+    public boolean isModified() {
+        return editCount != savedEditCount;
+    }
+
+    // the text as of editCount is what the file now holds
+    public void setSaved(int editCount) {
+        savedEditCount = editCount;
+    }
+
+    public long getLength() {
+        return doc.length();
+    }
+
+    public String getText() {
+        return doc.getText(0, doc.length());
+    }
+
+    public String getText(long start, long end) {
+        return doc.getText(start, end);
+    }
+
+    public List<Segment> snapshot() {
+        return doc.snapshot();
+    }
+
+    public int getLineCount() {
+        return doc.getLineCount();
+    }
+
+    public long getLineStart(int line) {
+        return doc.getLineStart(line);
+    }
+
+    // offset of the line break ending the line, or the document length for the last line; -1 past the last line
+    public long getLineEnd(int line) {
+        if (line < 0 || line >= doc.getLineCount()) {
+            return -1;
+        } else if (line == doc.getLineCount() - 1) {
+            return doc.length();
+        }
+        long newline = doc.getLineStart(line + 1) - 1;
+        return newline > doc.getLineStart(line) && doc.charAt(newline - 1) == '\r' ? newline - 1 : newline;
+    }
+
+    public int getLineOfOffset(long offset) {
+        return doc.getLineOfOffset(offset);
+    }
+
+    public String getLineText(int line) {
+        if (line < 0 || line >= doc.getLineCount()) {
+            return null;
+        }
+        return doc.getText(getLineStart(line), getLineEnd(line));
+    }
+
+    // the line without copying it, for lines that may be too long to copy
+    public CharSequence getLineChars(int line) {
+        if (line < 0 || line >= doc.getLineCount()) {
+            return null;
+        }
+        long start = getLineStart(line);
+        return new LineChars(doc, start, (int) (getLineEnd(line) - start));
+    }
+
+    public long getCaretPosition() {
+        return caret;
+    }
+
+    public int getCaretLine() {
+        return doc.getLineOfOffset(caret);
+    }
+
+    public int getCaretColumn() {
+        return (int) (caret - doc.getLineStart(getCaretLine()));
+    }
+
+    // moves the caret and drops the selection; a caret inside a \r\n goes before it
+    public void setCaretPosition(long position) {
+        if (position < 0 || position > doc.length()) {
+            throw new IndexOutOfBoundsException("caret " + position + ", length " + doc.length());
+        }
+        if (isInsideLineBreak(position)) {
+            position--;
+        }
+        clearExtraCarets();
+        select(-1, -1);
+        long oldCaret = caret;
+        caret = position;
+        listener.caretMoved(oldCaret);
+    }
+
+    public boolean hasSelection() {
+        return selectionStart >= 0 && selectionEnd >= 0;
+    }
+
+    // selection bounds in document order, clamped to the document
+    public long getSelectionMin() {
+        return Math.min(Math.min(selectionStart, selectionEnd), doc.length());
+    }
+
+    public long getSelectionMax() {
+        return Math.min(Math.max(selectionStart, selectionEnd), doc.length());
+    }
+
+    // with several carets, what each of them selects, one per line
+    public String getSelectedText() {
+        if (extraStarts.length > 0) {
+            long[][] ranges = caretRanges();
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < ranges[0].length; i++) {
+                text.append(i > 0 ? "\n" : "").append(doc.getText(ranges[0][i], ranges[1][i]));
+            }
+            return text.toString();
+        }
+        return hasSelection() ? doc.getText(getSelectionMin(), getSelectionMax()) : "";
+    }
+
+    // whether any caret, the primary one or another, selects something
+    public boolean hasAnySelection() {
+        if (hasSelection() && getSelectionMin() < getSelectionMax()) {
+            return true;
+        }
+        for (int i = 0; i < extraStarts.length; i++) {
+            if (extraStarts[i] < extraEnds[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getCaretCount() {
+        return 1 + extraStarts.length;
+    }
+
+    public int getExtraCaretCount() {
+        return extraStarts.length;
+    }
+
+    public long getExtraCaretStart(int index) {
+        return extraStarts[index];
+    }
+
+    // where the caret is; the selection, if any, runs from the start to here
+    public long getExtraCaretEnd(int index) {
+        return extraEnds[index];
+    }
+
+    // index of the first extra caret whose selection ends at or after offset, for drawing only the visible ones
+    public int extraCaretAfter(long offset) {
+        int low = 0;
+        int high = extraEnds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (extraEnds[mid] < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // keeps the caret and its selection and adds another caret at position, which becomes the primary one
+    public void addCaret(long position) {
+        if (position < 0 || position > doc.length()) {
+            throw new IndexOutOfBoundsException("caret " + position + ", length " + doc.length());
+        }
+        long[][] ranges = caretRanges();
+        int count = ranges[0].length;
+        long[] starts = Arrays.copyOf(ranges[0], count + 1);
+        long[] ends = Arrays.copyOf(ranges[1], count + 1);
+        starts[count] = position;
+        ends[count] = position;
+        setCarets(starts, ends, count);
+    }
+
+    // a caret selecting starts[i]..ends[i] for each i, such as one per line of a column selection; the ranges may come
+    // in any order and overlapping ones are merged; the one at index primary takes the primary caret
+    public void setCarets(long[] starts, long[] ends, int primary) {
+        int count = starts.length;
+        long[] from = new long[count];
+        long[] to = new long[count];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            if (starts[i] < 0 || ends[i] < starts[i] || ends[i] > doc.length()) {
+                throw new IndexOutOfBoundsException("caret " + starts[i] + ".." + ends[i] + ", length " + doc.length());
+            }
+            // never inside a \r\n
+            from[i] = isInsideLineBreak(starts[i]) ? starts[i] - 1 : starts[i];
+            to[i] = isInsideLineBreak(ends[i]) ? ends[i] - 1 : ends[i];
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(from[a], from[b]));
+        long[] sortedStarts = new long[count];
+        long[] sortedEnds = new long[count];
+        int n = 0;
+        int primaryAt = 0;
+        for (int i : order) {
+            // a range overlapping the one before, or a caret on top of it, joins it
+            if (n > 0 && (from[i] < sortedEnds[n - 1] || from[i] == sortedEnds[n - 1] && (from[i] == to[i] || sortedStarts[n - 1] == sortedEnds[n - 1]))) {
+                sortedEnds[n - 1] = Math.max(sortedEnds[n - 1], to[i]);
+            } else {
+                sortedStarts[n] = from[i];
+                sortedEnds[n] = to[i];
+                n++;
+            }
+            if (i == primary) {
+                primaryAt = n - 1;
+            }
+        }
+        long oldCaret = caret;
+        long oldStart = selectionStart;
+        long oldEnd = selectionEnd;
+        caret = sortedEnds[primaryAt];
+        selectionStart = sortedStarts[primaryAt] < sortedEnds[primaryAt] ? sortedStarts[primaryAt] : -1;
+        selectionEnd = selectionStart < 0 ? -1 : sortedEnds[primaryAt];
+        extraStarts = new long[n - 1];
+        extraEnds = new long[n - 1];
+        System.arraycopy(sortedStarts, 0, extraStarts, 0, primaryAt);
+        System.arraycopy(sortedEnds, 0, extraEnds, 0, primaryAt);
+        System.arraycopy(sortedStarts, primaryAt + 1, extraStarts, primaryAt, n - 1 - primaryAt);
+        System.arraycopy(sortedEnds, primaryAt + 1, extraEnds, primaryAt, n - 1 - primaryAt);
+        if (oldStart != selectionStart || oldEnd != selectionEnd) {
+            listener.selectionChanged(oldStart, oldEnd);
+        }
+        listener.caretMoved(oldCaret);
+        listener.caretsChanged();
+    }
+
+    // back to the primary caret alone
+    public void clearExtraCarets() {
+        if (extraStarts.length > 0) {
+            extraStarts = NONE;
+            extraEnds = NONE;
+            listener.caretsChanged();
+        }
+    }
+
+    // the caret stays where it is; -1, -1 clears the selection
+    public void select(long start, long end) {
+        long oldStart = selectionStart;
+        long oldEnd = selectionEnd;
+        if (start == oldStart && end == oldEnd) {
+            return;
+        }
+        selectionStart = start;
+        selectionEnd = end;
+        listener.selectionChanged(oldStart, oldEnd);
+    }
+
+    public void selectAll() {
+        select(0, doc.length());
+    }
+
+    public void insert(long offset, CharSequence text) {
+        insert(offset, text, false);
+    }
+
+    // typing joins the previous typing in the history
+    private void insert(long offset, CharSequence text, boolean typing) {
+        if (text.length() == 0) {
+            return;
+        }
+        Metrics.Sample sample = Metrics.start();
+        int lineCount = doc.getLineCount();
+        doc.insert(offset, text);
+        if (!typing || !history.extend(offset, text.length())) {
+            history.record(new TextEdit(offset, Collections.emptyList(), doc.pieces(offset, offset + text.length())), typing);
+        }
+        edited(offset, 0, text, lineCount);
+        Metrics.stop(Metrics.Op.EDIT, sample);
+    }
+
+    // start..end replaced by text as one edit, so one undo brings back what was there; it never joins other edits
+    public void replace(long start, long end, CharSequence text) {
+        if (start == end) {
+            insert(start, text, false);
+            return;
+        }
+        Metrics.Sample sample = Metrics.start();
+        int lineCount = doc.getLineCount();
+        List<Segment> removed = doc.pieces(start, end);
+        doc.delete(start, end);
+        // listeners hear a delete and an insert, which is how they know to follow every other edit
+        edited(start, end - start, "", lineCount);
+        lineCount = doc.getLineCount();
+        doc.insert(start, text);
+        history.record(new TextEdit(start, removed, doc.pieces(start, start + text.length())), false);
+        edited(start, 0, text, lineCount);
+        Metrics.stop(Metrics.Op.EDIT, sample);
+    }
+
+    public void delete(long start, long end) {
+        if (start == end) {
+            return;
+        }
+        Metrics.Sample sample = Metrics.start();
+        int lineCount = doc.getLineCount();
+        List<Segment> removed = doc.pieces(start, end);
+        doc.delete(start, end);
+        history.record(new TextEdit(start, removed, Collections.emptyList()), end - start == 1);
+        edited(start, end - start, "", lineCount);
+        Metrics.stop(Metrics.Op.EDIT, sample);
+    }
+
+    // typed text replaces the selection and goes in at the caret, joining the previous typing
+    public void type(CharSequence text) {
+        replaceSelection(text, true);
+    }
+
+    // pasted or scripted text replaces the selection and goes in at the caret as its own edit
+    public void replaceSelection(CharSequence text) {
+        replaceSelection(text, false);
+    }
+
+    private void replaceSelection(CharSequence text, boolean typing) {
+        if (extraStarts.length > 0) {
+            long[][] ranges = caretRanges();
+            CharSequence[] texts = new CharSequence[ranges[0].length];
+            // pasting as many lines as there are carets gives each caret its own line
+            String[] lines = typing ? null : splitLines(text, texts.length);
+            for (int i = 0; i < texts.length; i++) {
+                texts[i] = withLineSeparator(lines != null ? lines[i] : text);
+            }
+            editCarets(ranges[0], ranges[1], texts, typing);
+            return;
+        }
+        text = withLineSeparator(text);
+        if (hasSelection()) {
+            // one edit of its own, not a delete followed by an insert, so one undo brings the selection back
+            long start = getSelectionMin();
+            long end = getSelectionMax();
+            select(-1, -1);
+            replace(start, end, text);
+            setCaretPosition(start + text.length());
+            return;
+        }
+        long position = caret;
+        insert(position, text, typing);
+        setCaretPosition(position + text.length());
+    }
+
+    public void deleteSelection() {
+        if (extraStarts.length > 0) {
+            long[][] ranges = caretRanges();
+            CharSequence[] texts = new CharSequence[ranges[0].length];
+            Arrays.fill(texts, "");
+            editCarets(ranges[0], ranges[1], texts, false);
+            return;
+        }
+        long start = getSelectionMin();
+        delete(start, getSelectionMax());
+        setCaretPosition(start);
+    }
+
+    public void deleteBackward() {
+        if (extraStarts.length > 0) {
+            deleteAtCarets(false);
+        } else if (hasSelection()) {
+            deleteSelection();
+        } else if (caret > 0) {
+            long position = caret;
+            // a \r\n goes as a whole
+            long start = isInsideLineBreak(position - 1) ? position - 2 : position - 1;
+            delete(start, position);
+            setCaretPosition(start);
+        }
+    }
+
+    public void deleteForward() {
+        if (extraStarts.length > 0) {
+            deleteAtCarets(true);
+        } else if (hasSelection()) {
+            deleteSelection();
+        } else if (caret < doc.length()) {
+            delete(caret, isInsideLineBreak(caret + 1) ? caret + 2 : caret + 1);
+        }
+    }
+
+    public boolean undo() {
+        Metrics.Sample sample = Metrics.start();
+        Edit edit = history.undo(doc);
+        if (edit == null) {
+            return false;
+        }
+        historyApplied(edit, true, edit.getUndoCaret());
+        Metrics.stop(Metrics.Op.EDIT, sample);
+        return true;
+    }
+
+    public boolean redo() {
+        Metrics.Sample sample = Metrics.start();
+        Edit edit = history.redo(doc);
+        if (edit == null) {
+            return false;
+        }
+        historyApplied(edit, false, edit.getRedoCaret());
+        Metrics.stop(Metrics.Op.EDIT, sample);
+        return true;
+    }
+
+    public void replaceAll(SearchResult matches, CharSequence replacement) {
+        if (matches.size() == 0) {
+            return;
+        }
+        Metrics.Sample sample = Metrics.start();
+        List<Segment> removed = doc.pieces(0, doc.length());
+        doc.replaceAll(matches, replacement);
+        Edit edit = new ReplaceAllEdit(removed, matches, replacement.toString(), caret);
+        history.record(edit, false);
+        historyApplied(edit, false, caret);
+        Metrics.stop(Metrics.Op.EDIT, sample);
+    }
+
+    // every match in the document, found on all cores before returning
+    public SearchResult findAll(SearchQuery query) {
+        return SearchEngine.find(new DocumentSnapshot(doc.snapshot()), query);
+    }
+
+    // replaces every match as one edit and returns how many there were
+    public int replaceAll(SearchQuery query, CharSequence replacement) {
+        SearchResult matches = findAll(query);
+        replaceAll(matches, replacement);
+        return matches.size();
+    }
+
+    // selects the first match after the caret or selection, wrapping around to the start
+    public boolean findNext(SearchQuery query) {
+        DocumentSnapshot snapshot = new DocumentSnapshot(doc.snapshot());
+        long from = hasSelection() ? getSelectionMax() : caret;
+        long[] found = {-1, -1};
+        SearchResult owner = new SearchResult(query);
+        SearchEngine.Sink first = (start, end) -> {
+            if (found[0] < 0) {
+                found[0] = start;
+                found[1] = end;
+                owner.cancel();
+            }
+        };
+        SearchEngine.scan(snapshot, from, snapshot.length(), query, owner, first);
+        if (found[0] < 0) {
+            SearchEngine.scan(snapshot, 0, from, query, owner, first);
+        }
+        if (found[0] < 0) {
+            return false;
+        }
+        setCaretPosition(found[1]);
+        select(found[0], found[1]);
+        return true;
+    }
+
+    // appends text that is not an edit, so it is neither undone nor counted as a change
+    public void append(CharSequence text) {
+        int lastLine = doc.getLineCount() - 1;
+        doc.insert(doc.length(), text);
+        listener.appended(lastLine, doc.getLineCount() - 1 - lastLine);
+    }
+
+    // takes in whatever the document's source has read since the last call
+    public void sourceGrew() {
+        int lastLine = doc.getLineCount() - 1;
+        doc.extendOriginal();
+        listener.appended(lastLine, doc.getLineCount() - 1 - lastLine);
+    }
+
+    public void moveCaretBackward() {
+        if (extraStarts.length > 0) {
+            moveCarets(this::before);
+        } else if (getCaretColumn() > 0) {
+            moveCaret(caret - 1);
+        }
+    }
+
+    public void moveCaretForward() {
+        if (extraStarts.length > 0) {
+            moveCarets(this::after);
+        } else if (caret < getLineEnd(getCaretLine())) {
+            moveCaret(caret + 1);
+        }
+    }
+
+    // to the start of the word before the caret, staying on the caret's line
+    public void moveCaretWordBackward() {
+        clearExtraCarets();
+        int line = getCaretLine();
+        int column = getCaretColumn();
+        CharSequence lineText = getLineChars(line);
+        if (column > 0) {
+            boolean space = Character.isWhitespace(lineText.charAt(column - 1));
+            for (int i = column - 1; i >= 0; i--) {
+                if (Character.isWhitespace(lineText.charAt(i)) != space) {
+                    column = i + 1;
+                    break;
+                }
+            }
+            moveCaret(getLineStart(line) + column);
+        }
+    }
+
+    // to the end of the word at the caret, staying on the caret's line
+    public void moveCaretWordForward() {
+        clearExtraCarets();
+        int line = getCaretLine();
+        int column = getCaretColumn();
+        CharSequence lineText = getLineChars(line);
+        if (column < lineText.length()) {
+            boolean space = Character.isWhitespace(lineText.charAt(column));
+            for (int i = column; i < lineText.length(); i++) {
+                if (Character.isWhitespace(lineText.charAt(i)) != space) {
+                    column = i;
+                    break;
+                }
+            }
+            moveCaret(getLineStart(line) + column);
+        }
+    }
+
+    // keeps the column where the target line is long enough; every caret moves when there are several
+    public void moveCaretLines(int delta) {
+        if (extraStarts.length > 0) {
+            moveCarets(position -> linesAway(position, delta));
+        } else {
+            setCaretPosition(linesAway(caret, delta));
+        }
+    }
+
+    // each caret where move takes it, without the selections
+    private void moveCarets(LongUnaryOperator move) {
+        long[][] ranges = caretRanges();
+        int primary = primaryIndex();
+        long[] positions = new long[ranges[0].length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = move.applyAsLong(i == primary ? caret : ranges[1][i]);
+        }
+        setCarets(positions, positions.clone(), primary);
+    }
+
+    private long before(long position) {
+        return position > getLineStart(getLineOfOffset(position)) ? position - 1 : position;
+    }
+
+    private long after(long position) {
+        return position < getLineEnd(getLineOfOffset(position)) ? position + 1 : position;
+    }
+
+    private long linesAway(long position, int delta) {
+        int from = getLineOfOffset(position);
+        int line = (int) Math.max(0, Math.min(getLineCount() - 1L, (long) from + delta));
+        long column = Math.min(position - getLineStart(from), getLineEnd(line) - getLineStart(line));
+        return getLineStart(line) + column;
+    }
+
+    // a move within the line keeps the selection, as the arrow keys always have
+    private void moveCaret(long position) {
+        long oldCaret = caret;
+        caret = position;
+        listener.caretMoved(oldCaret);
+    }
+
+    // what each caret selects, or the char before or after it when it selects nothing
+    private void deleteAtCarets(boolean forward) {
+        long[][] ranges = caretRanges();
+        long[] starts = ranges[0];
+        long[] ends = ranges[1];
+        for (int i = 0; i < starts.length; i++) {
+            if (starts[i] < ends[i]) {
+                continue;
+            } else if (forward && ends[i] < doc.length()) {
+                ends[i] = isInsideLineBreak(ends[i] + 1) ? ends[i] + 2 : ends[i] + 1;
+            } else if (!forward && starts[i] > 0) {
+                starts[i] = isInsideLineBreak(starts[i] - 1) ? starts[i] - 2 : starts[i] - 1;
+            }
+        }
+        for (int i = 1; i < starts.length; i++) {
+            // carets next to each other delete the char between them once
+            starts[i] = Math.max(starts[i], ends[i - 1]);
+            ends[i] = Math.max(ends[i], starts[i]);
+        }
+        CharSequence[] texts = new CharSequence[starts.length];
+        Arrays.fill(texts, "");
+        editCarets(starts, ends, texts, true);
+    }
+
+    // replaces every caret's range with its text in one pass over the document, as one edit and one repaint,
+    // and leaves a caret after each replacement
+    private void editCarets(long[] starts, long[] ends, CharSequence[] texts, boolean typing) {
+        Metrics.Sample sample = Metrics.start();
+        int primary = primaryIndex();
+        String[] removed = new String[starts.length];
+        CharSequence[] inserted = new CharSequence[starts.length];
+        long[] carets = new long[starts.length];
+        long shift = 0;
+        for (int i = 0; i < starts.length; i++) {
+            removed[i] = doc.getText(starts[i], ends[i]);
+            inserted[i] = texts[i].toString();
+            carets[i] = starts[i] + shift + inserted[i].length();
+            shift += inserted[i].length() - (ends[i] - starts[i]);
+        }
+        doc.replaceRanges(starts, ends, inserted);
+        Edit edit = new BatchEdit(starts, ends, removed, inserted, caret, carets[primary]);
+        history.record(edit, typing);
+        historyApplied(edit, false, carets[primary]);
+        setCarets(carets, carets.clone(), primary);
+        Metrics.stop(Metrics.Op.EDIT, sample);
+    }
+
+    // every caret's range as {starts, ends}, in order, with the primary one at primaryIndex()
+    private long[][] caretRanges() {
+        int primary = primaryIndex();
+        int count = extraStarts.length + 1;
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        System.arraycopy(extraStarts, 0, starts, 0, primary);
+        System.arraycopy(extraEnds, 0, ends, 0, primary);
+        starts[primary] = hasSelection() ? getSelectionMin() : caret;
+        ends[primary] = hasSelection() ? getSelectionMax() : caret;
+        System.arraycopy(extraStarts, primary, starts, primary + 1, count - 1 - primary);
+        System.arraycopy(extraEnds, primary, ends, primary + 1, count - 1 - primary);
+        return new long[][]{starts, ends};
+    }
+
+    private int primaryIndex() {
+        long start = hasSelection() ? getSelectionMin() : caret;
+        int index = 0;
+        while (index < extraStarts.length && extraStarts[index] < start) {
+            index++;
+        }
+        return index;
+    }
+
+    // text split at its line breaks when it has exactly count lines, not counting a line break at the very end
+    private static String[] splitLines(CharSequence text, int count) {
+        String[] lines = text.toString().split("\r?\n", -1);
+        if (lines.length == count + 1 && lines[count].isEmpty()) {
+            lines = Arrays.copyOf(lines, count);
+        }
+        return lines.length == count ? lines : null;
+    }
+
+    private boolean isInsideLineBreak(long position) {
+        return position > 0 && position < doc.length() && doc.charAt(position) == '\n' && doc.charAt(position - 1) == '\r';
+    }
+
+    // \n in text becomes the line separator, except where it already follows a \r
+    private CharSequence withLineSeparator(CharSequence text) {
+        if (lineSeparator.equals("\n")) {
+            return text;
+        }
+        StringBuilder converted = null;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n' && (i == 0 || text.charAt(i - 1) != '\r')) {
+                if (converted == null) {
+                    converted = new StringBuilder(text.length() + 16).append(text, 0, i);
+                }
+                converted.append(lineSeparator);
+            } else if (converted != null) {
+                converted.append(text.charAt(i));
+            }
+        }
+        return converted == null ? text : converted;
+    }
+
+    private void edited(long offset, long removed, CharSequence inserted, int oldLineCount) {
+        editCount++;
+        listener.edited(offset, removed, inserted, doc.getLineOfOffset(offset), doc.getLineCount() - oldLineCount);
+    }
+
+    // one range undone or redone is told as the delete and insert it made, the way replace() tells it
+    private void textApplied(TextEdit edit, boolean undo) {
+        long offset = edit.getOffset();
+        List<Segment> gone = undo ? edit.getInserted() : edit.getRemoved();
+        List<Segment> now = undo ? edit.getRemoved() : edit.getInserted();
+        // the text before offset is the same either way, and so is its line
+        int line = doc.getLineOfOffset(offset);
+        long goneLength = TextEdit.length(gone);
+        if (goneLength > 0) {
+            listener.edited(offset, goneLength, "", line, -TextEdit.newlines(gone));
+        }
+        if (TextEdit.length(now) > 0) {
+            listener.edited(offset, 0, TextEdit.text(now), line, TextEdit.newlines(now));
+        }
+    }
+
+    private void historyApplied(Edit edit, boolean undo, long caret) {
+        editCount++;
+        if (edit instanceof BatchEdit batch) {
+            // each range on its own, so the indexes move along rather than start over
+            listener.rangesEdited(edit, undo, batch.ranges(doc, undo));
+        } else if (edit instanceof TextEdit text) {
+            textApplied(text, undo);
+        } else {
+            listener.replaced(edit, undo);
+        }
+        setCaretPosition(Math.min(caret, doc.length()));
+    }
+}
@@ -0,0 +1,68 @@
+import javax.swing.*;
+import java.util.concurrent.TimeUnit;
+
+// notices when the event dispatch thread keeps events waiting, by posting it a probe every interval,
+// and samples its stack while a probe waits, to tell where the time went
+public class EdtWatchdog {
+    // -Deditor.stallThreshold sets how long, in milliseconds, an event may wait before it counts as a stall
+    private static final long THRESHOLD = TimeUnit.MILLISECONDS.toNanos(Long.getLong("editor.stallThreshold", 100));
+    private static final long PROBE_INTERVAL = 20;
+
+    // watchdog thread only
+    private long posted;
+    private boolean sampled;
+    // set by the probe on the event dispatch thread
+    private volatile boolean answered = true;
+    private volatile Thread dispatchThread;
+    private volatile String lastStall;
+    private boolean started;
+
+    // probes only while metrics are enabled; starting twice does nothing
+    public synchronized void start() {
+        if (!started) {
+            started = true;
+            Workers.watchdog().scheduleWithFixedDelay(this::probe, 0, PROBE_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // the first frame outside the JDK of the last stall's stack, or null before the first stall
+    public String getLastStall() {
+        return lastStall;
+    }
+
+    private void probe() {
+        if (!answered) {
+            Thread thread = dispatchThread;
+            if (!sampled && thread != null && System.nanoTime() - posted > THRESHOLD) {
+                sampled = true;
+                lastStall = where(thread.getStackTrace());
+            }
+            return;
+        }
+        if (!Metrics.isEnabled()) {
+            return;
+        }
+        long sent = System.nanoTime();
+        posted = sent;
+        sampled = false;
+        answered = false;
+        SwingUtilities.invokeLater(() -> {
+            dispatchThread = Thread.currentThread();
+            long waited = System.nanoTime() - sent;
+            if (waited > THRESHOLD) {
+                Metrics.record(Metrics.Op.EDT_STALL, waited, 0);
+            }
+            answered = true;
+        });
+    }
+
+    private static String where(StackTraceElement[] stack) {
+        for (StackTraceElement frame : stack) {
+            String name = frame.getClassName();
+            if (!name.startsWith("java.") && !name.startsWith("javax.") && !name.startsWith("sun.") && !name.startsWith("jdk.")) {
+                return frame.getClassName() + "." + frame.getMethodName() + ":" + frame.getLineNumber();
+            }
+        }
+        return stack.length > 0 ? stack[0].toString() : "idle";
+    }
+}
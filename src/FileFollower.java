@@ -0,0 +1,136 @@
+import javax.swing.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// reads whatever is appended to a file after it was loaded, by polling its size; a file that shrank or was replaced
+// by another one, as a rotated log is, ends the following
+public class FileFollower {
+    // -Deditor.followInterval sets how often, in milliseconds, the file is checked for growth
+    private static final long POLL_INTERVAL = Long.getLong("editor.followInterval", 100);
+    // read per round trip to the event dispatch thread; a fast writer is caught up with one chunk after another
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    // all callbacks run on the event dispatch thread
+    public interface Listener {
+        // the file has grown to fileSize bytes; text is what the new bytes decode to
+        void appended(CharSequence text, long fileSize, long lastModified);
+
+        // the file is now shorter than what was read, or another file took its place
+        void truncated();
+
+        void failed(IOException e);
+    }
+
+    private final Path path;
+    private final CharsetDecoder decoder;
+    private final Listener listener;
+    // follow thread only; bytes keeps a character cut off at the end of the last read
+    private final ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+    private long position;
+    // identifies the file being read where the file system has such a thing, so a replacement is noticed even when
+    // it is already as long as what was read
+    private Object fileKey;
+    // a chunk is on its way to the document; nothing more is read until it arrives
+    private volatile boolean publishing;
+    private volatile boolean stopped;
+    private ScheduledFuture<?> task;
+
+    // position is the number of bytes already in the document
+    public FileFollower(Path path, Charset charset, long position, Listener listener) {
+        this.path = path;
+        this.position = position;
+        this.listener = listener;
+        decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    public void start() {
+        task = Workers.follow().scheduleWithFixedDelay(this::poll, 0, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        stopped = true;
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    private void poll() {
+        if (stopped || publishing) {
+            return;
+        }
+        try {
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                // between a log rotation's rename and the new file being created
+                return;
+            }
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+            Object key = attributes.fileKey();
+            boolean replaced = fileKey != null && key != null && !fileKey.equals(key);
+            if (fileKey == null) {
+                fileKey = key;
+            }
+            if (size < position || replaced) {
+                stop();
+                SwingUtilities.invokeLater(listener::truncated);
+                return;
+            }
+            if (size == position) {
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                bytes.limit((int) Math.min(bytes.capacity(), bytes.position() + size - position));
+                while (bytes.hasRemaining()) {
+                    int n = channel.read(bytes, position);
+                    if (n < 0) {
+                        break;
+                    }
+                    position += n;
+                }
+            }
+            bytes.flip();
+            decoder.decode(bytes, chars, false);
+            bytes.compact();
+            chars.flip();
+            // kept as they are, line endings included, the way the loader reads the file
+            String text = chars.toString();
+            chars.clear();
+            if (text.isEmpty()) {
+                return;
+            }
+            long fileSize = position;
+            boolean behind = position < size;
+            publishing = true;
+            SwingUtilities.invokeLater(() -> {
+                publishing = false;
+                if (!stopped) {
+                    listener.appended(text, fileSize, modified);
+                    if (behind) {
+                        Workers.follow().execute(this::poll);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            stop();
+            SwingUtilities.invokeLater(() -> listener.failed(e));
+        }
+    }
+}
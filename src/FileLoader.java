@@ -0,0 +1,160 @@
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+
+public class FileLoader {
+    public static final long LARGE_FILE_SIZE = 16 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final long PUBLISH_INTERVAL = 50_000_000L;
+
+    private interface Sink {
+        void chunk(CharSequence chars, long bytesRead);
+    }
+
+    // all callbacks run on the event dispatch thread
+    public interface Listener {
+        void loaded(long bytesRead, long fileSize);
+
+        void finished(boolean cancelled);
+
+        void failed(IOException e);
+    }
+
+    private final File file;
+    private final TextFormat format;
+    private final long fileSize;
+    private final TextSource source;
+    private volatile boolean cancelled;
+    // bytes decoded so far; past fileSize when the file grew while it was read
+    private volatile long bytesRead;
+
+    public FileLoader(File file, TextFormat format) throws IOException {
+        this.file = file;
+        this.format = format;
+        fileSize = file.length();
+        if (fileSize >= LARGE_FILE_SIZE && MappedFileSource.supports(format.getCharset())) {
+            source = new MappedFileSource(file.toPath(), format.getCharset(), format.getBomLength());
+        } else {
+            source = new StringSource();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public TextFormat getFormat() {
+        return format;
+    }
+
+    // empty until the first chunk arrives; grows on the event dispatch thread as loading goes on
+    public TextSource getSource() {
+        return source;
+    }
+
+    // reads the whole file on the calling thread, for use without a display
+    public static TextSource read(File file, TextFormat format) throws IOException {
+        Metrics.Sample sample = Metrics.start();
+        FileLoader loader = new FileLoader(file, format);
+        if (loader.source instanceof MappedFileSource) {
+            ((MappedFileSource) loader.source).index(() -> {
+            });
+        } else {
+            StringSource target = (StringSource) loader.source;
+            loader.stream((chars, bytesRead) -> target.append(chars));
+        }
+        Metrics.stop(Metrics.Op.OPEN, sample);
+        return loader.source;
+    }
+
+    public void start(Listener listener) {
+        Workers.io().execute(() -> {
+            Metrics.Sample sample = Metrics.start();
+            try {
+                if (source instanceof MappedFileSource) {
+                    MappedFileSource mapped = (MappedFileSource) source;
+                    mapped.index(() -> SwingUtilities.invokeLater(() -> {
+                        if (!cancelled) {
+                            listener.loaded(mapped.getIndexedBytes(), fileSize);
+                        }
+                    }));
+                    bytesRead = mapped.getIndexedBytes();
+                } else {
+                    StringSource target = (StringSource) source;
+                    stream((chars, bytesRead) -> publish(target, chars, bytesRead, listener));
+                }
+                if (!cancelled) {
+                    Metrics.stop(Metrics.Op.OPEN, sample);
+                }
+                SwingUtilities.invokeLater(() -> listener.finished(cancelled));
+            } catch (IOException e) {
+                SwingUtilities.invokeLater(() -> listener.failed(e));
+            }
+        });
+    }
+
+    public void cancel() {
+        cancelled = true;
+        if (source instanceof MappedFileSource) {
+            ((MappedFileSource) source).cancel();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    // decodes the file as it is, line endings included, through one decoder and a pair of buffers reused for every chunk
+    private void stream(Sink sink) throws IOException {
+        CharsetDecoder decoder = format.getCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.position(format.getBomLength());
+            StringBuilder pending = new StringBuilder();
+            long lastPublish = System.nanoTime();
+            boolean end = false;
+            while (!cancelled && !end) {
+                end = channel.read(bytes) < 0;
+                bytes.flip();
+                decoder.decode(bytes, chars, end);
+                if (end) {
+                    decoder.flush(chars);
+                }
+                bytes.compact();
+                chars.flip();
+                pending.append(chars);
+                chars.clear();
+                long now = System.nanoTime();
+                if (now - lastPublish > PUBLISH_INTERVAL) {
+                    lastPublish = now;
+                    sink.chunk(pending, channel.position());
+                    pending = new StringBuilder();
+                }
+            }
+            bytesRead = channel.position();
+            sink.chunk(pending, fileSize);
+        }
+    }
+
+    private void publish(StringSource target, CharSequence chunk, long bytesRead, Listener listener) {
+        SwingUtilities.invokeLater(() -> {
+            if (!cancelled) {
+                target.append(chunk);
+                listener.loaded(bytesRead, fileSize);
+            }
+        });
+    }
+}
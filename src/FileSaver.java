@@ -0,0 +1,130 @@
+import javax.swing.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+public class FileSaver {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    // all callbacks run on the event dispatch thread
+    public interface Listener {
+        void saved(Path path);
+
+        void failed(IOException e);
+    }
+
+    private final Path target;
+    private final TextFormat format;
+    private final List<Segment> segments;
+
+    public FileSaver(Path target, TextFormat format, List<Segment> segments) {
+        this.target = target.toAbsolutePath();
+        this.format = format;
+        this.segments = segments;
+    }
+
+    public void start(Listener listener) {
+        Workers.io().execute(() -> {
+            try {
+                save();
+                SwingUtilities.invokeLater(() -> listener.saved(target));
+            } catch (IOException e) {
+                SwingUtilities.invokeLater(() -> listener.failed(e));
+            }
+        });
+    }
+
+    // writes a temp file next to the target and renames it over the target, so a failed save leaves the old file intact
+    public void save() throws IOException {
+        Metrics.Sample sample = Metrics.start();
+        Path temp = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+        try {
+            if (Files.exists(target)) {
+                try {
+                    Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+                } catch (UnsupportedOperationException e) {
+                    // not a POSIX file system
+                }
+            }
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                write(out);
+                out.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Metrics.stop(Metrics.Op.SAVE, sample);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void write(FileChannel out) throws IOException {
+        Charset charset = format.getCharset();
+        out.write(ByteBuffer.wrap(format.getBom()));
+        CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocateDirect(CHUNK_SIZE * 4);
+        StringBuilder chars = new StringBuilder(CHUNK_SIZE);
+        for (Segment segment : segments) {
+            TextSource source = segment.getSource();
+            if (source instanceof MappedFileSource && ((MappedFileSource) source).getCharset().equals(charset)) {
+                // unmodified text of a mapped file is written byte for byte without decoding
+                MappedFileSource mapped = (MappedFileSource) source;
+                mapped.writeBytes(mapped.byteOffset(segment.getStart()), mapped.byteOffset(segment.getEnd()), out);
+                continue;
+            }
+            long start = segment.getStart();
+            while (start < segment.getEnd()) {
+                long end = Math.min(segment.getEnd(), start + CHUNK_SIZE);
+                chars.setLength(0);
+                source.appendTo(chars, start, end);
+                // keep a surrogate pair in one chunk
+                if (end < segment.getEnd() && Character.isHighSurrogate(chars.charAt(chars.length() - 1))) {
+                    source.appendTo(chars, end, end + 1);
+                    end++;
+                }
+                encode(encoder, CharBuffer.wrap(chars), bytes, out);
+                start = end;
+            }
+        }
+    }
+
+    private static void encode(CharsetEncoder encoder, CharBuffer in, ByteBuffer bytes, FileChannel out) throws IOException {
+        encoder.reset();
+        while (true) {
+            CoderResult result = encoder.encode(in, bytes, true);
+            if (result.isOverflow()) {
+                drain(bytes, out);
+            } else {
+                break;
+            }
+        }
+        while (encoder.flush(bytes).isOverflow()) {
+            drain(bytes, out);
+        }
+        drain(bytes, out);
+    }
+
+    private static void drain(ByteBuffer bytes, FileChannel out) throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            out.write(bytes);
+        }
+        bytes.clear();
+    }
+}
@@ -0,0 +1,9 @@
+// finds the matches of one query inside a buffer of chars
+public interface Finder {
+    interface Sink {
+        void match(int start, int end);
+    }
+
+    // reports non-overlapping matches inside text[from, to) that start before limit
+    void find(char[] text, int from, int to, int limit, Sink sink);
+}
@@ -0,0 +1,91 @@
+import java.util.Arrays;
+
+// the folded structures of a viewer: each hides the lines from the one after its header through its last line.
+// Folds nest but never cross, and are kept sorted by header
+public class Folds {
+    private int[] headers = new int[8];
+    private int[] lasts = new int[8];
+    private int count;
+
+    public int size() {
+        return count;
+    }
+
+    public int getHeader(int index) {
+        return headers[index];
+    }
+
+    public int getLast(int index) {
+        return lasts[index];
+    }
+
+    // a fold with the same header is replaced
+    public void add(int header, int last) {
+        int index = search(header);
+        if (index >= 0) {
+            lasts[index] = last;
+            return;
+        }
+        index = -index - 1;
+        if (count == headers.length) {
+            headers = Arrays.copyOf(headers, count * 2);
+            lasts = Arrays.copyOf(lasts, count * 2);
+        }
+        System.arraycopy(headers, index, headers, index + 1, count - index);
+        System.arraycopy(lasts, index, lasts, index + 1, count - index);
+        headers[index] = header;
+        lasts[index] = last;
+        count++;
+    }
+
+    public void remove(int index) {
+        System.arraycopy(headers, index + 1, headers, index, count - index - 1);
+        System.arraycopy(lasts, index + 1, lasts, index, count - index - 1);
+        count--;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    // the fold with the given header line, or -1
+    public int indexOf(int header) {
+        return Math.max(-1, search(header));
+    }
+
+    // the outermost fold hiding the line, or -1
+    public int hiding(int line) {
+        for (int i = 0; i < count && headers[i] < line; i++) {
+            if (lasts[i] >= line) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // an edit touched the given line and changed the line count by lineDelta; folds below it move, and folds whose
+    // hidden lines it reached, or whose header it split or joined, are dropped. Returns whether any was dropped
+    public boolean linesChanged(int line, int lineDelta) {
+        int touchedEnd = line + Math.max(0, -lineDelta);
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int header = headers[i];
+            int last = lasts[i];
+            if (header > touchedEnd) {
+                header += lineDelta;
+                last += lineDelta;
+            } else if (last >= line && (header != line || lineDelta != 0)) {
+                continue;
+            }
+            headers[kept] = header;
+            lasts[kept++] = last;
+        }
+        boolean dropped = kept < count;
+        count = kept;
+        return dropped;
+    }
+
+    private int search(int header) {
+        return Arrays.binarySearch(headers, 0, count, header);
+    }
+}
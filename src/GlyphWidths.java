@@ -0,0 +1,65 @@
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// advance widths of one font, measured at most once per char
+public class GlyphWidths {
+    private static final Map<Font, GlyphWidths> CACHE = new HashMap<>();
+
+    private final FontMetrics metrics;
+    private final int[] widths;
+
+    private GlyphWidths(FontMetrics metrics) {
+        this.metrics = metrics;
+        widths = new int[Character.MAX_VALUE + 1];
+        Arrays.fill(widths, -1);
+        for (char c = 0; c < 128; c++) {
+            widths[c] = metrics.charWidth(c);
+        }
+    }
+
+    public static synchronized GlyphWidths get(FontMetrics metrics) {
+        return CACHE.computeIfAbsent(metrics.getFont(), font -> new GlyphWidths(metrics));
+    }
+
+    public FontMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int charWidth(char c) {
+        int width = widths[c];
+        if (width < 0) {
+            width = metrics.charWidth(c);
+            widths[c] = width;
+        }
+        return width;
+    }
+
+    public int width(CharSequence text, int start, int end) {
+        int width = 0;
+        for (int i = start; i < end; i++) {
+            width += charWidth(text.charAt(i));
+        }
+        return width;
+    }
+
+    // the column whose left edge is closest to x
+    public int column(CharSequence text, int x) {
+        return column(text, 0, text.length(), x);
+    }
+
+    // the same for the part of the text from start to end drawn at x = 0
+    public int column(CharSequence text, int start, int end, int x) {
+        int width = 0;
+        for (int i = start; i < end; i++) {
+            int w = charWidth(text.charAt(i));
+            if (x < width + w / 2) {
+                return i;
+            }
+            width += w;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,298 @@
+import javax.swing.*;
+import java.util.Arrays;
+
+// keeps the lexer state at the end of every line, so an edit is lexed again only until the states agree with the old ones
+public class Highlighter {
+    private static final int CACHED_LINES = 1024;
+    // lines lexed on the event dispatch thread after an edit before the rest is left to the background
+    private static final int EDIT_LINES = 100;
+    private static final int READ_SIZE = 64 * 1024;
+    private static final long PUBLISH_INTERVAL = 20_000_000L;
+
+    // called on the event dispatch thread when lines from..to have to be painted again
+    public interface Listener {
+        void linesRestyled(int from, int to);
+    }
+
+    private final Listener listener;
+    private Lexer lexer;
+    private Document doc;
+    private final LineStates states = new LineStates();
+    // end states of lines below validLines are exact, those below knownLines may be stale
+    private int validLines;
+    private int knownLines;
+    // a line before this one was edited, so agreement with its old state proves nothing
+    private int dirtyEnd;
+    // bumped whenever the background results would no longer fit
+    private volatile int version;
+    private boolean running;
+
+    private final int[] cachedLines = new int[CACHED_LINES];
+    private final int[][] cachedSpans = new int[CACHED_LINES][];
+    private int[] spanBuffer = new int[48];
+    private int spanCount;
+    private final Lexer.Sink spanSink = (start, end, style) -> {
+        if (spanCount + 3 > spanBuffer.length) {
+            spanBuffer = Arrays.copyOf(spanBuffer, spanBuffer.length * 2);
+        }
+        spanBuffer[spanCount++] = start;
+        spanBuffer[spanCount++] = end;
+        spanBuffer[spanCount++] = style;
+    };
+
+    public Highlighter(Listener listener) {
+        this.listener = listener;
+        Arrays.fill(cachedLines, -1);
+    }
+
+    public void setLexer(Lexer lexer) {
+        if (lexer == null ? this.lexer == null : this.lexer != null && lexer.getClass() == this.lexer.getClass()) {
+            return;
+        }
+        this.lexer = lexer;
+        reset();
+    }
+
+    public void setDocument(Document doc) {
+        this.doc = doc;
+        reset();
+    }
+
+    // start, end and style of every token on the line; null when the line's starting state is not known yet
+    public int[] getSpans(int line, CharSequence text) {
+        if (lexer == null) {
+            return null;
+        }
+        int slot = line & (CACHED_LINES - 1);
+        if (cachedLines[slot] == line) {
+            return cachedSpans[slot];
+        }
+        if (line > knownLines) {
+            return null;
+        }
+        spanCount = 0;
+        lexer.lex(text, line == 0 ? Lexer.INITIAL_STATE : states.get(line - 1), spanSink);
+        cachedLines[slot] = line;
+        cachedSpans[slot] = Arrays.copyOf(spanBuffer, spanCount);
+        return cachedSpans[slot];
+    }
+
+    // an edit touched the given line and changed the line count by lineDelta
+    public void linesChanged(int line, int lineDelta) {
+        if (lexer == null) {
+            return;
+        }
+        // the old end state of the edited line moves to the last line the edit left in its place
+        if (lineDelta > 0) {
+            states.insert(line, lineDelta);
+        } else if (lineDelta < 0) {
+            states.remove(line, -lineDelta);
+        }
+        if (validLines > line && validLines < knownLines) {
+            // states past an unfinished pass are older than the lines before them
+            dirtyEnd = Math.max(dirtyEnd, validLines);
+        }
+        if (knownLines > line) {
+            knownLines = Math.max(line, knownLines + lineDelta);
+        }
+        if (dirtyEnd > line) {
+            dirtyEnd = Math.max(line, dirtyEnd + lineDelta);
+        }
+        dirtyEnd = Math.max(dirtyEnd, line + Math.max(0, lineDelta));
+        validLines = Math.min(validLines, line);
+        invalidateSpans(line, lineDelta);
+        version++;
+        running = false;
+        relex(EDIT_LINES);
+    }
+
+    // the text changed in places nobody told us about; old states are kept for painting until new ones arrive
+    public void textReplaced() {
+        if (lexer == null) {
+            return;
+        }
+        states.setSize(doc.getLineCount());
+        knownLines = Math.min(knownLines, states.size());
+        validLines = 0;
+        dirtyEnd = states.size();
+        invalidateSpans(0, 1);
+        version++;
+        running = false;
+        relex(0);
+    }
+
+    private void reset() {
+        version++;
+        running = false;
+        states.setSize(0);
+        validLines = 0;
+        knownLines = 0;
+        dirtyEnd = 0;
+        invalidateSpans(0, 1);
+        if (lexer != null && doc != null) {
+            states.setSize(doc.getLineCount());
+            relex(0);
+        }
+    }
+
+    // lexes up to budget lines here, then hands the rest to the background thread
+    private void relex(int budget) {
+        int lineCount = doc.getLineCount();
+        if (states.size() != lineCount) {
+            // the document grew while loading
+            states.setSize(lineCount);
+        }
+        int restyledFrom = Integer.MAX_VALUE;
+        int restyledTo = -1;
+        for (int i = 0; i < budget && validLines < lineCount; i++) {
+            int line = validLines;
+            String text = lineText(line);
+            if (text == null) {
+                break;
+            }
+            int state = lexer.lex(text, line == 0 ? Lexer.INITIAL_STATE : states.get(line - 1), null);
+            int changed = accept(line, state);
+            if (changed >= 0) {
+                restyledFrom = Math.min(restyledFrom, changed);
+                restyledTo = Math.max(restyledTo, changed);
+            }
+        }
+        if (restyledTo >= 0) {
+            listener.linesRestyled(restyledFrom, restyledTo);
+        }
+        if (validLines < lineCount && !running) {
+            startBackground();
+        }
+    }
+
+    // records the end state of the next unconfirmed line; returns a line that has to be painted again, or -1
+    private int accept(int line, int state) {
+        boolean known = line < knownLines;
+        int old = known ? states.get(line) : -1;
+        states.set(line, state);
+        validLines = line + 1;
+        if (known && old == state && line >= dirtyEnd) {
+            // from here on the old states are right again
+            validLines = knownLines;
+            dirtyEnd = 0;
+            return -1;
+        }
+        knownLines = Math.max(knownLines, validLines);
+        if (validLines >= states.size()) {
+            dirtyEnd = 0;
+        }
+        if (old != state && line + 1 < states.size()) {
+            invalidateSpans(line + 1, 0);
+            return line + 1;
+        }
+        return -1;
+    }
+
+    private void startBackground() {
+        running = true;
+        int runVersion = ++version;
+        int firstLine = validLines;
+        int startState = firstLine == 0 ? Lexer.INITIAL_STATE : states.get(firstLine - 1);
+        long start = doc.getLineStart(firstLine);
+        Lexer runLexer = lexer;
+        DocumentSnapshot snapshot = new DocumentSnapshot(doc.snapshot());
+        Workers.highlight().execute(() -> lexInBackground(runVersion, runLexer, snapshot, start, firstLine, startState));
+    }
+
+    private void lexInBackground(int runVersion, Lexer runLexer, DocumentSnapshot snapshot, long start, int firstLine, int state) {
+        char[] buffer = new char[READ_SIZE];
+        StringBuilder line = new StringBuilder();
+        byte[] batch = new byte[4096];
+        int count = 0;
+        int batchLine = firstLine;
+        long lastPublish = System.nanoTime();
+        long length = snapshot.length();
+        for (long offset = start; offset < length && version == runVersion; offset += READ_SIZE) {
+            int n = (int) Math.min(READ_SIZE, length - offset);
+            snapshot.getChars(offset, offset + n, buffer, 0);
+            for (int i = 0; i < n; i++) {
+                if (buffer[i] != '\n') {
+                    line.append(buffer[i]);
+                    continue;
+                }
+                // the \r of a \r\n is not part of the line the viewer lexes
+                if (line.length() > 0 && line.charAt(line.length() - 1) == '\r') {
+                    line.setLength(line.length() - 1);
+                }
+                state = runLexer.lex(line, state, null);
+                line.setLength(0);
+                if (count == batch.length) {
+                    batch = Arrays.copyOf(batch, count * 2);
+                }
+                batch[count++] = (byte) state;
+                long now = System.nanoTime();
+                if (now - lastPublish > PUBLISH_INTERVAL) {
+                    lastPublish = now;
+                    publish(runVersion, batchLine, batch, count, false);
+                    batchLine += count;
+                    batch = new byte[4096];
+                    count = 0;
+                }
+            }
+        }
+        if (version == runVersion) {
+            // the last line has no newline after it
+            if (count == batch.length) {
+                batch = Arrays.copyOf(batch, count + 1);
+            }
+            batch[count++] = (byte) runLexer.lex(line, state, null);
+            publish(runVersion, batchLine, batch, count, true);
+        }
+    }
+
+    private void publish(int runVersion, int firstLine, byte[] batch, int count, boolean last) {
+        SwingUtilities.invokeLater(() -> {
+            if (version != runVersion || firstLine != validLines) {
+                return;
+            }
+            int lineCount = states.size();
+            int restyledFrom = Integer.MAX_VALUE;
+            int restyledTo = -1;
+            int oldKnown = knownLines;
+            for (int i = 0; i < count && validLines == firstLine + i && firstLine + i < lineCount; i++) {
+                int changed = accept(firstLine + i, batch[i]);
+                if (changed >= 0) {
+                    restyledFrom = Math.min(restyledFrom, changed);
+                    restyledTo = Math.max(restyledTo, changed);
+                }
+            }
+            // lines lexed for the first time were painted plain
+            if (knownLines > oldKnown) {
+                restyledFrom = Math.min(restyledFrom, oldKnown);
+                restyledTo = Math.max(restyledTo, knownLines - 1);
+            }
+            if (restyledTo >= 0) {
+                listener.linesRestyled(restyledFrom, restyledTo);
+            }
+            if (last || validLines >= lineCount || validLines != firstLine + count) {
+                // finished, converged, or the document grew behind the snapshot
+                running = false;
+                version++;
+                if (validLines < lineCount) {
+                    relex(0);
+                }
+            }
+        });
+    }
+
+    // null for a line too long to lex here; the background thread gets to it
+    private String lineText(int line) {
+        long start = doc.getLineStart(line);
+        long end = line + 1 < doc.getLineCount() ? doc.getLineStart(line + 1) - 1 : doc.length();
+        return LongLines.isLong((int) Math.min(Integer.MAX_VALUE, end - start)) ? null : doc.getText(start, end);
+    }
+
+    private void invalidateSpans(int line, int lineDelta) {
+        for (int slot = 0; slot < CACHED_LINES; slot++) {
+            if (lineDelta == 0 ? cachedLines[slot] == line : cachedLines[slot] >= line) {
+                cachedLines[slot] = -1;
+                cachedSpans[slot] = null;
+            }
+        }
+    }
+}
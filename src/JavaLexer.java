@@ -0,0 +1,137 @@
+public class JavaLexer implements Lexer {
+    private static final int BLOCK_COMMENT = 1;
+    private static final int TEXT_BLOCK = 2;
+
+    private static final String[] KEYWORDS = {
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
+            "continue", "default", "do", "double", "else", "enum", "extends", "false", "final", "finally",
+            "float", "for", "goto", "if", "implements", "import", "instanceof", "int", "interface", "long",
+            "native", "new", "null", "package", "private", "protected", "public", "record", "return", "short",
+            "static", "strictfp", "super", "switch", "synchronized", "this", "throw", "throws", "transient",
+            "true", "try", "var", "void", "volatile", "while", "yield",
+    };
+
+    public int lex(CharSequence line, int state, Sink sink) {
+        int n = line.length();
+        int i = 0;
+        if (state == BLOCK_COMMENT || state == TEXT_BLOCK) {
+            String close = state == BLOCK_COMMENT ? "*/" : "\"\"\"";
+            int end = indexOf(line, close, 0);
+            if (end < 0) {
+                token(sink, 0, n, state == BLOCK_COMMENT ? TokenStyle.COMMENT : TokenStyle.STRING);
+                return state;
+            }
+            i = end + close.length();
+            token(sink, 0, i, state == BLOCK_COMMENT ? TokenStyle.COMMENT : TokenStyle.STRING);
+        }
+        while (i < n) {
+            char c = line.charAt(i);
+            char next = i + 1 < n ? line.charAt(i + 1) : 0;
+            if (c == '/' && next == '/') {
+                token(sink, i, n, TokenStyle.COMMENT);
+                return INITIAL_STATE;
+            } else if (c == '/' && next == '*') {
+                int end = indexOf(line, "*/", i + 2);
+                if (end < 0) {
+                    token(sink, i, n, TokenStyle.COMMENT);
+                    return BLOCK_COMMENT;
+                }
+                token(sink, i, end + 2, TokenStyle.COMMENT);
+                i = end + 2;
+            } else if (c == '"' && indexOf(line, "\"\"\"", i) == i) {
+                int end = indexOf(line, "\"\"\"", i + 3);
+                if (end < 0) {
+                    token(sink, i, n, TokenStyle.STRING);
+                    return TEXT_BLOCK;
+                }
+                token(sink, i, end + 3, TokenStyle.STRING);
+                i = end + 3;
+            } else if (c == '"' || c == '\'') {
+                int end = skipQuoted(line, i);
+                token(sink, i, end, TokenStyle.STRING);
+                i = end;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int end = i + 1;
+                while (end < n && Character.isJavaIdentifierPart(line.charAt(end))) {
+                    end++;
+                }
+                if (isKeyword(line, i, end)) {
+                    token(sink, i, end, TokenStyle.KEYWORD);
+                }
+                i = end;
+            } else if (c == '@' && Character.isJavaIdentifierStart(next)) {
+                int end = i + 2;
+                while (end < n && Character.isJavaIdentifierPart(line.charAt(end))) {
+                    end++;
+                }
+                token(sink, i, end, TokenStyle.ANNOTATION);
+                i = end;
+            } else if (c >= '0' && c <= '9') {
+                int end = i + 1;
+                while (end < n && (Character.isLetterOrDigit(line.charAt(end)) || line.charAt(end) == '.' || line.charAt(end) == '_')) {
+                    end++;
+                }
+                token(sink, i, end, TokenStyle.NUMBER);
+                i = end;
+            } else {
+                i++;
+            }
+        }
+        return INITIAL_STATE;
+    }
+
+    static void token(Sink sink, int start, int end, int style) {
+        if (sink != null && end > start) {
+            sink.token(start, end, style);
+        }
+    }
+
+    // end of the quoted literal starting at start, or the end of the line when it is not closed
+    static int skipQuoted(CharSequence line, int start) {
+        char quote = line.charAt(start);
+        int i = start + 1;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return line.length();
+    }
+
+    static int indexOf(CharSequence line, String target, int from) {
+        for (int i = from; i + target.length() <= line.length(); i++) {
+            if (regionMatches(line, i, target)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static boolean regionMatches(CharSequence line, int start, String target) {
+        for (int j = 0; j < target.length(); j++) {
+            if (line.charAt(start + j) != target.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isWord(CharSequence line, int start, int end, String[] words) {
+        for (String word : words) {
+            if (word.length() == end - start && regionMatches(line, start, word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isKeyword(CharSequence line, int start, int end) {
+        char first = line.charAt(start);
+        return first >= 'a' && first <= 'z' && end - start >= 2 && end - start <= 12 && isWord(line, start, end, KEYWORDS);
+    }
+}
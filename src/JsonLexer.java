@@ -0,0 +1,40 @@
+public class JsonLexer implements Lexer {
+    private static final String[] LITERALS = {"true", "false", "null"};
+
+    public int lex(CharSequence line, int state, Sink sink) {
+        int n = line.length();
+        int i = 0;
+        while (i < n) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                int end = JavaLexer.skipQuoted(line, i);
+                // a string followed by a colon is a key
+                int next = end;
+                while (next < n && Character.isWhitespace(line.charAt(next))) {
+                    next++;
+                }
+                JavaLexer.token(sink, i, end, next < n && line.charAt(next) == ':' ? TokenStyle.KEY : TokenStyle.STRING);
+                i = end;
+            } else if (c == '-' || c >= '0' && c <= '9') {
+                int end = i + 1;
+                while (end < n && "0123456789.eE+-".indexOf(line.charAt(end)) >= 0) {
+                    end++;
+                }
+                JavaLexer.token(sink, i, end, TokenStyle.NUMBER);
+                i = end;
+            } else if (c >= 'a' && c <= 'z') {
+                int end = i + 1;
+                while (end < n && Character.isLetter(line.charAt(end))) {
+                    end++;
+                }
+                if (JavaLexer.isWord(line, i, end, LITERALS)) {
+                    JavaLexer.token(sink, i, end, TokenStyle.KEYWORD);
+                }
+                i = end;
+            } else {
+                i++;
+            }
+        }
+        return INITIAL_STATE;
+    }
+}
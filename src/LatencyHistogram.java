@@ -0,0 +1,82 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// counts of values in log-linear buckets, 32 to each power of two, so any percentile is within about 3% of the truth;
+// recording is lock free and never allocates
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // values from 2^MAX_BIT up, about 18 minutes in nanoseconds, share the last bucket
+    private static final int MAX_BIT = 40;
+    private static final int BUCKETS = (MAX_BIT - SUB_BITS + 2) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray totals = new AtomicLongArray(3);
+
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(bucketOf(value));
+        totals.incrementAndGet(0);
+        totals.addAndGet(1, value);
+        long max;
+        while (value > (max = totals.get(2)) && !totals.compareAndSet(2, max, value)) {
+            // another thread raised the maximum meanwhile
+        }
+    }
+
+    public long getCount() {
+        return totals.get(0);
+    }
+
+    public long getMean() {
+        long count = totals.get(0);
+        return count == 0 ? 0 : totals.get(1) / count;
+    }
+
+    public long getMax() {
+        return totals.get(2);
+    }
+
+    // the value below which the given fraction of the recorded values fall, reported as the middle of its bucket
+    public long getPercentile(double fraction) {
+        long count = totals.get(0);
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(getMax(), (lowerBound(i) + lowerBound(i + 1)) / 2);
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        for (int i = 0; i < 3; i++) {
+            totals.set(i, 0);
+        }
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int bit = Math.min(MAX_BIT, 63 - Long.numberOfLeadingZeros(value));
+        long top = bit == MAX_BIT && value >= 1L << (MAX_BIT + 1) ? 2 * SUB_COUNT - 1 : value >>> (bit - SUB_BITS);
+        return (bit - SUB_BITS + 1) * SUB_COUNT + (int) (top - SUB_COUNT);
+    }
+
+    private static long lowerBound(int bucket) {
+        if (bucket < 2 * SUB_COUNT) {
+            return bucket;
+        }
+        int bit = bucket / SUB_COUNT + SUB_BITS - 1;
+        long top = bucket % SUB_COUNT + SUB_COUNT;
+        return top << (bit - SUB_BITS);
+    }
+}
@@ -0,0 +1,12 @@
+// tokenizes one line at a time; the state carries constructs such as block comments over to the next line
+public interface Lexer {
+    int INITIAL_STATE = 0;
+
+    interface Sink {
+        void token(int start, int end, int style);
+    }
+
+    // lexes a line without its newline, reporting styled spans in order when sink is not null;
+    // returns the state at the end of the line
+    int lex(CharSequence line, int state, Sink sink);
+}
@@ -0,0 +1,70 @@
+import java.util.Arrays;
+
+// direct-mapped cache of line text and width for the lines the viewer has painted recently
+public class LineCache {
+    private static final int CAPACITY = 1024;
+
+    private final int[] lines;
+    private final String[] texts;
+    private final int[] widths;
+
+    public LineCache() {
+        lines = new int[CAPACITY];
+        texts = new String[CAPACITY];
+        widths = new int[CAPACITY];
+        clear();
+    }
+
+    public String getText(int line) {
+        int slot = line & (CAPACITY - 1);
+        return lines[slot] == line ? texts[slot] : null;
+    }
+
+    public void put(int line, String text) {
+        int slot = line & (CAPACITY - 1);
+        lines[slot] = line;
+        texts[slot] = text;
+        widths[slot] = -1;
+    }
+
+    // -1 when the line is not cached or has not been measured
+    public int getWidth(int line) {
+        int slot = line & (CAPACITY - 1);
+        return lines[slot] == line ? widths[slot] : -1;
+    }
+
+    public void setWidth(int line, int width) {
+        int slot = line & (CAPACITY - 1);
+        if (lines[slot] == line) {
+            widths[slot] = width;
+        }
+    }
+
+    // an edit changed the given line; when the line count changed, every later line moved as well
+    public void invalidate(int line, int lineDelta) {
+        if (lineDelta == 0) {
+            int slot = line & (CAPACITY - 1);
+            if (lines[slot] == line) {
+                lines[slot] = -1;
+                texts[slot] = null;
+            }
+            return;
+        }
+        for (int slot = 0; slot < CAPACITY; slot++) {
+            if (lines[slot] >= line) {
+                lines[slot] = -1;
+                texts[slot] = null;
+            }
+        }
+    }
+
+    public void clearWidths() {
+        Arrays.fill(widths, -1);
+    }
+
+    public void clear() {
+        Arrays.fill(lines, -1);
+        Arrays.fill(texts, null);
+        Arrays.fill(widths, -1);
+    }
+}
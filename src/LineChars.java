@@ -0,0 +1,36 @@
+// one line of the document read through a small window, for lines too long to copy into a string
+public class LineChars implements CharSequence {
+    private static final int WINDOW = 4096;
+
+    private final Document doc;
+    private final long start;
+    private final int length;
+    private String window = "";
+    private int windowStart;
+
+    public LineChars(Document doc, long start, int length) {
+        this.doc = doc;
+        this.start = start;
+        this.length = length;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public char charAt(int index) {
+        if (index < windowStart || index >= windowStart + window.length()) {
+            windowStart = index / WINDOW * WINDOW;
+            window = doc.getText(start + windowStart, start + Math.min(length, windowStart + WINDOW));
+        }
+        return window.charAt(index - windowStart);
+    }
+
+    public CharSequence subSequence(int from, int to) {
+        return doc.getText(start + from, start + to);
+    }
+
+    public String toString() {
+        return doc.getText(start, start + length);
+    }
+}
@@ -0,0 +1,62 @@
+import java.util.Arrays;
+
+// one byte per line kept in a gap buffer, so inserting or removing lines near the last edit is cheap
+public class LineStates {
+    private byte[] states = new byte[64];
+    private int gapStart;
+    private int gapEnd = states.length;
+
+    public int size() {
+        return states.length - (gapEnd - gapStart);
+    }
+
+    public int get(int line) {
+        return states[line < gapStart ? line : line + gapEnd - gapStart];
+    }
+
+    public void set(int line, int state) {
+        states[line < gapStart ? line : line + gapEnd - gapStart] = (byte) state;
+    }
+
+    // inserts count lines with state 0 at index at
+    public void insert(int at, int count) {
+        moveGap(at);
+        if (gapEnd - gapStart < count) {
+            int tail = states.length - gapEnd;
+            byte[] grown = new byte[Math.max(states.length * 2, size() + count + 64)];
+            System.arraycopy(states, 0, grown, 0, gapStart);
+            System.arraycopy(states, gapEnd, grown, grown.length - tail, tail);
+            states = grown;
+            gapEnd = grown.length - tail;
+        }
+        Arrays.fill(states, gapStart, gapStart + count, (byte) 0);
+        gapStart += count;
+    }
+
+    public void remove(int at, int count) {
+        moveGap(at);
+        gapEnd += count;
+    }
+
+    public void setSize(int size) {
+        if (size > size()) {
+            insert(size(), size - size());
+        } else {
+            remove(size, size() - size);
+        }
+    }
+
+    private void moveGap(int at) {
+        if (at < gapStart) {
+            int count = gapStart - at;
+            System.arraycopy(states, at, states, gapEnd - count, count);
+            gapStart -= count;
+            gapEnd -= count;
+        } else if (at > gapStart) {
+            int count = at - gapStart;
+            System.arraycopy(states, gapEnd, states, gapStart, count);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+import java.awt.*;
+import java.awt.image.VolatileImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// cached images of blocks of lines, so a repaint only rasterizes blocks that changed or were never drawn
+public class LineTiles {
+    public static final int BLOCK_LINES = 16;
+    private static final int CAPACITY = 24;
+
+    // paints lines first .. first + count - 1 with the first line at y = 0
+    public interface Renderer {
+        void paintBlock(Graphics g, int first, int count);
+    }
+
+    private final Component component;
+    private final Renderer renderer;
+    private final Map<Integer, Tile> tiles;
+    private boolean enabled;
+    private int tileWidth;
+    private int tileHeight;
+
+    public LineTiles(Component component, Renderer renderer) {
+        this.component = component;
+        this.renderer = renderer;
+        tiles = new LinkedHashMap<Integer, Tile>(CAPACITY, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Integer, Tile> eldest) {
+                if (size() > CAPACITY) {
+                    eldest.getValue().image.flush();
+                    return true;
+                }
+                return false;
+            }
+        };
+        // -Deditor.directRendering=true paints straight to the screen
+        enabled = !GraphicsEnvironment.isHeadless() && !Boolean.getBoolean("editor.directRendering");
+    }
+
+    // draws the blocks under the clip; returns false when tiles are unavailable and the caller must paint directly
+    public boolean paint(Graphics g, Rectangle clip, int firstLine, int lineHeight) {
+        if (!enabled) {
+            return false;
+        }
+        int width = component.getWidth();
+        int height = BLOCK_LINES * lineHeight;
+        if (width <= 0) {
+            return true;
+        }
+        if (width != tileWidth || height != tileHeight) {
+            clear();
+            tileWidth = width;
+            tileHeight = height;
+        }
+        int fromBlock = (firstLine + Math.max(0, clip.y) / lineHeight) / BLOCK_LINES;
+        int toBlock = (firstLine + (clip.y + clip.height - 1) / lineHeight) / BLOCK_LINES;
+        for (int block = fromBlock; block <= toBlock; block++) {
+            int y = (block * BLOCK_LINES - firstLine) * lineHeight;
+            if (!paintTile(g, block, y)) {
+                enabled = false;
+                clear();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // lines from..to look different now
+    public void invalidateLines(int from, int to) {
+        for (int block = Math.max(0, from) / BLOCK_LINES; block <= to / BLOCK_LINES; block++) {
+            Tile tile = tiles.get(block);
+            if (tile != null) {
+                tile.valid = false;
+            }
+        }
+    }
+
+    // an edit touched the given line; when the line count changed every later block moved too
+    public void invalidate(int line, int lineDelta) {
+        if (lineDelta == 0) {
+            invalidateLines(line, line);
+            return;
+        }
+        int fromBlock = line / BLOCK_LINES;
+        for (Map.Entry<Integer, Tile> entry : tiles.entrySet()) {
+            if (entry.getKey() >= fromBlock) {
+                entry.getValue().valid = false;
+            }
+        }
+    }
+
+    // everything looks different, but the images can be reused
+    public void invalidateAll() {
+        for (Tile tile : tiles.values()) {
+            tile.valid = false;
+        }
+    }
+
+    public void clear() {
+        for (Iterator<Tile> it = tiles.values().iterator(); it.hasNext(); ) {
+            it.next().image.flush();
+            it.remove();
+        }
+    }
+
+    private boolean paintTile(Graphics g, int block, int y) {
+        GraphicsConfiguration configuration = component.getGraphicsConfiguration();
+        Tile tile = tiles.get(block);
+        do {
+            int status = tile == null ? VolatileImage.IMAGE_INCOMPATIBLE : tile.image.validate(configuration);
+            if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                if (tile != null) {
+                    tile.image.flush();
+                }
+                VolatileImage image = component.createVolatileImage(tileWidth, tileHeight);
+                if (image == null) {
+                    return false;
+                }
+                tile = new Tile(image);
+                tiles.put(block, tile);
+            } else if (status == VolatileImage.IMAGE_RESTORED) {
+                // the accelerated surface was lost and its pixels with it
+                tile.valid = false;
+            }
+            if (!tile.valid) {
+                Graphics2D tg = tile.image.createGraphics();
+                try {
+                    tg.setColor(component.getBackground());
+                    tg.fillRect(0, 0, tileWidth, tileHeight);
+                    tg.setFont(component.getFont());
+                    renderer.paintBlock(tg, block * BLOCK_LINES, BLOCK_LINES);
+                } finally {
+                    tg.dispose();
+                }
+                tile.valid = true;
+            }
+            g.drawImage(tile.image, 0, y, null);
+        } while (tile.image.contentsLost());
+        return true;
+    }
+
+    private static class Tile {
+        private final VolatileImage image;
+        private boolean valid;
+
+        Tile(VolatileImage image) {
+            this.image = image;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+import java.util.Arrays;
+
+// Boyer-Moore-Horspool over a char buffer
+public class LiteralFinder implements Finder {
+    private final char[] pattern;
+    private final boolean ignoreCase;
+    // skip distance by the low byte of a char; chars sharing a byte keep the smallest distance, which is always safe
+    private final int[] shift = new int[256];
+
+    public LiteralFinder(String pattern, boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+        this.pattern = new char[pattern.length()];
+        for (int i = 0; i < this.pattern.length; i++) {
+            this.pattern[i] = fold(pattern.charAt(i));
+        }
+        int m = this.pattern.length;
+        Arrays.fill(shift, m);
+        for (int i = 0; i < m - 1; i++) {
+            shift[this.pattern[i] & 0xFF] = m - 1 - i;
+        }
+    }
+
+    public void find(char[] text, int from, int to, int limit, Sink sink) {
+        int m = pattern.length;
+        if (m == 0) {
+            return;
+        }
+        int i = from;
+        while (i < limit && i + m <= to) {
+            int j = m - 1;
+            while (j >= 0 && fold(text[i + j]) == pattern[j]) {
+                j--;
+            }
+            if (j < 0) {
+                sink.match(i, i + m);
+                i += m;
+            } else {
+                i += shift[fold(text[i + m - 1]) & 0xFF];
+            }
+        }
+    }
+
+    private char fold(char c) {
+        return ignoreCase ? Character.toLowerCase(Character.toUpperCase(c)) : c;
+    }
+}
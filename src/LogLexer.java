@@ -0,0 +1,53 @@
+// colors the level of each log line and dims a leading timestamp
+public class LogLexer implements Lexer {
+    private static final String[] ERRORS = {"ERROR", "FATAL", "SEVERE"};
+    private static final String[] WARNINGS = {"WARN", "WARNING"};
+    private static final String[] INFOS = {"INFO"};
+    private static final String[] DEBUGS = {"DEBUG", "TRACE", "FINE", "FINER", "FINEST"};
+
+    public int lex(CharSequence line, int state, Sink sink) {
+        int n = line.length();
+        int i = 0;
+        while (i < n && (Character.isDigit(line.charAt(i)) || "-:.,/T ".indexOf(line.charAt(i)) >= 0)) {
+            i++;
+        }
+        // only a run containing digits counts as a timestamp
+        if (i > 0 && Character.isDigit(line.charAt(0))) {
+            JavaLexer.token(sink, 0, i, TokenStyle.COMMENT);
+        } else {
+            i = 0;
+        }
+        while (i < n) {
+            char c = line.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                int end = i + 1;
+                while (end < n && line.charAt(end) >= 'A' && line.charAt(end) <= 'Z') {
+                    end++;
+                }
+                int style = levelStyle(line, i, end);
+                if (style >= 0) {
+                    JavaLexer.token(sink, i, end, style);
+                    // the level is the first upper-case word that matches; the message is left alone
+                    return INITIAL_STATE;
+                }
+                i = end;
+            } else {
+                i++;
+            }
+        }
+        return INITIAL_STATE;
+    }
+
+    private static int levelStyle(CharSequence line, int start, int end) {
+        if (JavaLexer.isWord(line, start, end, ERRORS)) {
+            return TokenStyle.ERROR;
+        } else if (JavaLexer.isWord(line, start, end, WARNINGS)) {
+            return TokenStyle.WARNING;
+        } else if (JavaLexer.isWord(line, start, end, INFOS)) {
+            return TokenStyle.INFO;
+        } else if (JavaLexer.isWord(line, start, end, DEBUGS)) {
+            return TokenStyle.DEBUG;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,76 @@
+import java.util.Arrays;
+
+// x of every CHECKPOINT-th column of the long lines shown recently, so x and column map to each other reading one chunk
+public class LongLines {
+    // -Deditor.longLine sets the length from which a line is no longer read as one string
+    public static final int THRESHOLD = Integer.getInteger("editor.longLine", 16 * 1024);
+    private static final int CHECKPOINT = 4096;
+    private static final int CAPACITY = 16;
+
+    private final int[] lines = new int[CAPACITY];
+    private final int[][] checkpoints = new int[CAPACITY][];
+
+    public LongLines() {
+        clear();
+    }
+
+    public static boolean isLong(int length) {
+        return length >= THRESHOLD;
+    }
+
+    public int getWidth(LineChars line, int index, GlyphWidths glyphs) {
+        return getX(line, index, line.length(), glyphs);
+    }
+
+    public int getX(LineChars line, int index, int column, GlyphWidths glyphs) {
+        int[] prefix = checkpoints(line, index, glyphs);
+        int k = column / CHECKPOINT;
+        return prefix[k] + glyphs.width(line, k * CHECKPOINT, column);
+    }
+
+    // the column whose left edge is closest to x, found by binary search over the checkpoints
+    public int getColumn(LineChars line, int index, int x, GlyphWidths glyphs) {
+        int[] prefix = checkpoints(line, index, glyphs);
+        int low = 0;
+        int high = prefix.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (prefix[mid] <= x) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int from = low * CHECKPOINT;
+        return glyphs.column(line, from, Math.min(line.length(), from + CHECKPOINT), x - prefix[low]);
+    }
+
+    // an edit touched the given line; when the line count changed, every later line moved as well
+    public void invalidate(int line, int lineDelta) {
+        for (int slot = 0; slot < CAPACITY; slot++) {
+            if (lineDelta == 0 ? lines[slot] == line : lines[slot] >= line) {
+                lines[slot] = -1;
+                checkpoints[slot] = null;
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(lines, -1);
+        Arrays.fill(checkpoints, null);
+    }
+
+    private int[] checkpoints(LineChars line, int index, GlyphWidths glyphs) {
+        int slot = index & (CAPACITY - 1);
+        if (lines[slot] != index) {
+            int count = line.length() / CHECKPOINT + 1;
+            int[] prefix = new int[count];
+            for (int k = 1; k < count; k++) {
+                prefix[k] = prefix[k - 1] + glyphs.width(line, (k - 1) * CHECKPOINT, k * CHECKPOINT);
+            }
+            lines[slot] = index;
+            checkpoints[slot] = prefix;
+        }
+        return checkpoints[slot];
+    }
+}
@@ -1,5 +1,238 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// batch mode: applies search and replace or scripted edits to files through the editing core, without a display
 public class Main {
+    private static final String USAGE = String.join("\n",
+            "usage: java Main [options] file...",
+            "  -r, --replace FIND REPLACEMENT  replace every match; replaces run in the order given",
+            "  -x, --regex                     FIND is a regular expression in the replaces after this",
+            "  -i, --ignore-case               the replaces after this ignore case",
+            "  -s, --script FILE               apply the edit commands in FILE, one per line",
+            "  -o, --stdout                    print the results instead of writing the files back",
+            "  -c, --charset NAME              read and write the files in NAME instead of the detected charset",
+            "script commands, where TEXT takes \\n, \\t and \\\\ escapes:",
+            "  line N                 caret to the start of line N, counting from 1",
+            "  offset N               caret to offset N",
+            "  select START END       select the chars from START to END",
+            "  find TEXT              select the next match of TEXT after the caret",
+            "  insert TEXT            replace the selection with TEXT, or insert it at the caret",
+            "  delete N / backspace N delete the selection, or N chars after / before the caret",
+            "  replace FIND<tab>TEXT  replace every match of FIND",
+            "  undo / redo");
+    private static final int WRITE_CHUNK = 1 << 20;
+
+    // package-private so the script commands can be tried on a core without files
+    interface Step {
+        // what the step did, for the summary; null when there is nothing to report
+        String apply(EditorCore core);
+    }
+
     public static void main(String[] args) {
-        System.out.println("Hello world!");
+        System.setProperty("java.awt.headless", "true");
+        List<Step> steps = new ArrayList<>();
+        List<String> files = new ArrayList<>();
+        boolean regex = false;
+        boolean ignoreCase = false;
+        boolean toStdout = false;
+        // null detects each file's charset
+        Charset charset = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-r") || arg.equals("--replace")) {
+                    if (i + 2 >= args.length) {
+                        throw new IllegalArgumentException(arg + " needs FIND and REPLACEMENT");
+                    }
+                    steps.add(replaceStep(new SearchQuery(args[i + 1], regex, ignoreCase), args[i + 2]));
+                    i += 2;
+                } else if (arg.equals("-x") || arg.equals("--regex")) {
+                    regex = true;
+                } else if (arg.equals("-i") || arg.equals("--ignore-case")) {
+                    ignoreCase = true;
+                } else if (arg.equals("-s") || arg.equals("--script")) {
+                    if (++i == args.length) {
+                        throw new IllegalArgumentException(arg + " needs a FILE");
+                    }
+                    for (String line : Files.readAllLines(Paths.get(args[i]))) {
+                        if (!line.isBlank() && !line.startsWith("#")) {
+                            steps.add(scriptStep(line));
+                        }
+                    }
+                } else if (arg.equals("-o") || arg.equals("--stdout")) {
+                    toStdout = true;
+                } else if (arg.equals("-c") || arg.equals("--charset")) {
+                    if (++i == args.length) {
+                        throw new IllegalArgumentException(arg + " needs a NAME");
+                    }
+                    charset = Charset.forName(args[i]);
+                } else if (arg.equals("-h") || arg.equals("--help")) {
+                    System.out.println(USAGE);
+                    return;
+                } else if (arg.startsWith("-")) {
+                    throw new IllegalArgumentException("unknown option " + arg);
+                } else {
+                    files.add(arg);
+                }
+            }
+            if (files.isEmpty()) {
+                throw new IllegalArgumentException("no files given");
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        int failed = 0;
+        for (String name : files) {
+            try {
+                edit(new File(name), charset, steps, toStdout);
+            } catch (IOException | RuntimeException e) {
+                System.err.println(name + ": " + e.getMessage());
+                failed++;
+            }
+        }
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    private static void edit(File file, Charset charset, List<Step> steps, boolean toStdout) throws IOException {
+        TextFormat format = charset == null ? TextFormat.detect(file.toPath()) : TextFormat.detect(file.toPath(), charset);
+        EditorCore core = new EditorCore();
+        core.setDocument(new PieceTable(FileLoader.read(file, format)));
+        core.setLineSeparator(format.getLineSeparator());
+        List<String> report = new ArrayList<>();
+        for (Step step : steps) {
+            String done = step.apply(core);
+            if (done != null) {
+                report.add(done);
+            }
+        }
+        if (toStdout) {
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, format.getCharset()));
+            for (long start = 0; start < core.getLength(); start += WRITE_CHUNK) {
+                out.write(core.getText(start, Math.min(core.getLength(), start + WRITE_CHUNK)));
+            }
+            out.flush();
+        } else if (core.isModified()) {
+            new FileSaver(file.toPath(), format, core.snapshot()).save();
+        }
+        if (!report.isEmpty()) {
+            System.err.println(file + ": " + String.join(", ", report));
+        }
+    }
+
+    private static Step replaceStep(SearchQuery query, String replacement) {
+        return core -> core.replaceAll(query, replacement) + " replaced (" + query + ")";
+    }
+
+    static Step scriptStep(String line) {
+        int space = line.indexOf(' ');
+        String command = space < 0 ? line : line.substring(0, space);
+        String argument = space < 0 ? "" : line.substring(space + 1);
+        switch (command) {
+            case "line": {
+                int number = Integer.parseInt(argument.trim());
+                return core -> {
+                    core.setCaretPosition(core.getLineStart(Math.max(0, Math.min(core.getLineCount(), number) - 1)));
+                    return null;
+                };
+            }
+            case "offset": {
+                long offset = Long.parseLong(argument.trim());
+                return core -> {
+                    core.setCaretPosition(Math.min(offset, core.getLength()));
+                    return null;
+                };
+            }
+            case "select": {
+                String[] bounds = argument.trim().split("\\s+");
+                if (bounds.length != 2) {
+                    throw new IllegalArgumentException("select needs START and END: " + line);
+                }
+                long start = Long.parseLong(bounds[0]);
+                long end = Long.parseLong(bounds[1]);
+                return core -> {
+                    core.setCaretPosition(Math.min(end, core.getLength()));
+                    core.select(Math.min(start, core.getLength()), Math.min(end, core.getLength()));
+                    return null;
+                };
+            }
+            case "find": {
+                SearchQuery query = new SearchQuery(unescape(argument), false, false);
+                return core -> {
+                    if (!core.findNext(query)) {
+                        throw new IllegalStateException("not found: " + query);
+                    }
+                    return null;
+                };
+            }
+            case "insert": {
+                String text = unescape(argument);
+                return core -> {
+                    core.replaceSelection(text);
+                    return null;
+                };
+            }
+            case "delete":
+            case "backspace": {
+                int count = argument.isBlank() ? 1 : Integer.parseInt(argument.trim());
+                boolean forward = command.equals("delete");
+                return core -> {
+                    if (core.hasSelection()) {
+                        core.deleteSelection();
+                    } else if (forward) {
+                        long caret = core.getCaretPosition();
+                        core.delete(caret, Math.min(core.getLength(), caret + count));
+                    } else {
+                        long start = Math.max(0, core.getCaretPosition() - count);
+                        core.delete(start, core.getCaretPosition());
+                        core.setCaretPosition(start);
+                    }
+                    return null;
+                };
+            }
+            case "replace": {
+                int tab = argument.indexOf('\t');
+                if (tab < 0) {
+                    throw new IllegalArgumentException("replace needs FIND<tab>REPLACEMENT: " + line);
+                }
+                return replaceStep(new SearchQuery(unescape(argument.substring(0, tab)), false, false), unescape(argument.substring(tab + 1)));
+            }
+            case "undo":
+                return core -> {
+                    core.undo();
+                    return null;
+                };
+            case "redo":
+                return core -> {
+                    core.redo();
+                    return null;
+                };
+            default:
+                throw new IllegalArgumentException("unknown command: " + line);
+        }
+    }
+
+    private static String unescape(String text) {
+        StringBuilder out = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char next = text.charAt(++i);
+                out.append(next == 'n' ? '\n' : next == 't' ? '\t' : next);
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,343 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class MappedFileSource implements TextSource {
+    private static final int PAGE_SIZE = 64 * 1024;
+    private static final long REGION_SIZE = 1L << 30;
+    // lets a page that was moved onto a character boundary run past its region
+    private static final int REGION_OVERLAP = 16;
+    private static final int CACHED_PAGES = 64;
+    private static final long REPORT_INTERVAL = 50_000_000L;
+
+    private final Path path;
+    private final Charset charset;
+    private final long fileSize;
+    private final int pageCount;
+    private final MappedByteBuffer[] regions;
+    // per page: first byte, chars before it, newlines before it; entry pageCount closes the last page
+    private final long[] pageByteStart;
+    private final long[] pageCharStart;
+    private final long[] pageNewlines;
+    private volatile int indexedPages;
+    private volatile boolean cancelled;
+    private final CharsetDecoder decoder;
+    private final Map<Integer, Page> cache;
+    private Page lastPage;
+    // where the last byteOffset call ended up
+    private int lastOffsetPage = -1;
+    private int lastOffsetChars;
+    private long lastOffsetByte;
+
+    // the text starts at byte dataStart, after the byte order mark
+    public MappedFileSource(Path path, Charset charset, int dataStart) throws IOException {
+        this.path = path;
+        this.charset = charset;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            fileSize = channel.size();
+            regions = new MappedByteBuffer[(int) ((fileSize + REGION_SIZE - 1) / REGION_SIZE)];
+            for (int i = 0; i < regions.length; i++) {
+                long start = i * REGION_SIZE;
+                long size = Math.min(fileSize - start, REGION_SIZE + REGION_OVERLAP);
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            }
+        }
+        pageCount = (int) ((Math.max(0, fileSize - dataStart) + PAGE_SIZE - 1) / PAGE_SIZE);
+        pageByteStart = new long[pageCount + 1];
+        pageByteStart[0] = Math.min(dataStart, fileSize);
+        pageCharStart = new long[pageCount + 1];
+        pageNewlines = new long[pageCount + 1];
+        decoder = newDecoder();
+        cache = new LinkedHashMap<Integer, Page>(CACHED_PAGES, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+                return size() > CACHED_PAGES;
+            }
+        };
+    }
+
+    // page boundaries can only be found for encodings where a character start is recognizable
+    public static boolean supports(Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8) || charset.newEncoder().maxBytesPerChar() == 1;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public boolean isIndexed() {
+        return indexedPages == pageCount;
+    }
+
+    public long getIndexedBytes() {
+        return pageByteStart[indexedPages];
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // decodes every page once to count its chars and newlines, calling the listener as the indexed prefix grows
+    public void index(Runnable listener) {
+        CharsetDecoder indexDecoder = newDecoder();
+        CharBuffer chars = CharBuffer.allocate(PAGE_SIZE + REGION_OVERLAP);
+        long lastReport = System.nanoTime();
+        for (int p = 0; p < pageCount && !cancelled; p++) {
+            long end = p + 1 == pageCount ? fileSize : alignToCharacter(pageByteStart[0] + (p + 1) * (long) PAGE_SIZE);
+            chars.clear();
+            decode(indexDecoder, pageByteStart[p], end, chars);
+            int newlines = 0;
+            for (int i = 0; i < chars.position(); i++) {
+                if (chars.get(i) == '\n') {
+                    newlines++;
+                }
+            }
+            pageByteStart[p + 1] = end;
+            pageCharStart[p + 1] = pageCharStart[p] + chars.position();
+            pageNewlines[p + 1] = pageNewlines[p] + newlines;
+            indexedPages = p + 1;
+            long now = System.nanoTime();
+            if (now - lastReport > REPORT_INTERVAL || p + 1 == pageCount) {
+                lastReport = now;
+                listener.run();
+            }
+        }
+    }
+
+    public long length() {
+        return pageCharStart[indexedPages];
+    }
+
+    public char charAt(long offset) {
+        int p = pageOf(offset);
+        return page(p).chars[(int) (offset - pageCharStart[p])];
+    }
+
+    public void appendTo(StringBuilder out, long start, long end) {
+        while (start < end) {
+            int p = pageOf(start);
+            int from = (int) (start - pageCharStart[p]);
+            int to = (int) (Math.min(end, pageCharStart[p + 1]) - pageCharStart[p]);
+            out.append(page(p).chars, from, to - from);
+            start += to - from;
+        }
+    }
+
+    public void getChars(long start, long end, char[] dst, int dstBegin) {
+        while (start < end) {
+            int p = pageOf(start);
+            int from = (int) (start - pageCharStart[p]);
+            int to = (int) (Math.min(end, pageCharStart[p + 1]) - pageCharStart[p]);
+            System.arraycopy(page(p).chars, from, dst, dstBegin, to - from);
+            dstBegin += to - from;
+            start += to - from;
+        }
+    }
+
+    public long newlinesBefore(long offset) {
+        int pages = indexedPages;
+        if (offset >= pageCharStart[pages]) {
+            return pageNewlines[pages];
+        }
+        int p = pageOf(offset);
+        return pageNewlines[p] + page(p).newlinesBefore((int) (offset - pageCharStart[p]));
+    }
+
+    public long newlinePosition(long index) {
+        // last indexed page whose preceding newline count is still <= index
+        int low = 0;
+        int high = indexedPages - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (pageNewlines[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return pageCharStart[low] + page(low).newlines[(int) (index - pageNewlines[low])];
+    }
+
+    // the mapping itself is outside the heap; only the index and the decoded pages count
+    public synchronized long getMemoryUsage() {
+        long usage = 24L * pageCount;
+        for (Page page : cache.values()) {
+            usage += 2L * page.chars.length + 4L * page.newlines.length;
+        }
+        return usage;
+    }
+
+    // drops the decoded pages; they are decoded again from the mapping when read
+    public synchronized void releaseMemory() {
+        cache.clear();
+        lastPage = null;
+    }
+
+    // the mapping stays on the bytes that were opened, even after the path has been replaced by a save
+    public void writeBytes(long start, long end, WritableByteChannel out) throws IOException {
+        while (start < end) {
+            long regionEnd = Math.min(end, (start / REGION_SIZE + 1) * REGION_SIZE);
+            ByteBuffer bytes = slice(start, regionEnd);
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+            start = regionEnd;
+        }
+    }
+
+    // file position of the byte that decodes to the given char
+    public synchronized long byteOffset(long offset) {
+        int p = pageOf(offset);
+        int chars = (int) (offset - pageCharStart[p]);
+        if (chars == 0) {
+            return pageByteStart[p];
+        }
+        if (chars == pageCharStart[p + 1] - pageCharStart[p]) {
+            return pageByteStart[p + 1];
+        }
+        if (pageByteStart[p + 1] - pageByteStart[p] == pageCharStart[p + 1] - pageCharStart[p]) {
+            // every char of the page is one byte
+            return pageByteStart[p] + chars;
+        }
+        // a save asks for offsets in increasing order, so decoding goes on from the last answer in the page
+        int fromChars = 0;
+        long fromByte = pageByteStart[p];
+        if (lastOffsetPage == p && lastOffsetChars <= chars) {
+            fromChars = lastOffsetChars;
+            fromByte = lastOffsetByte;
+        }
+        // decode exactly that many chars and see how far the input got
+        ByteBuffer in = slice(fromByte, pageByteStart[p + 1]);
+        int before = in.position();
+        decoder.reset();
+        decoder.decode(in, CharBuffer.allocate(chars - fromChars), false);
+        lastOffsetPage = p;
+        lastOffsetChars = chars;
+        lastOffsetByte = fromByte + in.position() - before;
+        return lastOffsetByte;
+    }
+
+    private int pageOf(long offset) {
+        int low = 0;
+        int high = indexedPages - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (pageCharStart[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private synchronized Page page(int p) {
+        if (lastPage != null && lastPage.index == p) {
+            return lastPage;
+        }
+        Page page = cache.get(p);
+        if (page == null) {
+            CharBuffer out = CharBuffer.allocate((int) (pageCharStart[p + 1] - pageCharStart[p]));
+            decode(decoder, pageByteStart[p], pageByteStart[p + 1], out);
+            page = new Page(p, out.array());
+            cache.put(p, page);
+        }
+        lastPage = page;
+        return page;
+    }
+
+    private long alignToCharacter(long position) {
+        if (charset.equals(StandardCharsets.UTF_8)) {
+            // skip continuation bytes of a character started in the previous page
+            while (position < fileSize && (byteAt(position) & 0xC0) == 0x80) {
+                position++;
+            }
+        }
+        return position;
+    }
+
+    private byte byteAt(long position) {
+        return regions[(int) (position / REGION_SIZE)].get((int) (position % REGION_SIZE));
+    }
+
+    private ByteBuffer slice(long start, long end) {
+        ByteBuffer in = regions[(int) (start / REGION_SIZE)].duplicate();
+        int offset = (int) (start % REGION_SIZE);
+        in.limit(offset + (int) (end - start));
+        in.position(offset);
+        return in;
+    }
+
+    private void decode(CharsetDecoder decoder, long start, long end, CharBuffer out) {
+        ByteBuffer in = slice(start, end);
+        decoder.reset();
+        decoder.decode(in, out, true);
+        decoder.flush(out);
+    }
+
+    private CharsetDecoder newDecoder() {
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    private static class Page {
+        private final int index;
+        private final char[] chars;
+        private final int[] newlines;
+
+        Page(int index, char[] chars) {
+            this.index = index;
+            this.chars = chars;
+            int count = 0;
+            for (char c : chars) {
+                if (c == '\n') {
+                    count++;
+                }
+            }
+            newlines = new int[count];
+            count = 0;
+            for (int i = 0; i < chars.length; i++) {
+                if (chars[i] == '\n') {
+                    newlines[count++] = i;
+                }
+            }
+        }
+
+        int newlinesBefore(int offset) {
+            int low = 0;
+            int high = newlines.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (newlines[mid] < offset) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    public boolean isInMemory() {
+        return false;
+    }
+}
@@ -0,0 +1,261 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import javax.management.ConstructorParameters;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// latency and allocation of the editor's operations; while disabled every call returns after reading one flag.
+// Each sample also goes out as a JFR event, and the totals are readable over JMX as texteditor:type=Metrics
+public class Metrics {
+    public enum Op {
+        KEY_TO_PAINT("key to paint"),
+        PAINT("paint"),
+        EDIT("edit"),
+        SEARCH("search"),
+        OPEN("open"),
+        SAVE("save"),
+        // how long the event dispatch thread kept an event waiting, counted only past the stall threshold
+        EDT_STALL("EDT stall");
+
+        private final String label;
+
+        Op(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    // a started operation; null while disabled
+    public static final class Sample {
+        private final long start;
+        private final long allocated;
+
+        private Sample(long start, long allocated) {
+            this.start = start;
+            this.allocated = allocated;
+        }
+    }
+
+    public interface EditorMetricsMXBean {
+        boolean isEnabled();
+
+        void setEnabled(boolean enabled);
+
+        Map<String, OperationStats> getOperations();
+
+        void reset();
+    }
+
+    // one operation's totals as JMX shows them, durations in microseconds
+    public static final class OperationStats {
+        private final long count;
+        private final long meanMicros;
+        private final long p50Micros;
+        private final long p99Micros;
+        private final long maxMicros;
+        private final long bytesPerOperation;
+
+        @ConstructorParameters({"count", "meanMicros", "p50Micros", "p99Micros", "maxMicros", "bytesPerOperation"})
+        public OperationStats(long count, long meanMicros, long p50Micros, long p99Micros, long maxMicros, long bytesPerOperation) {
+            this.count = count;
+            this.meanMicros = meanMicros;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+            this.bytesPerOperation = bytesPerOperation;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMeanMicros() {
+            return meanMicros;
+        }
+
+        public long getP50Micros() {
+            return p50Micros;
+        }
+
+        public long getP99Micros() {
+            return p99Micros;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+
+        public long getBytesPerOperation() {
+            return bytesPerOperation;
+        }
+    }
+
+    @Name("texteditor.Operation")
+    @Label("Editor Operation")
+    @Category("Text Editor")
+    private static final class OperationEvent extends jdk.jfr.Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+
+        @Label("Allocated")
+        @DataAmount(DataAmount.BYTES)
+        long allocated;
+    }
+
+    // the thread allocation counter is looked up only once something is measured
+    private static final class Allocation {
+        private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+        private static com.sun.management.ThreadMXBean threads() {
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+                if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                    return threads;
+                }
+            }
+            return null;
+        }
+
+        // bytes allocated by the calling thread so far, or 0 where the JVM does not count them
+        static long current() {
+            return THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+        }
+    }
+
+    private static final Op[] OPS = Op.values();
+    private static final LatencyHistogram[] HISTOGRAMS = new LatencyHistogram[OPS.length];
+    private static final AtomicLongArray ALLOCATED = new AtomicLongArray(OPS.length);
+    // -Deditor.metrics=true records from startup, so the numbers can be read over JMX or JFR without the HUD
+    private static volatile boolean enabled;
+    private static boolean registered;
+    // event dispatch thread only: when the key event being answered was generated, 0 once painted
+    private static long keyStart;
+
+    static {
+        for (int i = 0; i < OPS.length; i++) {
+            HISTOGRAMS[i] = new LatencyHistogram();
+        }
+        setEnabled(Boolean.getBoolean("editor.metrics"));
+    }
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static synchronized void setEnabled(boolean on) {
+        if (on && !registered) {
+            registered = true;
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(
+                        new StandardMBean(new Bean(), EditorMetricsMXBean.class, true), new ObjectName("texteditor:type=Metrics"));
+            } catch (Exception e) {
+                // another editor in this JVM already registered; the numbers are still recorded
+            }
+        }
+        enabled = on;
+    }
+
+    public static Sample start() {
+        if (!enabled) {
+            return null;
+        }
+        return new Sample(System.nanoTime(), Allocation.current());
+    }
+
+    // allocation is counted on the calling thread only, so stop on the thread that started
+    public static void stop(Op op, Sample sample) {
+        if (sample != null) {
+            record(op, System.nanoTime() - sample.start, Allocation.current() - sample.allocated);
+        }
+    }
+
+    public static void record(Op op, long nanos, long allocated) {
+        if (!enabled) {
+            return;
+        }
+        HISTOGRAMS[op.ordinal()].record(nanos);
+        ALLOCATED.addAndGet(op.ordinal(), allocated);
+        OperationEvent event = new OperationEvent();
+        if (event.isEnabled()) {
+            event.operation = op.getLabel();
+            event.elapsed = nanos;
+            event.allocated = allocated;
+            event.commit();
+        }
+    }
+
+    // a key event was handled; when is the event's own timestamp, so the time it waited in the queue is counted
+    public static void keyHandled(long when) {
+        if (enabled && keyStart == 0) {
+            long waited = Math.max(0, System.currentTimeMillis() - when);
+            keyStart = System.nanoTime() - waited * 1_000_000;
+        }
+    }
+
+    // the first paint after a key event ends its key to paint time
+    public static void painted() {
+        if (keyStart != 0) {
+            record(Op.KEY_TO_PAINT, System.nanoTime() - keyStart, 0);
+            keyStart = 0;
+        }
+    }
+
+    public static LatencyHistogram getHistogram(Op op) {
+        return HISTOGRAMS[op.ordinal()];
+    }
+
+    public static long getBytesPerOperation(Op op) {
+        long count = HISTOGRAMS[op.ordinal()].getCount();
+        return count == 0 ? 0 : ALLOCATED.get(op.ordinal()) / count;
+    }
+
+    public static void reset() {
+        for (Op op : OPS) {
+            HISTOGRAMS[op.ordinal()].reset();
+            ALLOCATED.set(op.ordinal(), 0);
+        }
+    }
+
+    private static class Bean implements EditorMetricsMXBean {
+        public boolean isEnabled() {
+            return Metrics.isEnabled();
+        }
+
+        public void setEnabled(boolean enabled) {
+            Metrics.setEnabled(enabled);
+        }
+
+        public Map<String, OperationStats> getOperations() {
+            Map<String, OperationStats> operations = new LinkedHashMap<>();
+            for (Op op : OPS) {
+                LatencyHistogram histogram = getHistogram(op);
+                operations.put(op.getLabel(), new OperationStats(histogram.getCount(), histogram.getMean() / 1000,
+                        histogram.getPercentile(0.5) / 1000, histogram.getPercentile(0.99) / 1000,
+                        histogram.getMax() / 1000, getBytesPerOperation(op)));
+            }
+            return operations;
+        }
+
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
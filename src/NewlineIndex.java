@@ -0,0 +1,56 @@
+import java.util.Arrays;
+
+public class NewlineIndex {
+    private long[] positions;
+    private int size;
+
+    public NewlineIndex() {
+        positions = new long[16];
+    }
+
+    public void append(CharSequence text, long bufferOffset) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                add(bufferOffset + i);
+            }
+        }
+    }
+
+    public void add(long position) {
+        if (size == positions.length) {
+            positions = Arrays.copyOf(positions, size * 2);
+        }
+        positions[size++] = position;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long get(int index) {
+        return positions[index];
+    }
+
+    // number of newlines before the given buffer offset
+    public int rank(long offset) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (positions[mid] < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public long getMemoryUsage() {
+        return 8L * positions.length;
+    }
+
+    public int count(long start, long end) {
+        return rank(end) - rank(start);
+    }
+}
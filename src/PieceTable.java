@@ -0,0 +1,509 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntFunction;
+import java.util.function.IntToLongFunction;
+
+public class PieceTable implements Document {
+    // kept text shorter than this between two replacements is copied rather than given its own piece
+    private static final int COPY_LIMIT = 64;
+    private static final int FLUSH_SIZE = 1 << 20;
+
+    private final TextSource original;
+    private final StringSource added;
+    private final Random random;
+    private long originalLength;
+    private Node root;
+
+    // results of the last split
+    private Node splitLeft;
+    private Node splitRight;
+
+    public PieceTable(String text) {
+        this(new StringSource(text));
+    }
+
+    public PieceTable(TextSource original) {
+        this.original = original;
+        added = new StringSource();
+        random = new Random();
+        extendOriginal();
+    }
+
+    public long length() {
+        return size(root);
+    }
+
+    public char charAt(long offset) {
+        if (offset < 0 || offset >= length()) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length());
+        }
+        Node t = root;
+        while (true) {
+            long leftSize = size(t.left);
+            if (offset < leftSize) {
+                t = t.left;
+            } else if (offset < leftSize + t.length) {
+                return buffer(t).charAt(t.start + offset - leftSize);
+            } else {
+                offset -= leftSize + t.length;
+                t = t.right;
+            }
+        }
+    }
+
+    public int getLineCount() {
+        return (int) breaks(root) + 1;
+    }
+
+    public long getLineStart(int line) {
+        if (line == 0) {
+            return 0;
+        }
+        if (line < 0 || line >= getLineCount()) {
+            return -1;
+        }
+        // the line starts right after the line-th newline
+        long k = line;
+        long offset = 0;
+        Node t = root;
+        while (true) {
+            long leftBreaks = breaks(t.left);
+            if (k <= leftBreaks) {
+                t = t.left;
+            } else if (k <= leftBreaks + t.newlines) {
+                TextSource buffer = buffer(t);
+                long position = buffer.newlinePosition(buffer.newlinesBefore(t.start) + k - leftBreaks - 1);
+                return offset + size(t.left) + position - t.start + 1;
+            } else {
+                k -= leftBreaks + t.newlines;
+                offset += size(t.left) + t.length;
+                t = t.right;
+            }
+        }
+    }
+
+    public int getLineOfOffset(long offset) {
+        checkRange(offset, offset);
+        long line = 0;
+        Node t = root;
+        while (t != null) {
+            long leftSize = size(t.left);
+            if (offset < leftSize) {
+                t = t.left;
+            } else if (offset < leftSize + t.length) {
+                line += breaks(t.left) + countNewlines(buffer(t), t.start, t.start + offset - leftSize);
+                break;
+            } else {
+                line += breaks(t.left) + t.newlines;
+                offset -= leftSize + t.length;
+                t = t.right;
+            }
+        }
+        return (int) line;
+    }
+
+    public String getText(long start, long end) {
+        checkRange(start, end);
+        StringBuilder out = new StringBuilder((int) (end - start));
+        appendRange(root, start, end, out);
+        return out.toString();
+    }
+
+    public void insert(long offset, CharSequence text) {
+        checkRange(offset, offset);
+        if (text.length() == 0) {
+            return;
+        }
+        long start = added.append(text);
+        long newlines = countNewlines(added, start, start + text.length());
+        // typing appends to the add buffer, so the piece before the caret usually just grows
+        if (extend(root, offset, start, text.length(), newlines)) {
+            return;
+        }
+        split(root, offset);
+        Node left = splitLeft;
+        Node right = splitRight;
+        root = merge(merge(left, newNode(true, start, text.length(), random.nextInt())), right);
+    }
+
+    public void delete(long start, long end) {
+        checkRange(start, end);
+        if (start == end) {
+            return;
+        }
+        split(root, end);
+        Node tail = splitRight;
+        split(splitLeft, start);
+        root = merge(splitLeft, tail);
+    }
+
+    public List<Segment> pieces(long start, long end) {
+        checkRange(start, end);
+        List<Segment> out = new ArrayList<>();
+        collectRange(root, start, end, out);
+        return out;
+    }
+
+    public void insertPieces(long offset, List<Segment> pieces) {
+        checkRange(offset, offset);
+        List<Node> nodes = new ArrayList<>();
+        for (Segment piece : pieces) {
+            if (piece.length() == 0) {
+                continue;
+            }
+            if (piece.getSource() == added || piece.getSource() == original) {
+                nodes.add(newNode(piece.getSource() == added, piece.getStart(), piece.length(), random.nextInt()));
+            } else {
+                // text from somewhere else has to be copied into the add buffer
+                StringBuilder copy = new StringBuilder((int) piece.length());
+                piece.getSource().appendTo(copy, piece.getStart(), piece.getEnd());
+                nodes.add(newNode(true, added.append(copy), copy.length(), random.nextInt()));
+            }
+        }
+        split(root, offset);
+        Node left = splitLeft;
+        Node right = splitRight;
+        root = merge(merge(left, build(nodes)), right);
+    }
+
+    // builds the new tree in one pass instead of splitting it once per match
+    public void replaceAll(SearchResult matches, CharSequence replacement) {
+        replace(matches.size(), matches::getStart, matches::getEnd, i -> replacement);
+    }
+
+    // spliced in one range at a time, from the last so the offsets before it still hold: a keystroke at every caret
+    // then costs a few tree operations per caret, however many pieces earlier keystrokes left
+    public void replaceRanges(long[] starts, long[] ends, CharSequence[] texts) {
+        for (int i = starts.length - 1; i >= 0; i--) {
+            delete(starts[i], ends[i]);
+            insert(starts[i], texts[i]);
+        }
+    }
+
+    // rebuilds the tree once from the kept pieces and the replacements, however many ranges there are
+    private void replace(int count, IntToLongFunction starts, IntToLongFunction ends, IntFunction<CharSequence> texts) {
+        if (count == 0) {
+            return;
+        }
+        List<Node> old = new ArrayList<>();
+        nodes(root, old);
+        long[] offsets = new long[old.size() + 1];
+        for (int i = 0; i < old.size(); i++) {
+            offsets[i + 1] = offsets[i] + old.get(i).length;
+        }
+        List<Node> pieces = new ArrayList<>();
+        StringBuilder pending = new StringBuilder();
+        long position = 0;
+        for (int i = 0; i < count; i++) {
+            keep(old, offsets, position, starts.applyAsLong(i), pieces, pending);
+            pending.append(texts.apply(i));
+            if (pending.length() >= FLUSH_SIZE) {
+                flush(pieces, pending);
+            }
+            position = ends.applyAsLong(i);
+        }
+        keep(old, offsets, position, length(), pieces, pending);
+        flush(pieces, pending);
+        root = build(pieces);
+    }
+
+    // appends whatever the original source has made available since the last call
+    public void extendOriginal() {
+        long available = original.length();
+        if (available <= originalLength) {
+            return;
+        }
+        long count = available - originalLength;
+        long newlines = countNewlines(original, originalLength, available);
+        if (!extendLast(root, originalLength, count, newlines)) {
+            root = merge(root, newNode(false, originalLength, count, random.nextInt()));
+        }
+        originalLength = available;
+    }
+
+    public List<Segment> snapshot() {
+        List<Segment> segments = new ArrayList<>();
+        collect(root, segments);
+        return segments;
+    }
+
+    public long getMemoryUsage() {
+        return original.getMemoryUsage() + added.getMemoryUsage();
+    }
+
+    public String toString() {
+        return getText(0, length());
+    }
+
+    private TextSource buffer(Node t) {
+        return t.added ? added : original;
+    }
+
+    private static long countNewlines(TextSource buffer, long start, long end) {
+        return buffer.newlinesBefore(end) - buffer.newlinesBefore(start);
+    }
+
+    private Node newNode(boolean inAdded, long start, long length, int priority) {
+        TextSource buffer = inAdded ? added : original;
+        return new Node(inAdded, start, length, countNewlines(buffer, start, start + length), priority);
+    }
+
+    private void checkRange(long start, long end) {
+        if (start < 0 || end < start || end > length()) {
+            throw new IndexOutOfBoundsException("range " + start + ".." + end + ", length " + length());
+        }
+    }
+
+    private void appendRange(Node t, long start, long end, StringBuilder out) {
+        if (t == null || start >= end) {
+            return;
+        }
+        long leftSize = size(t.left);
+        long pieceEnd = leftSize + t.length;
+        if (start < leftSize) {
+            appendRange(t.left, start, Math.min(end, leftSize), out);
+        }
+        if (start < pieceEnd && end > leftSize) {
+            long from = t.start + Math.max(start, leftSize) - leftSize;
+            long to = t.start + Math.min(end, pieceEnd) - leftSize;
+            buffer(t).appendTo(out, from, to);
+        }
+        if (end > pieceEnd) {
+            appendRange(t.right, Math.max(start, pieceEnd) - pieceEnd, end - pieceEnd, out);
+        }
+    }
+
+    private void collectRange(Node t, long start, long end, List<Segment> out) {
+        if (t == null || start >= end) {
+            return;
+        }
+        long leftSize = size(t.left);
+        long pieceEnd = leftSize + t.length;
+        if (start < leftSize) {
+            collectRange(t.left, start, Math.min(end, leftSize), out);
+        }
+        if (start < pieceEnd && end > leftSize) {
+            long from = t.start + Math.max(start, leftSize) - leftSize;
+            long to = t.start + Math.min(end, pieceEnd) - leftSize;
+            out.add(new Segment(buffer(t), from, to));
+        }
+        if (end > pieceEnd) {
+            collectRange(t.right, Math.max(start, pieceEnd) - pieceEnd, end - pieceEnd, out);
+        }
+    }
+
+    private void collect(Node t, List<Segment> segments) {
+        if (t == null) {
+            return;
+        }
+        collect(t.left, segments);
+        // both buffers only ever grow, so the pieces can point into them rather than copy
+        segments.add(new Segment(buffer(t), t.start, t.start + t.length));
+        collect(t.right, segments);
+    }
+
+    private static void nodes(Node t, List<Node> out) {
+        if (t == null) {
+            return;
+        }
+        nodes(t.left, out);
+        out.add(t);
+        nodes(t.right, out);
+    }
+
+    // carries start..end of the current text over into the new pieces
+    private void keep(List<Node> old, long[] offsets, long start, long end, List<Node> pieces, StringBuilder pending) {
+        if (end - start < COPY_LIMIT) {
+            appendRange(root, start, end, pending);
+            return;
+        }
+        flush(pieces, pending);
+        int low = 0;
+        int high = old.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= start) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        for (int p = low; start < end; p++) {
+            Node t = old.get(p);
+            long from = start - offsets[p];
+            long to = Math.min(end, offsets[p + 1]) - offsets[p];
+            pieces.add(newNode(t.added, t.start + from, to - from, random.nextInt()));
+            start += to - from;
+        }
+    }
+
+    private void flush(List<Node> pieces, StringBuilder pending) {
+        if (pending.length() > 0) {
+            pieces.add(newNode(true, added.append(pending), pending.length(), random.nextInt()));
+            pending.setLength(0);
+        }
+    }
+
+    // a treap over nodes already in document order, built in linear time with a stack of the right spine
+    private static Node build(List<Node> nodes) {
+        Node[] spine = new Node[nodes.size()];
+        int top = 0;
+        for (Node node : nodes) {
+            Node last = null;
+            while (top > 0 && spine[top - 1].priority < node.priority) {
+                last = spine[--top];
+            }
+            node.left = last;
+            if (top > 0) {
+                spine[top - 1].right = node;
+            }
+            spine[top++] = node;
+        }
+        Node root = top > 0 ? spine[0] : null;
+        updateAll(root);
+        return root;
+    }
+
+    private static void updateAll(Node t) {
+        if (t != null) {
+            updateAll(t.left);
+            updateAll(t.right);
+            update(t);
+        }
+    }
+
+    private boolean extend(Node t, long offset, long addStart, long count, long newlines) {
+        if (t == null) {
+            return false;
+        }
+        long leftSize = size(t.left);
+        boolean extended;
+        if (offset <= leftSize) {
+            extended = extend(t.left, offset, addStart, count, newlines);
+        } else if (offset < leftSize + t.length) {
+            return false;
+        } else if (offset == leftSize + t.length) {
+            if (!t.added || t.start + t.length != addStart) {
+                return false;
+            }
+            t.length += count;
+            t.newlines += newlines;
+            extended = true;
+        } else {
+            extended = extend(t.right, offset - leftSize - t.length, addStart, count, newlines);
+        }
+        if (extended) {
+            t.size += count;
+            t.breaks += newlines;
+        }
+        return extended;
+    }
+
+    // grows the last piece when it still ends where the original source used to end
+    private boolean extendLast(Node t, long originalEnd, long count, long newlines) {
+        if (t == null) {
+            return false;
+        }
+        if (t.right != null) {
+            if (!extendLast(t.right, originalEnd, count, newlines)) {
+                return false;
+            }
+        } else if (t.added || t.start + t.length != originalEnd) {
+            return false;
+        } else {
+            t.length += count;
+            t.newlines += newlines;
+        }
+        t.size += count;
+        t.breaks += newlines;
+        return true;
+    }
+
+    private void split(Node t, long pos) {
+        if (t == null) {
+            splitLeft = null;
+            splitRight = null;
+            return;
+        }
+        long leftSize = size(t.left);
+        if (pos <= leftSize) {
+            split(t.left, pos);
+            t.left = splitRight;
+            update(t);
+            splitRight = t;
+        } else if (pos >= leftSize + t.length) {
+            split(t.right, pos - leftSize - t.length);
+            t.right = splitLeft;
+            update(t);
+            splitLeft = t;
+        } else {
+            long cut = pos - leftSize;
+            Node head = newNode(t.added, t.start, cut, t.priority);
+            // a priority of its own between its child's and the piece's, or a piece cut at many carets would leave
+            // a chain of equal priorities
+            long low = t.right == null ? Integer.MIN_VALUE : t.right.priority;
+            int priority = (int) (low + (long) (random.nextDouble() * (t.priority - low)));
+            Node tail = newNode(t.added, t.start + cut, t.length - cut, priority);
+            head.left = t.left;
+            tail.right = t.right;
+            update(head);
+            update(tail);
+            splitLeft = head;
+            splitRight = tail;
+        }
+    }
+
+    private Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        } else {
+            b.left = merge(a, b.left);
+            update(b);
+            return b;
+        }
+    }
+
+    private static long size(Node t) {
+        return t == null ? 0 : t.size;
+    }
+
+    private static long breaks(Node t) {
+        return t == null ? 0 : t.breaks;
+    }
+
+    private static void update(Node t) {
+        t.size = size(t.left) + t.length + size(t.right);
+        t.breaks = breaks(t.left) + t.newlines + breaks(t.right);
+    }
+
+    private static class Node {
+        private final boolean added;
+        private final long start;
+        private long length;
+        private long newlines;
+        private final int priority;
+        private long size;
+        private long breaks;
+        private Node left;
+        private Node right;
+
+        Node(boolean added, long start, long length, long newlines, int priority) {
+            this.added = added;
+            this.start = start;
+            this.length = length;
+            this.newlines = newlines;
+            this.priority = priority;
+            this.size = length;
+            this.breaks = newlines;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+import java.nio.CharBuffer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class RegexFinder implements Finder {
+    private final Pattern pattern;
+
+    public RegexFinder(Pattern pattern) {
+        this.pattern = pattern;
+    }
+
+    public void find(char[] text, int from, int to, int limit, Sink sink) {
+        Matcher matcher = pattern.matcher(CharBuffer.wrap(text, 0, to));
+        // lookbehind and ^ see the text before from, so a chunk boundary does not look like a line start
+        matcher.useTransparentBounds(true);
+        matcher.useAnchoringBounds(false);
+        matcher.region(from, to);
+        while (matcher.find() && matcher.start() < limit) {
+            // empty matches are nothing to select or highlight
+            if (matcher.end() > matcher.start()) {
+                sink.match(matcher.start(), matcher.end());
+            }
+        }
+    }
+}
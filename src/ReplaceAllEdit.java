@@ -0,0 +1,63 @@
+import java.nio.CharBuffer;
+import java.util.List;
+
+// undo puts the old pieces back and redo replaces the matches again, so neither side copies the document
+public class ReplaceAllEdit implements Edit {
+    private static final long SEGMENT_BYTES = 40;
+    private static final long MATCH_BYTES = 12;
+
+    private final List<Segment> removed;
+    private final SearchResult matches;
+    private final String replacement;
+    private final long caret;
+
+    public ReplaceAllEdit(List<Segment> removed, SearchResult matches, String replacement, long caret) {
+        this.removed = removed;
+        this.matches = matches;
+        this.replacement = replacement;
+        this.caret = caret;
+    }
+
+    public void undo(Document doc) {
+        doc.delete(0, doc.length());
+        doc.insertPieces(0, removed);
+    }
+
+    public void redo(Document doc) {
+        doc.replaceAll(matches, replacement);
+    }
+
+    // one splice per match rather than the whole text; undoing match i finds it back at its old offset
+    public void journal(EditJournal journal, boolean undo) {
+        DocumentSnapshot old = undo ? new DocumentSnapshot(removed) : null;
+        long shift = 0;
+        for (int i = 0; i < matches.size(); i++) {
+            long start = matches.getStart(i);
+            long end = matches.getEnd(i);
+            if (undo) {
+                char[] chars = new char[(int) (end - start)];
+                old.getChars(start, end, chars, 0);
+                journal.splice(start, replacement.length(), CharBuffer.wrap(chars));
+            } else {
+                journal.splice(start + shift, end - start, replacement);
+                shift += replacement.length() - (end - start);
+            }
+        }
+    }
+
+    public long getUndoCaret() {
+        return caret;
+    }
+
+    public long getRedoCaret() {
+        return caret;
+    }
+
+    public boolean absorb(Edit next) {
+        return false;
+    }
+
+    public long getMemoryUsage() {
+        return SEGMENT_BYTES * removed.size() + MATCH_BYTES * matches.size() + 2L * replacement.length();
+    }
+}
@@ -0,0 +1,193 @@
+import javax.swing.*;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+
+// scans a document snapshot chunk by chunk on the search thread
+public class SearchEngine {
+    private static final int CHUNK_SIZE = 1 << 20;
+    // slices smaller than this are scanned by one task
+    private static final long TASK_SIZE = 4L * CHUNK_SIZE;
+    private static final long PUBLISH_INTERVAL = 50_000_000L;
+    // the furthest a chunk is read for a regex when its last line does not end sooner
+    private static final int LONG_LINE = 4 << 20;
+
+    // all callbacks run on the event dispatch thread
+    public interface Listener {
+        void matchesFound(SearchResult result);
+
+        void finished(SearchResult result);
+    }
+
+    public interface Sink {
+        void match(long start, long end);
+    }
+
+    private SearchEngine() {
+    }
+
+    public static SearchResult start(DocumentSnapshot doc, SearchQuery query, Listener listener) {
+        SearchResult result = new SearchResult(query);
+        Workers.search().execute(() -> {
+            if (result.isCancelled()) {
+                return;
+            }
+            Metrics.Sample sample = Metrics.start();
+            long[] lastPublish = {System.nanoTime()};
+            scan(doc, 0, doc.length(), query, result, (start, end) -> {
+                result.add(start, end);
+                long now = System.nanoTime();
+                if (now - lastPublish[0] > PUBLISH_INTERVAL) {
+                    lastPublish[0] = now;
+                    SwingUtilities.invokeLater(() -> listener.matchesFound(result));
+                }
+            });
+            result.setComplete();
+            if (!result.isCancelled()) {
+                Metrics.stop(Metrics.Op.SEARCH, sample);
+            }
+            SwingUtilities.invokeLater(() -> listener.finished(result));
+        });
+        return result;
+    }
+
+    // finds every match at once, scanning slices of the document on all cores; only finished is called
+    public static SearchResult findAll(DocumentSnapshot doc, SearchQuery query, Listener listener) {
+        SearchResult result = new SearchResult(query);
+        Workers.search().execute(() -> {
+            if (result.isCancelled()) {
+                return;
+            }
+            // allocation is counted for this thread only, not the pool threads that do the scanning
+            Metrics.Sample sample = Metrics.start();
+            result.addAll(Workers.parallel().invoke(new FindTask(doc, 0, doc.length(), query, result)), 0);
+            result.setComplete();
+            if (!result.isCancelled()) {
+                Metrics.stop(Metrics.Op.SEARCH, sample);
+            }
+            SwingUtilities.invokeLater(() -> listener.finished(result));
+        });
+        return result;
+    }
+
+    // the same as findAll, returning when every match is found; for callers that have no event dispatch thread
+    public static SearchResult find(DocumentSnapshot doc, SearchQuery query) {
+        Metrics.Sample sample = Metrics.start();
+        SearchResult result = new SearchResult(query);
+        result.addAll(Workers.parallel().invoke(new FindTask(doc, 0, doc.length(), query, result)), 0);
+        result.setComplete();
+        Metrics.stop(Metrics.Op.SEARCH, sample);
+        return result;
+    }
+
+    // reports the non-overlapping matches that start in [from, to), reading past to only as far as the query needs;
+    // gives up at the next chunk once owner is cancelled
+    public static void scan(DocumentSnapshot doc, long from, long to, SearchQuery query, SearchResult owner, Sink sink) {
+        Finder finder = query.newFinder();
+        int overlap = query.getOverlap();
+        char[] buffer = new char[(int) Math.min(CHUNK_SIZE + overlap, Math.max(0, doc.length() - from))];
+        long[] next = {from};
+        long chunkEnd;
+        for (long chunk = from; chunk < to && !owner.isCancelled(); chunk = chunkEnd) {
+            chunkEnd = Math.min(to, chunk + CHUNK_SIZE);
+            long readEnd = Math.min(doc.length(), chunkEnd + overlap);
+            doc.getChars(chunk, readEnd, buffer, 0);
+            int n = (int) (readEnd - chunk);
+            if (query.isRegex()) {
+                // a regex match runs on to the end of the line it is on at the chunk end, however far that is: the
+                // read goes on to it and the chunk takes in the rest of the line, so it is read once; a match that
+                // crosses a line break there is not seen
+                int lineEnd = lineEnd(buffer, (int) (chunkEnd - chunk), n);
+                while (lineEnd < 0 && readEnd < doc.length() && n < LONG_LINE) {
+                    long more = Math.min(doc.length(), chunk + Math.min(LONG_LINE, 2L * n));
+                    if (buffer.length < more - chunk) {
+                        buffer = Arrays.copyOf(buffer, (int) (more - chunk));
+                    }
+                    doc.getChars(readEnd, more, buffer, n);
+                    lineEnd = lineEnd(buffer, n, (int) (more - chunk));
+                    readEnd = more;
+                    n = (int) (readEnd - chunk);
+                }
+                if (lineEnd >= 0) {
+                    n = lineEnd + 1;
+                    chunkEnd = Math.min(to, Math.max(chunkEnd, chunk + n));
+                } else if (readEnd == doc.length()) {
+                    chunkEnd = Math.min(to, Math.max(chunkEnd, readEnd));
+                } else {
+                    // on a line longer than LONG_LINE a match may run half of it past the chunk end before it is cut off
+                    chunkEnd = Math.min(to, Math.max(chunkEnd, chunk + LONG_LINE / 2));
+                }
+            }
+            long base = chunk;
+            finder.find(buffer, (int) (Math.max(next[0], chunk) - chunk), n, (int) (chunkEnd - chunk), (start, end) -> {
+                next[0] = base + end;
+                sink.match(base + start, base + end);
+            });
+        }
+    }
+
+    // index of the first line break in buffer[from, to), or -1
+    private static int lineEnd(char[] buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static class FindTask extends RecursiveTask<SearchResult> {
+        private static final long serialVersionUID = 1L;
+        private final DocumentSnapshot doc;
+        private final long from;
+        private final long to;
+        private final SearchQuery query;
+        private final SearchResult target;
+
+        FindTask(DocumentSnapshot doc, long from, long to, SearchQuery query, SearchResult target) {
+            this.doc = doc;
+            this.from = from;
+            this.to = to;
+            this.query = query;
+            this.target = target;
+        }
+
+        protected SearchResult compute() {
+            if (to - from <= TASK_SIZE) {
+                SearchResult found = new SearchResult(query);
+                scan(doc, from, to, query, target, found::add);
+                return found;
+            }
+            long middle = from + (to - from) / 2;
+            FindTask right = new FindTask(doc, middle, to, query, target);
+            right.fork();
+            SearchResult left = new FindTask(doc, from, middle, query, target).compute();
+            return join(left, right.join());
+        }
+
+        // the right half was scanned from its own start; where that overlaps the last match on the left,
+        // scan again from the end of that match until the matches fall back in step
+        private SearchResult join(SearchResult left, SearchResult right) {
+            long end = left.size() == 0 ? from : left.getEnd(left.size() - 1);
+            int next = right.indexAfter(end);
+            if (next > 0) {
+                SearchResult rescan = new SearchResult(query);
+                int[] resumeAt = {right.size()};
+                scan(doc, end, to, query, rescan, (start, matchEnd) -> {
+                    if (rescan.isCancelled()) {
+                        return;
+                    }
+                    int index = right.indexAfter(start);
+                    if (index < right.size() && right.getStart(index) == start) {
+                        resumeAt[0] = index;
+                        rescan.cancel();
+                    } else {
+                        left.add(start, matchEnd);
+                    }
+                });
+                next = resumeAt[0];
+            }
+            left.addAll(right, next);
+            return left;
+        }
+    }
+}
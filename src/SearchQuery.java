@@ -0,0 +1,53 @@
+import java.util.regex.Pattern;
+
+public class SearchQuery {
+    // how far past its chunk a regex match is first looked for; the search reads further when the line goes on
+    private static final int REGEX_OVERLAP = 64 * 1024;
+
+    private final String text;
+    private final boolean regex;
+    private final boolean ignoreCase;
+    private final Pattern pattern;
+
+    // throws PatternSyntaxException for a bad regex
+    public SearchQuery(String text, boolean regex, boolean ignoreCase) {
+        this.text = text;
+        this.regex = regex;
+        this.ignoreCase = ignoreCase;
+        if (regex) {
+            int flags = Pattern.MULTILINE;
+            if (ignoreCase) {
+                flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+            }
+            pattern = Pattern.compile(text, flags);
+        } else {
+            pattern = null;
+        }
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public boolean isRegex() {
+        return regex;
+    }
+
+    public boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    // chars a chunk has to be read past its end so matches starting inside it are seen whole
+    public int getOverlap() {
+        return regex ? REGEX_OVERLAP : Math.max(0, text.length() - 1);
+    }
+
+    // finders keep no state between calls but are cheap, so each thread makes its own
+    public Finder newFinder() {
+        return regex ? new RegexFinder(pattern) : new LiteralFinder(text, ignoreCase);
+    }
+
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,135 @@
+import java.util.Arrays;
+
+// matches in document order, filled in by the search thread while the editor reads them
+public class SearchResult {
+    private final SearchQuery query;
+    private long[] starts = new long[64];
+    private int[] lengths = new int[64];
+    private int count;
+    private volatile boolean complete;
+    private volatile boolean cancelled;
+
+    public SearchResult(SearchQuery query) {
+        this.query = query;
+    }
+
+    public SearchQuery getQuery() {
+        return query;
+    }
+
+    public synchronized void add(long start, long end) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            lengths = Arrays.copyOf(lengths, count * 2);
+        }
+        starts[count] = start;
+        lengths[count] = (int) (end - start);
+        count++;
+    }
+
+    // appends the matches of other from index on; other must come after this in the document
+    public synchronized void addAll(SearchResult other, int from) {
+        synchronized (other) {
+            int n = other.count - from;
+            if (count + n > starts.length) {
+                int capacity = Math.max(count + n, count * 2);
+                starts = Arrays.copyOf(starts, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+            }
+            System.arraycopy(other.starts, from, starts, count, n);
+            System.arraycopy(other.lengths, from, lengths, count, n);
+            count += n;
+        }
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized long getStart(int index) {
+        return starts[index];
+    }
+
+    public synchronized long getEnd(int index) {
+        return starts[index] + lengths[index];
+    }
+
+    // index of the first match starting at or after offset; size() when none has been found yet
+    public synchronized int indexAfter(long offset) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // follows an edit replacing removed chars at offset with inserted ones: matches it touched are dropped and those
+    // after it move, so a finished result stays right without searching again
+    public synchronized void edited(long offset, long removed, long inserted) {
+        int from = indexAfter(offset);
+        // a match ending where the edit starts touches it too
+        while (from > 0 && starts[from - 1] + lengths[from - 1] >= offset) {
+            from--;
+        }
+        int kept = from;
+        long delta = inserted - removed;
+        for (int i = from; i < count; i++) {
+            if (starts[i] > offset + removed) {
+                starts[kept] = starts[i] + delta;
+                lengths[kept++] = lengths[i];
+            }
+        }
+        count = kept;
+    }
+
+    // the same for every change of a multi-caret edit, in one pass over the matches
+    public synchronized void edited(EditRanges ranges) {
+        int kept = 0;
+        int next = 0;
+        long delta = 0;
+        for (int i = 0; i < count; i++) {
+            // the changes before the match have moved it; a change touching it may reach the next match too
+            long start = starts[i] + delta;
+            long end = start + lengths[i];
+            boolean touched = false;
+            while (next < ranges.size() && ranges.getOffset(next) <= end) {
+                if (ranges.getOffset(next) + ranges.getRemoved(next) >= start) {
+                    touched = true;
+                    break;
+                }
+                long change = ranges.getInserted(next) - ranges.getRemoved(next);
+                delta += change;
+                start += change;
+                end += change;
+                next++;
+            }
+            if (!touched) {
+                starts[kept] = start;
+                lengths[kept++] = lengths[i];
+            }
+        }
+        count = kept;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    void setComplete() {
+        complete = true;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,28 @@
+// a range of one of the document's buffers
+public class Segment {
+    private final TextSource source;
+    private final long start;
+    private final long end;
+
+    public Segment(TextSource source, long start, long end) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+    }
+
+    public TextSource getSource() {
+        return source;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long length() {
+        return end - start;
+    }
+}
@@ -0,0 +1,121 @@
+import java.util.Arrays;
+
+// append-only: chars live in chunks that are never moved or rewritten once filled, so a snapshot taken on the
+// event dispatch thread can keep reading what was already there while more text is appended
+public class StringSource implements TextSource {
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // replaced as a whole whenever a chunk is added or grown, so a reader on another thread sees whole chunks
+    private volatile char[][] chunks = { new char[16] };
+    private long length;
+    private final NewlineIndex newlines;
+
+    public StringSource() {
+        newlines = new NewlineIndex();
+    }
+
+    public StringSource(CharSequence text) {
+        this();
+        append(text);
+    }
+
+    // returns the offset the text was stored at
+    public long append(CharSequence text) {
+        long start = length;
+        int n = text.length();
+        int done = 0;
+        while (done < n) {
+            int index = (int) (length >>> CHUNK_BITS);
+            int at = (int) (length & CHUNK_MASK);
+            int count = Math.min(n - done, CHUNK_SIZE - at);
+            char[] chunk = chunkFor(index, at + count);
+            copy(text, done, done + count, chunk, at);
+            done += count;
+            length += count;
+        }
+        newlines.append(text, start);
+        return start;
+    }
+
+    // a chunk only grows by copying into a new array, so older snapshots keep a valid prefix
+    private char[] chunkFor(int index, int needed) {
+        char[][] current = chunks;
+        char[] chunk = index < current.length ? current[index] : null;
+        if (chunk != null && chunk.length >= needed) {
+            return chunk;
+        }
+        // only the first chunk starts small; later ones mean the text is already big
+        int capacity = chunk != null ? chunk.length : index == 0 ? 16 : CHUNK_SIZE;
+        while (capacity < needed) {
+            capacity = Math.min(CHUNK_SIZE, capacity * 2);
+        }
+        chunk = chunk == null ? new char[capacity] : Arrays.copyOf(chunk, capacity);
+        char[][] grown = Arrays.copyOf(current, Math.max(current.length, index + 1));
+        grown[index] = chunk;
+        chunks = grown;
+        return chunk;
+    }
+
+    private static void copy(CharSequence text, int from, int to, char[] dst, int dstBegin) {
+        if (text instanceof String s) {
+            s.getChars(from, to, dst, dstBegin);
+        } else if (text instanceof StringBuilder b) {
+            b.getChars(from, to, dst, dstBegin);
+        } else {
+            for (int i = from; i < to; i++) {
+                dst[dstBegin++] = text.charAt(i);
+            }
+        }
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public char charAt(long offset) {
+        return chunks[(int) (offset >>> CHUNK_BITS)][(int) (offset & CHUNK_MASK)];
+    }
+
+    public void appendTo(StringBuilder out, long start, long end) {
+        char[][] chunks = this.chunks;
+        while (start < end) {
+            int at = (int) (start & CHUNK_MASK);
+            int count = (int) Math.min(end - start, CHUNK_SIZE - at);
+            out.append(chunks[(int) (start >>> CHUNK_BITS)], at, count);
+            start += count;
+        }
+    }
+
+    public void getChars(long start, long end, char[] dst, int dstBegin) {
+        char[][] chunks = this.chunks;
+        while (start < end) {
+            int at = (int) (start & CHUNK_MASK);
+            int count = (int) Math.min(end - start, CHUNK_SIZE - at);
+            System.arraycopy(chunks[(int) (start >>> CHUNK_BITS)], at, dst, dstBegin, count);
+            start += count;
+            dstBegin += count;
+        }
+    }
+
+    public long newlinesBefore(long offset) {
+        return newlines.rank(offset);
+    }
+
+    public long newlinePosition(long index) {
+        return newlines.get((int) index);
+    }
+
+    public long getMemoryUsage() {
+        long chars = 0;
+        for (char[] chunk : chunks) {
+            chars += chunk.length;
+        }
+        return 2 * chars + newlines.getMemoryUsage();
+    }
+
+    public boolean isInMemory() {
+        return true;
+    }
+}
@@ -0,0 +1,696 @@
+import javax.swing.*;
+import java.util.Arrays;
+
+// where every bracket opens and closes, or in markup every tag, kept in primitive arrays so that the match of any of
+// them, the structure around an offset and the children of a structure are each found in O(log n). An edit rescans
+// only the lines it touched; a region too big for that is scanned on a background thread
+public class StructureIndex {
+    // kinds of entry, negated for the closing one
+    public static final int PAREN = 1;
+    public static final int SQUARE = 2;
+    public static final int CURLY = 3;
+    public static final int TAG = 4;
+
+    // dirty regions up to this many chars are scanned on the event dispatch thread
+    private static final int EDIT_CHARS = 64 * 1024;
+    // how far past the end of a region a tag is read to tell whether it closes itself
+    private static final int TAG_LIMIT = 4096;
+    private static final int READ_SIZE = 64 * 1024;
+    // slots per leaf of the depth tree
+    private static final int BLOCK = 64;
+    private static final int NONE = -2;
+
+    // called on the event dispatch thread when a background scan changed the index
+    public interface Listener {
+        void structureChanged();
+    }
+
+    private final Listener listener;
+    private Document doc;
+    private boolean markup;
+    // the document length the index agrees with
+    private long length;
+    // entry offsets and kinds in a gap buffer. Offsets after the gap are kept as their distance from the end of the
+    // document, so an edit at the gap moves every later entry without touching it. Slots in the gap have kind 0
+    private long[] offsets = new long[BLOCK];
+    private byte[] kinds = new byte[BLOCK];
+    private int gapStart;
+    private int gapEnd = BLOCK;
+    // a tree over blocks of slots: the sum of +1 for every opening and -1 for every closing entry in a node,
+    // and the lowest running sum reached inside it
+    private int[] sums = new int[2];
+    private int[] mins = new int[2];
+    private int touchedFrom = Integer.MAX_VALUE;
+    private int touchedTo;
+    // chars whose entries may be missing or wrong; dirtyStart is -1 when there are none
+    private long dirtyStart = -1;
+    private long dirtyEnd;
+    // offset, removed and inserted length of every edit made while a background scan runs
+    private long[] pending = new long[24];
+    private int pendingCount;
+    // bumped whenever a background scan would no longer fit
+    private volatile int version;
+    private boolean running;
+    // running sum where the last tree search stopped
+    private int searchSum;
+
+    public StructureIndex(Listener listener) {
+        this.listener = listener;
+    }
+
+    // markup files are indexed by their tags, everything else by its brackets
+    public static boolean isMarkup(String fileName) {
+        String name = fileName.toLowerCase();
+        return name.endsWith(".xml") || name.endsWith(".html") || name.endsWith(".htm") || name.endsWith(".xhtml")
+                || name.endsWith(".svg") || name.endsWith(".xsd") || name.endsWith(".xsl");
+    }
+
+    public void setMarkup(boolean markup) {
+        if (markup != this.markup) {
+            this.markup = markup;
+            reset();
+        }
+    }
+
+    public void setDocument(Document doc) {
+        this.doc = doc;
+        reset();
+    }
+
+    // every entry is known; until then a query may miss some
+    public boolean isReady() {
+        return !running && dirtyStart < 0;
+    }
+
+    // removed chars at offset were replaced by inserted ones
+    public void edited(long offset, long removed, long inserted) {
+        if (doc == null) {
+            return;
+        }
+        if (running) {
+            if (pendingCount + 3 > pending.length) {
+                pending = Arrays.copyOf(pending, pending.length * 2);
+            }
+            pending[pendingCount++] = offset;
+            pending[pendingCount++] = removed;
+            pending[pendingCount++] = inserted;
+        }
+        long delta = inserted - removed;
+        replaceEntries(offset, offset + removed, null, null, 0);
+        length += delta;
+        if (dirtyStart < 0) {
+            dirtyStart = offset;
+            dirtyEnd = offset + inserted;
+        } else {
+            long start = dirtyStart < offset ? dirtyStart : dirtyStart >= offset + removed ? dirtyStart + delta : offset;
+            long end = dirtyEnd <= offset ? dirtyEnd : dirtyEnd >= offset + removed ? dirtyEnd + delta : offset + inserted;
+            dirtyStart = Math.min(start, offset);
+            dirtyEnd = Math.max(end, offset + inserted);
+        }
+        update();
+    }
+
+    // text was added at the end without an edit, by loading or following a file
+    public void appended() {
+        if (doc != null && doc.length() != length) {
+            edited(length, 0, doc.length() - length);
+        }
+    }
+
+    // the text changed in places nobody told us about
+    public void textReplaced() {
+        reset();
+    }
+
+    public int size() {
+        return offsets.length - (gapEnd - gapStart);
+    }
+
+    public long getOffset(int index) {
+        int slot = slot(index);
+        return slot < gapStart ? offsets[slot] : length - offsets[slot];
+    }
+
+    // PAREN, SQUARE, CURLY or TAG, negative for a closing entry
+    public int getKind(int index) {
+        return kinds[slot(index)];
+    }
+
+    // the first entry at or after offset
+    public int indexAfter(long offset) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getOffset(mid) < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // the entry starting at offset, or -1
+    public int indexAt(long offset) {
+        int index = indexAfter(offset);
+        return index < size() && getOffset(index) == offset ? index : -1;
+    }
+
+    // the entry closing the given opening one or opening the given closing one, or -1 when it has none
+    public int getMatch(int index) {
+        int slot = slot(index);
+        int sum = prefix(slot);
+        int match = kinds[slot] > 0 ? firstAtMost(slot + 1, sum, sum - 1) : openerAfter(lastAtMost(slot, sum, sum));
+        return match < 0 ? -1 : index(match);
+    }
+
+    // the innermost opening entry before offset whose structure is still open at offset, or -1 at the top level
+    public int getEnclosing(long offset) {
+        int index = indexAfter(offset);
+        if (index == 0) {
+            return -1;
+        }
+        int slot = slot(index - 1);
+        int sum = prefix(slot);
+        int opener = openerAfter(lastAtMost(slot, sum, sum - 1));
+        return opener < 0 ? -1 : index(opener);
+    }
+
+    // the first structure inside the given one, or -1
+    public int getFirstChild(int index) {
+        return index + 1 < size() && getKind(index + 1) > 0 ? index + 1 : -1;
+    }
+
+    // the structure following the given one at the same depth, or -1
+    public int getNextSibling(int index) {
+        int match = getMatch(index);
+        return match >= 0 && match + 1 < size() && getKind(match + 1) > 0 ? match + 1 : -1;
+    }
+
+    public long getMemoryUsage() {
+        return 9L * offsets.length + 8L * sums.length;
+    }
+
+    private void reset() {
+        version++;
+        running = false;
+        pendingCount = 0;
+        offsets = new long[BLOCK];
+        kinds = new byte[BLOCK];
+        gapStart = 0;
+        gapEnd = BLOCK;
+        rebuildTree();
+        length = doc == null ? 0 : doc.length();
+        dirtyStart = doc == null ? -1 : 0;
+        dirtyEnd = length;
+        if (doc != null) {
+            update();
+        }
+    }
+
+    // scans the dirty lines here when there are few of them, otherwise in the background
+    private void update() {
+        if (running || dirtyStart < 0) {
+            return;
+        }
+        long start = doc.getLineStart(doc.getLineOfOffset(dirtyStart));
+        int endLine = doc.getLineOfOffset(dirtyEnd);
+        long end = endLine + 1 < doc.getLineCount() ? doc.getLineStart(endLine + 1) : length;
+        if (markup) {
+            start = tagLineStart(start);
+        }
+        dirtyStart = -1;
+        if (end - start > EDIT_CHARS) {
+            startBackground(start, end);
+            return;
+        }
+        Scanner scanner = new Scanner(markup, end);
+        char[] chars = doc.getText(start, Math.min(length, end + (markup ? TAG_LIMIT : 0))).toCharArray();
+        scanner.scan(chars, chars.length, start);
+        scanner.finish();
+        replaceEntries(start, end, scanner.offsets, scanner.kinds, scanner.count);
+    }
+
+    // a tag may run over several lines, so a region starting inside one starts at the line of its <
+    private long tagLineStart(long start) {
+        long from = Math.max(0, start - TAG_LIMIT);
+        String before = doc.getText(from, start);
+        int open = before.lastIndexOf('<');
+        return open > before.lastIndexOf('>') ? doc.getLineStart(doc.getLineOfOffset(from + open)) : start;
+    }
+
+    private void startBackground(long start, long end) {
+        running = true;
+        pendingCount = 0;
+        int runVersion = ++version;
+        boolean runMarkup = markup;
+        DocumentSnapshot snapshot = new DocumentSnapshot(doc.snapshot());
+        Workers.structure().execute(() -> scanInBackground(runVersion, runMarkup, snapshot, start, end));
+    }
+
+    private void scanInBackground(int runVersion, boolean runMarkup, DocumentSnapshot snapshot, long start, long end) {
+        Scanner scanner = new Scanner(runMarkup, end);
+        char[] buffer = new char[READ_SIZE];
+        long length = snapshot.length();
+        boolean more = true;
+        for (long offset = start; more && offset < length && version == runVersion; offset += READ_SIZE) {
+            int n = (int) Math.min(READ_SIZE, length - offset);
+            snapshot.getChars(offset, offset + n, buffer, 0);
+            more = scanner.scan(buffer, n, offset);
+        }
+        scanner.finish();
+        if (version == runVersion) {
+            SwingUtilities.invokeLater(() -> publish(runVersion, scanner, start, end));
+        }
+    }
+
+    // the region and what was found in it move with the edits made meanwhile; entries in chars an edit replaced are
+    // dropped, as the edit left those chars dirty and they are scanned again
+    private void publish(int runVersion, Scanner found, long start, long end) {
+        if (version != runVersion) {
+            return;
+        }
+        running = false;
+        int count = found.count;
+        for (int e = 0; e < pendingCount; e += 3) {
+            long offset = pending[e];
+            long removedEnd = offset + pending[e + 1];
+            long delta = pending[e + 2] - pending[e + 1];
+            start = start < offset ? start : start >= removedEnd ? start + delta : offset;
+            end = end <= offset ? end : end >= removedEnd ? end + delta : offset + pending[e + 2];
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                long at = found.offsets[i];
+                if (at < offset || at >= removedEnd) {
+                    found.offsets[kept] = at < offset ? at : at + delta;
+                    found.kinds[kept++] = found.kinds[i];
+                }
+            }
+            count = kept;
+        }
+        pendingCount = 0;
+        replaceEntries(start, end, found.offsets, found.kinds, count);
+        update();
+        listener.structureChanged();
+    }
+
+    // the entries between start and end make way for the given ones, which lie between them too
+    private void replaceEntries(long start, long end, long[] newOffsets, byte[] newKinds, int count) {
+        int from = indexAfter(start);
+        int to = indexAfter(end);
+        moveGap(from);
+        Arrays.fill(kinds, gapEnd, gapEnd + to - from, (byte) 0);
+        touch(gapEnd, gapEnd + to - from);
+        gapEnd += to - from;
+        if (gapEnd - gapStart < count) {
+            grow(count);
+        }
+        for (int i = 0; i < count; i++) {
+            offsets[gapStart + i] = newOffsets[i];
+            kinds[gapStart + i] = newKinds[i];
+        }
+        touch(gapStart, gapStart + count);
+        gapStart += count;
+        refresh();
+    }
+
+    // entries crossing the gap change from an offset to a distance from the end or back
+    private void moveGap(int at) {
+        if (at < gapStart) {
+            int count = gapStart - at;
+            for (int i = count - 1; i >= 0; i--) {
+                offsets[gapEnd - count + i] = length - offsets[at + i];
+                kinds[gapEnd - count + i] = kinds[at + i];
+            }
+            Arrays.fill(kinds, at, Math.min(gapStart, gapEnd - count), (byte) 0);
+            touch(at, gapEnd);
+            gapStart = at;
+            gapEnd -= count;
+        } else if (at > gapStart) {
+            int count = at - gapStart;
+            for (int i = 0; i < count; i++) {
+                offsets[gapStart + i] = length - offsets[gapEnd + i];
+                kinds[gapStart + i] = kinds[gapEnd + i];
+            }
+            Arrays.fill(kinds, Math.max(gapEnd, gapStart + count), gapEnd + count, (byte) 0);
+            touch(gapStart, gapEnd + count);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+
+    private void grow(int count) {
+        int capacity = offsets.length;
+        while (capacity - size() < count) {
+            capacity *= 2;
+        }
+        int tail = offsets.length - gapEnd;
+        long[] grownOffsets = new long[capacity];
+        byte[] grownKinds = new byte[capacity];
+        System.arraycopy(offsets, 0, grownOffsets, 0, gapStart);
+        System.arraycopy(kinds, 0, grownKinds, 0, gapStart);
+        System.arraycopy(offsets, gapEnd, grownOffsets, capacity - tail, tail);
+        System.arraycopy(kinds, gapEnd, grownKinds, capacity - tail, tail);
+        offsets = grownOffsets;
+        kinds = grownKinds;
+        gapEnd = capacity - tail;
+        rebuildTree();
+    }
+
+    private int slot(int index) {
+        return index < gapStart ? index : index + gapEnd - gapStart;
+    }
+
+    private int index(int slot) {
+        return slot < gapStart ? slot : slot - (gapEnd - gapStart);
+    }
+
+    // the first slot holding an entry after the given one, which may be -1
+    private int openerAfter(int slot) {
+        if (slot == NONE) {
+            return -1;
+        }
+        int next = slot + 1 == gapStart ? gapEnd : slot + 1;
+        return next < kinds.length ? next : -1;
+    }
+
+    private void touch(int from, int to) {
+        if (from < to) {
+            touchedFrom = Math.min(touchedFrom, from);
+            touchedTo = Math.max(touchedTo, to);
+        }
+    }
+
+    // recomputes the blocks touched since the last refresh and the nodes above them
+    private void refresh() {
+        if (touchedFrom >= touchedTo) {
+            return;
+        }
+        int blocks = sums.length / 2;
+        int from = touchedFrom / BLOCK + blocks;
+        int to = (touchedTo - 1) / BLOCK + blocks;
+        touchedFrom = Integer.MAX_VALUE;
+        touchedTo = 0;
+        for (int node = from; node <= to; node++) {
+            computeBlock(node);
+        }
+        for (from >>= 1, to >>= 1; from >= 1; from >>= 1, to >>= 1) {
+            for (int node = from; node <= to; node++) {
+                computeNode(node);
+            }
+        }
+    }
+
+    private void rebuildTree() {
+        int blocks = offsets.length / BLOCK;
+        sums = new int[2 * blocks];
+        mins = new int[2 * blocks];
+        for (int node = blocks; node < 2 * blocks; node++) {
+            computeBlock(node);
+        }
+        for (int node = blocks - 1; node >= 1; node--) {
+            computeNode(node);
+        }
+        touchedFrom = Integer.MAX_VALUE;
+        touchedTo = 0;
+    }
+
+    private void computeBlock(int node) {
+        int start = (node - sums.length / 2) * BLOCK;
+        int sum = 0;
+        int min = Integer.MAX_VALUE;
+        for (int slot = start; slot < start + BLOCK; slot++) {
+            sum += Integer.signum(kinds[slot]);
+            min = Math.min(min, sum);
+        }
+        sums[node] = sum;
+        mins[node] = min;
+    }
+
+    private void computeNode(int node) {
+        sums[node] = sums[2 * node] + sums[2 * node + 1];
+        mins[node] = Math.min(mins[2 * node], sums[2 * node] + mins[2 * node + 1]);
+    }
+
+    // the running sum up to and including the slot: the depth after its entry
+    private int prefix(int slot) {
+        int blocks = sums.length / 2;
+        int block = slot / BLOCK;
+        int sum = 0;
+        for (int l = blocks, r = blocks + block; l < r; l >>= 1, r >>= 1) {
+            if ((l & 1) != 0) {
+                sum += sums[l++];
+            }
+            if ((r & 1) != 0) {
+                sum += sums[--r];
+            }
+        }
+        for (int s = block * BLOCK; s <= slot; s++) {
+            sum += Integer.signum(kinds[s]);
+        }
+        return sum;
+    }
+
+    // the first slot from the given one on where the running sum falls to target, or -1; before is the sum ahead of it
+    private int firstAtMost(int from, int before, int target) {
+        if (from >= kinds.length) {
+            return -1;
+        }
+        int block = from / BLOCK;
+        int sum = before;
+        for (int slot = from; slot < (block + 1) * BLOCK; slot++) {
+            sum += Integer.signum(kinds[slot]);
+            if (sum <= target) {
+                return slot;
+            }
+        }
+        searchSum = sum;
+        block = searchRight(1, 0, sums.length / 2 - 1, block + 1, target);
+        if (block < 0) {
+            return -1;
+        }
+        sum = searchSum;
+        for (int slot = block * BLOCK; ; slot++) {
+            sum += Integer.signum(kinds[slot]);
+            if (sum <= target) {
+                return slot;
+            }
+        }
+    }
+
+    // the first block from the given one on whose running sum reaches target; searchSum is the sum ahead of it
+    private int searchRight(int node, int lo, int hi, int from, int target) {
+        if (hi < from) {
+            return -1;
+        }
+        if (lo >= from) {
+            if (searchSum + mins[node] > target) {
+                searchSum += sums[node];
+                return -1;
+            }
+            if (lo == hi) {
+                return lo;
+            }
+        }
+        int mid = (lo + hi) >>> 1;
+        int found = searchRight(2 * node, lo, mid, from, target);
+        return found >= 0 ? found : searchRight(2 * node + 1, mid + 1, hi, from, target);
+    }
+
+    // the last slot before the given one where the running sum is at most target, -1 when that is only true before
+    // the first slot, or NONE; sum is the running sum at the given slot
+    private int lastAtMost(int slot, int sum, int target) {
+        int block = slot / BLOCK;
+        for (int s = slot - 1; s >= block * BLOCK; s--) {
+            sum -= Integer.signum(kinds[s + 1]);
+            if (sum <= target) {
+                return s;
+            }
+        }
+        block = searchLeft(1, 0, sums.length / 2 - 1, block, 0, target);
+        if (block < 0) {
+            return target >= 0 ? -1 : NONE;
+        }
+        sum = searchSum;
+        int last = NONE;
+        for (int s = block * BLOCK; s < (block + 1) * BLOCK; s++) {
+            sum += Integer.signum(kinds[s]);
+            if (sum <= target) {
+                last = s;
+            }
+        }
+        return last;
+    }
+
+    // the last block before the given one whose running sum reaches target; searchSum is the sum ahead of it
+    private int searchLeft(int node, int lo, int hi, int to, int before, int target) {
+        if (lo >= to) {
+            return -1;
+        }
+        if (hi < to) {
+            if (before + mins[node] > target) {
+                return -1;
+            }
+            if (lo == hi) {
+                searchSum = before;
+                return lo;
+            }
+        }
+        int mid = (lo + hi) >>> 1;
+        int found = searchLeft(2 * node + 1, mid + 1, hi, to, before + sums[2 * node], target);
+        return found >= 0 ? found : searchLeft(2 * node, lo, mid, to, before, target);
+    }
+
+    // finds brackets outside double quoted strings, or tags outside comments and CDATA sections; stops at the end of
+    // its region unless a tag started before it has not been told apart from a self-closing one yet
+    private static final class Scanner {
+        private static final int TEXT = 0;
+        private static final int STRING = 1;
+        private static final int ESCAPE = 2;
+        private static final int TAG_START = 3;
+        private static final int OPEN_TAG = 4;
+        private static final int CLOSE_TAG = 5;
+        private static final int BANG = 6;
+        private static final int COMMENT = 7;
+        private static final int CDATA = 8;
+        private static final int DECLARATION = 9;
+
+        private final boolean markup;
+        private final long end;
+        private long[] offsets = new long[256];
+        private byte[] kinds = new byte[256];
+        private int count;
+        private int state;
+        private long tagStart;
+        // the last char of an open tag outside quotes, a / there makes it close itself
+        private char last;
+        private char quote;
+        // dashes or brackets seen in a row while looking for the end of a comment or CDATA section
+        private int matched;
+
+        Scanner(boolean markup, long end) {
+            this.markup = markup;
+            this.end = end;
+        }
+
+        // chars[0..n) are at offset base on; returns false once the region is done
+        boolean scan(char[] chars, int n, long base) {
+            for (int i = 0; i < n; i++) {
+                long offset = base + i;
+                if (offset >= end && (state != TAG_START && state != OPEN_TAG || offset >= end + TAG_LIMIT)) {
+                    return false;
+                }
+                if (markup) {
+                    scanMarkup(chars[i], offset);
+                } else {
+                    scanBracket(chars[i], offset);
+                }
+            }
+            return true;
+        }
+
+        // a tag still open at the end is counted as opening
+        void finish() {
+            if (state == OPEN_TAG) {
+                add(tagStart, TAG);
+            }
+        }
+
+        private void scanBracket(char c, long offset) {
+            if (state == STRING) {
+                state = c == '\\' ? ESCAPE : c == '"' || c == '\n' ? TEXT : STRING;
+            } else if (state == ESCAPE) {
+                state = c == '\n' ? TEXT : STRING;
+            } else if (c == '"') {
+                state = STRING;
+            } else if (c == '(' || c == ')') {
+                add(offset, c == '(' ? PAREN : -PAREN);
+            } else if (c == '[' || c == ']') {
+                add(offset, c == '[' ? SQUARE : -SQUARE);
+            } else if (c == '{' || c == '}') {
+                add(offset, c == '{' ? CURLY : -CURLY);
+            }
+        }
+
+        private void scanMarkup(char c, long offset) {
+            switch (state) {
+                case TAG_START:
+                    if (c == '/') {
+                        add(tagStart, -TAG);
+                        state = CLOSE_TAG;
+                    } else if (c == '!') {
+                        state = BANG;
+                        matched = 0;
+                    } else if (c == '?') {
+                        state = DECLARATION;
+                    } else if (Character.isLetter(c) || c == '_' || c == ':') {
+                        state = OPEN_TAG;
+                        last = c;
+                        quote = 0;
+                    } else {
+                        // a < in the text
+                        state = TEXT;
+                        scanMarkup(c, offset);
+                    }
+                    break;
+                case OPEN_TAG:
+                    if (quote != 0) {
+                        if (c == quote) {
+                            quote = 0;
+                        }
+                    } else if (c == '>') {
+                        if (last != '/') {
+                            add(tagStart, TAG);
+                        }
+                        state = TEXT;
+                    } else if (c == '"' || c == '\'') {
+                        quote = c;
+                        last = c;
+                    } else if (!Character.isWhitespace(c)) {
+                        last = c;
+                    }
+                    break;
+                case CLOSE_TAG:
+                case DECLARATION:
+                    if (c == '>') {
+                        state = TEXT;
+                    }
+                    break;
+                case BANG:
+                    if (c == '-' && ++matched == 2) {
+                        state = COMMENT;
+                        matched = 0;
+                    } else if (c == '[' && matched == 0) {
+                        state = CDATA;
+                    } else if (c != '-') {
+                        state = c == '>' ? TEXT : DECLARATION;
+                    }
+                    break;
+                case COMMENT:
+                case CDATA:
+                    char closing = state == COMMENT ? '-' : ']';
+                    if (c == '>' && matched >= 2) {
+                        state = TEXT;
+                    } else {
+                        matched = c == closing ? matched + 1 : 0;
+                    }
+                    break;
+                default:
+                    if (c == '<') {
+                        tagStart = offset;
+                        state = TAG_START;
+                    }
+            }
+        }
+
+        private void add(long offset, int kind) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                kinds = Arrays.copyOf(kinds, count * 2);
+            }
+            offsets[count] = offset;
+            kinds[count++] = (byte) kind;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// removed pieces replaced by inserted pieces at one offset; plain inserts and deletes leave one side empty
+public class TextEdit implements Edit {
+    private static final long SEGMENT_BYTES = 40;
+    private static final long EDIT_BYTES = 64;
+
+    private long offset;
+    private final List<Segment> removed;
+    private final List<Segment> inserted;
+    private long removedLength;
+    private long insertedLength;
+    // chars typed onto the end of the last inserted piece since it was made; it is grown to take them when the
+    // pieces are read, so a run of typing makes no new edit or segment
+    private long typed;
+    // chars of the heap buffers the pieces refer to, which the history keeps alive as long as this edit
+    private long heldChars;
+
+    public TextEdit(long offset, List<Segment> removed, List<Segment> inserted) {
+        this.offset = offset;
+        this.removed = new ArrayList<>(removed);
+        this.inserted = new ArrayList<>(inserted);
+        removedLength = length(removed);
+        insertedLength = length(inserted);
+        heldChars = heldChars(removed) + heldChars(inserted);
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    // the text undo takes out and puts back; redo does the reverse
+    public List<Segment> getRemoved() {
+        return removed;
+    }
+
+    public List<Segment> getInserted() {
+        settle();
+        return inserted;
+    }
+
+    // length chars typed at offset that the document stored right after this edit's last piece, in the same buffer,
+    // join it without a new edit; false when they have to be recorded on their own
+    public boolean extend(long offset, long length) {
+        if (removedLength != 0 || inserted.isEmpty() || offset != this.offset + insertedLength) {
+            return false;
+        }
+        Segment last = inserted.get(inserted.size() - 1);
+        long end = last.getEnd() + typed;
+        TextSource source = last.getSource();
+        // the source has just grown by exactly length chars, so they went in where the piece ends
+        if (source.length() != end + length || source.charAt(end - 1) == '\n') {
+            return false;
+        }
+        typed += length;
+        insertedLength += length;
+        if (source.isInMemory()) {
+            heldChars += length;
+        }
+        return true;
+    }
+
+    private void settle() {
+        if (typed > 0) {
+            int last = inserted.size() - 1;
+            Segment piece = inserted.get(last);
+            inserted.set(last, new Segment(piece.getSource(), piece.getStart(), piece.getEnd() + typed));
+            typed = 0;
+        }
+    }
+
+    public void undo(Document doc) {
+        doc.delete(offset, offset + insertedLength);
+        doc.insertPieces(offset, removed);
+    }
+
+    public void redo(Document doc) {
+        settle();
+        doc.delete(offset, offset + removedLength);
+        doc.insertPieces(offset, inserted);
+    }
+
+    public void journal(EditJournal journal, boolean undo) {
+        settle();
+        if (undo) {
+            journal.splice(offset, insertedLength, text(removed));
+        } else {
+            journal.splice(offset, removedLength, text(inserted));
+        }
+    }
+
+    public long getUndoCaret() {
+        return offset + removedLength;
+    }
+
+    public long getRedoCaret() {
+        return offset + insertedLength;
+    }
+
+    public boolean absorb(Edit next) {
+        if (!(next instanceof TextEdit)) {
+            return false;
+        }
+        TextEdit edit = (TextEdit) next;
+        settle();
+        edit.settle();
+        if (removedLength == 0 && edit.removedLength == 0) {
+            // typing: the next insert continues where this one ended, until a line is finished
+            if (edit.offset != offset + insertedLength || endsWithNewline(inserted)) {
+                return false;
+            }
+            append(inserted, edit.inserted);
+            insertedLength += edit.insertedLength;
+            heldChars += edit.heldChars;
+            return true;
+        }
+        if (insertedLength == 0 && edit.insertedLength == 0) {
+            if (edit.offset + edit.removedLength == offset) {
+                // backspace
+                List<Segment> pieces = new ArrayList<>(edit.removed);
+                append(pieces, removed);
+                removed.clear();
+                removed.addAll(pieces);
+                offset = edit.offset;
+            } else if (edit.offset == offset) {
+                // delete
+                append(removed, edit.removed);
+            } else {
+                return false;
+            }
+            removedLength += edit.removedLength;
+            heldChars += edit.heldChars;
+            return true;
+        }
+        return false;
+    }
+
+    public long getMemoryUsage() {
+        return EDIT_BYTES + SEGMENT_BYTES * (removed.size() + inserted.size()) + 2 * heldChars;
+    }
+
+    static long length(List<Segment> pieces) {
+        long length = 0;
+        for (Segment piece : pieces) {
+            length += piece.length();
+        }
+        return length;
+    }
+
+    private static long heldChars(List<Segment> pieces) {
+        long chars = 0;
+        for (Segment piece : pieces) {
+            if (piece.getSource().isInMemory()) {
+                chars += piece.length();
+            }
+        }
+        return chars;
+    }
+
+    static int newlines(List<Segment> pieces) {
+        long count = 0;
+        for (Segment piece : pieces) {
+            TextSource source = piece.getSource();
+            count += source.newlinesBefore(piece.getEnd()) - source.newlinesBefore(piece.getStart());
+        }
+        return (int) count;
+    }
+
+    static String text(List<Segment> pieces) {
+        StringBuilder out = new StringBuilder((int) length(pieces));
+        for (Segment piece : pieces) {
+            piece.getSource().appendTo(out, piece.getStart(), piece.getEnd());
+        }
+        return out.toString();
+    }
+
+    // adjacent ranges of the same buffer become one, so a run of typing stays a single segment
+    private static void append(List<Segment> pieces, List<Segment> more) {
+        for (Segment piece : more) {
+            int last = pieces.size() - 1;
+            if (last >= 0 && pieces.get(last).getSource() == piece.getSource() && pieces.get(last).getEnd() == piece.getStart()) {
+                pieces.set(last, new Segment(piece.getSource(), pieces.get(last).getStart(), piece.getEnd()));
+            } else {
+                pieces.add(piece);
+            }
+        }
+    }
+
+    private static boolean endsWithNewline(List<Segment> pieces) {
+        if (pieces.isEmpty()) {
+            return false;
+        }
+        Segment last = pieces.get(pieces.size() - 1);
+        return last.length() > 0 && last.getSource().charAt(last.getEnd() - 1) == '\n';
+    }
+}
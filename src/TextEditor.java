@@ -1,29 +1,57 @@
 import javax.swing.*;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeWillExpandListener;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
 import java.awt.*;
 import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.StringSelection;
 import java.awt.datatransfer.UnsupportedFlavorException;
 import java.awt.event.*;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
 
 public class TextEditor extends JFrame implements ActionListener, KeyListener {
+    private static final Font HUD_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 11);
+    // structures listed under one node of the outline; the rest are left out
+    private static final int OUTLINE_CHILDREN = 1000;
+    // words offered at most when completing one
+    private static final int COMPLETIONS = 50;
+    // the active tab's viewer and text
     private Viewer viewer;
     private Text text;
-    private JScrollPane scrollPane;
+    private JTabbedPane tabs;
+    private final List<Text> openTexts = new ArrayList<>();
+    private DocumentManager documents;
     private JFileChooser fileChooser;
-    private String currentFilePath;
     private JMenuBar menuBar;
     private JMenu fileMenu;
-    private JMenuItem openMenuItem, saveMenuItem, exitMenuItem;
+    private JMenuItem newMenuItem, openMenuItem, saveMenuItem, closeMenuItem, exitMenuItem;
     private JMenu editMenu;
-    private JMenuItem cutMenuItem, copyMenuItem, pasteMenuItem, selectAllMenuItem;
+    private JMenuItem undoMenuItem, redoMenuItem, cutMenuItem, copyMenuItem, pasteMenuItem, selectAllMenuItem, completeWordMenuItem;
     private JMenu searchMenu;
-    private JMenuItem searchMenuItem;
+    private JMenuItem searchMenuItem, findNextMenuItem, findAllMenuItem, replaceAllMenuItem, matchBracketMenuItem, outlineMenuItem, goToLineMenuItem;
+    private JMenu viewMenu;
+    private JCheckBoxMenuItem wordWrapMenuItem, followMenuItem, hudMenuItem;
+    private JMenuItem foldMenuItem, unfoldMenuItem, unfoldAllMenuItem;
+    private JTextField searchField, replaceField;
+    private JCheckBox regexCheckBox, matchCaseCheckBox;
     private JToolBar toolBar;
     private JComboBox<String> fontComboBox;
     private JComboBox<Integer> fontSizeComboBox;
     private JComboBox<Color> fontColorComboBox;
-
+    private JPanel statusBar;
+    private JLabel statusLabel;
+    private JProgressBar progressBar;
+    private JButton cancelLoadButton;
+    private final EdtWatchdog watchdog = new EdtWatchdog();
+    // refreshes the performance HUD while it is shown
+    private final Timer hudTimer = new Timer(500, e -> viewer.repaintHud());
 
     public TextEditor() {
         super("Java Text Editor");
@@ -31,113 +59,324 @@ public class TextEditor extends JFrame implements ActionListener, KeyListener {
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
         // initialize components
-        viewer = new Viewer();
-        text = new Text();
-        scrollPane = new JScrollPane(viewer);
+        tabs = new JTabbedPane();
+        documents = new DocumentManager();
         fileChooser = new JFileChooser();
-        currentFilePath = null;
         menuBar = new JMenuBar();
         fileMenu = new JMenu("File");
+        newMenuItem = new JMenuItem("New");
         openMenuItem = new JMenuItem("Open");
         saveMenuItem = new JMenuItem("Save");
+        closeMenuItem = new JMenuItem("Close");
         exitMenuItem = new JMenuItem("Exit");
         editMenu = new JMenu("Edit");
+        undoMenuItem = new JMenuItem("Undo");
+        redoMenuItem = new JMenuItem("Redo");
         cutMenuItem = new JMenuItem("Cut");
         copyMenuItem = new JMenuItem("Copy");
         pasteMenuItem = new JMenuItem("Paste");
         selectAllMenuItem = new JMenuItem("Select All");
+        completeWordMenuItem = new JMenuItem("Complete Word");
         searchMenu = new JMenu("Search");
         searchMenuItem = new JMenuItem("Search");
+        findNextMenuItem = new JMenuItem("Find Next");
+        findAllMenuItem = new JMenuItem("Find All");
+        replaceAllMenuItem = new JMenuItem("Replace All");
+        matchBracketMenuItem = new JMenuItem("Go to Matching Bracket");
+        outlineMenuItem = new JMenuItem("Outline");
+        goToLineMenuItem = new JMenuItem("Go to Line");
+        viewMenu = new JMenu("View");
+        // -Deditor.wordWrap=true starts with long lines wrapped
+        wordWrapMenuItem = new JCheckBoxMenuItem("Word Wrap", Boolean.getBoolean("editor.wordWrap"));
+        followMenuItem = new JCheckBoxMenuItem("Follow File");
+        hudMenuItem = new JCheckBoxMenuItem("Performance HUD");
+        foldMenuItem = new JMenuItem("Fold");
+        unfoldMenuItem = new JMenuItem("Unfold");
+        unfoldAllMenuItem = new JMenuItem("Unfold All");
+        searchField = new JTextField(20);
+        replaceField = new JTextField(20);
+        regexCheckBox = new JCheckBox("Regular expression");
+        matchCaseCheckBox = new JCheckBox("Match case", true);
         toolBar = new JToolBar();
         fontComboBox = new JComboBox<>(new String[]{"Arial", "Times New Roman", "Courier New"});
         fontSizeComboBox = new JComboBox<>(new Integer[]{12, 14, 16, 18, 20, 22, 24});
         fontColorComboBox = new JComboBox<>(new Color[]{Color.BLACK, Color.RED, Color.BLUE, Color.GREEN});
+        statusBar = new JPanel(new BorderLayout());
+        statusLabel = new JLabel(" ");
+        progressBar = new JProgressBar(0, 1000);
+        cancelLoadButton = new JButton("Cancel");
 
         // add components to frame
         setJMenuBar(menuBar);
         menuBar.add(fileMenu);
         menuBar.add(editMenu);
         menuBar.add(searchMenu);
+        menuBar.add(viewMenu);
+        fileMenu.add(newMenuItem);
         fileMenu.add(openMenuItem);
         fileMenu.add(saveMenuItem);
+        fileMenu.add(closeMenuItem);
         fileMenu.add(exitMenuItem);
+        editMenu.add(undoMenuItem);
+        editMenu.add(redoMenuItem);
         editMenu.add(cutMenuItem);
         editMenu.add(copyMenuItem);
         editMenu.add(pasteMenuItem);
         editMenu.add(selectAllMenuItem);
+        editMenu.add(completeWordMenuItem);
         searchMenu.add(searchMenuItem);
+        searchMenu.add(findNextMenuItem);
+        searchMenu.add(findAllMenuItem);
+        searchMenu.add(replaceAllMenuItem);
+        searchMenu.add(matchBracketMenuItem);
+        searchMenu.add(outlineMenuItem);
+        searchMenu.add(goToLineMenuItem);
+        viewMenu.add(wordWrapMenuItem);
+        viewMenu.add(followMenuItem);
+        viewMenu.add(hudMenuItem);
+        viewMenu.add(foldMenuItem);
+        viewMenu.add(unfoldMenuItem);
+        viewMenu.add(unfoldAllMenuItem);
         toolBar.add(fontComboBox);
         toolBar.add(fontSizeComboBox);
         toolBar.add(fontColorComboBox);
         add(toolBar, BorderLayout.NORTH);
-        add(scrollPane, BorderLayout.CENTER);
+        add(tabs, BorderLayout.CENTER);
+        statusBar.add(statusLabel, BorderLayout.CENTER);
+        statusBar.add(progressBar, BorderLayout.EAST);
+        statusBar.add(cancelLoadButton, BorderLayout.WEST);
+        progressBar.setVisible(false);
+        cancelLoadButton.setVisible(false);
+        add(statusBar, BorderLayout.SOUTH);
 
         // set up event listeners
+        newMenuItem.addActionListener(this);
         openMenuItem.addActionListener(this);
         saveMenuItem.addActionListener(this);
+        closeMenuItem.addActionListener(this);
         exitMenuItem.addActionListener(this);
+        undoMenuItem.addActionListener(this);
+        redoMenuItem.addActionListener(this);
         cutMenuItem.addActionListener(this);
         copyMenuItem.addActionListener(this);
         pasteMenuItem.addActionListener(this);
         selectAllMenuItem.addActionListener(this);
+        completeWordMenuItem.addActionListener(this);
         searchMenuItem.addActionListener(this);
+        findNextMenuItem.addActionListener(this);
+        findAllMenuItem.addActionListener(this);
+        replaceAllMenuItem.addActionListener(this);
+        matchBracketMenuItem.addActionListener(this);
+        outlineMenuItem.addActionListener(this);
+        goToLineMenuItem.addActionListener(this);
+        wordWrapMenuItem.addActionListener(this);
+        followMenuItem.addActionListener(this);
+        hudMenuItem.addActionListener(this);
+        foldMenuItem.addActionListener(this);
+        unfoldMenuItem.addActionListener(this);
+        unfoldAllMenuItem.addActionListener(this);
         fontComboBox.addActionListener(this);
         fontSizeComboBox.addActionListener(this);
         fontColorComboBox.addActionListener(this);
-        viewer.addMouseListener(new MouseAdapter() {
+        cancelLoadButton.addActionListener(this);
+        tabs.addChangeListener(e -> {
+            int index = tabs.getSelectedIndex();
+            if (index >= 0) {
+                activate(openTexts.get(index));
+            }
+        });
+
+        newTab().setText("this is a test");
+        // set default font and size
+        text.setFont(new Font("Arial", Font.PLAIN, 12));
+        viewer.setFont(new Font("Arial", Font.PLAIN, 12));
+        fontComboBox.setSelectedItem("Arial");
+        fontSizeComboBox.setSelectedItem(12);
+        fontColorComboBox.setSelectedItem(Color.BLACK);
+        if (Metrics.isEnabled()) {
+            watchdog.start();
+        }
+    }
+
+    // a tab with its own viewer and document, made the active one
+    private Text newTab() {
+        Text tabText = new Text();
+        Viewer tabViewer = new Viewer(tabText, new JScrollBar(JScrollBar.VERTICAL), new JScrollBar(JScrollBar.HORIZONTAL));
+        tabText.viewer = tabViewer;
+        tabText.panel = new JPanel(new BorderLayout());
+        tabText.panel.add(tabViewer, BorderLayout.CENTER);
+        tabText.panel.add(tabViewer.scrollBar, BorderLayout.EAST);
+        tabText.panel.add(tabViewer.hScrollBar, BorderLayout.SOUTH);
+        // alt-click adds a caret, alt-drag selects a column with a caret on every line
+        MouseAdapter mouse = new MouseAdapter() {
+            private Point columnStart;
+
             public void mousePressed(MouseEvent e) {
-                viewer.select(e.getX(), e.getY());
+                tabText.flushInput();
+                tabViewer.requestFocus();
+                columnStart = e.isAltDown() ? e.getPoint() : null;
+                if (e.isAltDown()) {
+                    tabViewer.addCaretAt(e.getX(), e.getY());
+                } else {
+                    tabViewer.moveCaretTo(e.getX(), e.getY());
+                }
+            }
+
+            public void mouseDragged(MouseEvent e) {
+                if (columnStart != null) {
+                    tabViewer.selectColumn(columnStart.x, columnStart.y, e.getX(), e.getY());
+                }
             }
 
             public void mouseClicked(MouseEvent e) {
                 if (e.getClickCount() == 2) {
                     System.out.println("Double clicked");
-                    viewer.selectWord(e.getX(), e.getY());
+                    tabViewer.selectWord(e.getX(), e.getY());
                 }
             }
+        };
+        tabViewer.addMouseListener(mouse);
+        tabViewer.addMouseMotionListener(mouse);
+        tabViewer.addKeyListener(this);
+        // the scroll bar counts rows, so jumping anywhere in the document costs the same
+        tabViewer.scrollBar.addAdjustmentListener(e -> tabViewer.scrollTo(e.getValue()));
+        tabViewer.hScrollBar.addAdjustmentListener(e -> tabViewer.scrollToX(e.getValue()));
+        tabViewer.addMouseWheelListener(e -> {
+            if (e.isShiftDown()) {
+                tabViewer.scrollToX(tabViewer.scrollX + e.getUnitsToScroll() * tabViewer.glyphs().charWidth(' '));
+            } else {
+                tabViewer.scrollTo(tabViewer.firstRow + e.getUnitsToScroll());
+            }
         });
-        viewer.addKeyListener(this);
-        // set default font and size
-        text.setFont(new Font("Arial", Font.PLAIN, 12));
-        viewer.setFont(new Font("Arial", Font.PLAIN, 12));
-        fontComboBox.setSelectedItem("Arial");
-        fontSizeComboBox.setSelectedItem(12);
-        fontColorComboBox.setSelectedItem(Color.BLACK);
+        tabViewer.addComponentListener(new ComponentAdapter() {
+            public void componentResized(ComponentEvent e) {
+                tabViewer.documentChanged();
+            }
+        });
+        if (viewer != null) {
+            tabViewer.setFont(viewer.getFont());
+            tabText.setFont(viewer.getFont());
+            tabViewer.setFontColor(viewer.fontColor);
+        }
+        tabViewer.setWrap(wordWrapMenuItem.isSelected());
+        openTexts.add(tabText);
+        documents.add(tabText);
+        tabs.addTab(tabText.getName(), tabText.panel);
+        tabs.setSelectedComponent(tabText.panel);
+        return tabText;
+    }
+
+    // the tab being shown, for code that drives the editor without input events, such as the benchmarks
+    Text activeText() {
+        return text;
+    }
+
+    private void activate(Text next) {
+        if (next == text) {
+            return;
+        }
+        if (text != null) {
+            text.flushInput();
+            // images of hidden tabs are not kept
+            viewer.releaseTiles();
+        }
+        text = next;
+        viewer = next.viewer;
+        documents.touch(next);
+        if (next.isEvicted()) {
+            try {
+                load(next, new File(next.filePath));
+            } catch (IOException ex) {
+                JOptionPane.showMessageDialog(this, "Error reading file: " + ex.getMessage(), "File Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+        updateTitle();
+        followMenuItem.setSelected(next.follow);
+        boolean loading = next.loader != null;
+        progressBar.setVisible(loading);
+        cancelLoadButton.setVisible(loading);
+        statusLabel.setText(loading ? "Loading " + next.getName() : " ");
+        statusBar.revalidate();
+        viewer.requestFocusInWindow();
+    }
+
+    private void closeTab(Text closing) {
+        if (closing.isModified()) {
+            int choice = JOptionPane.showConfirmDialog(this, "Discard the changes to " + closing.getName() + "?", "Close", JOptionPane.YES_NO_OPTION);
+            if (choice != JOptionPane.YES_OPTION) {
+                return;
+            }
+        }
+        if (closing.loader != null) {
+            closing.loader.cancel();
+        }
+        closing.discardJournal();
+        closing.stopFollower();
+        closing.viewer.reset();
+        closing.viewer.releaseTiles();
+        documents.remove(closing);
+        int index = openTexts.indexOf(closing);
+        openTexts.remove(index);
+        if (closing == text) {
+            text = null;
+            viewer = null;
+        }
+        tabs.removeTabAt(index);
+        if (openTexts.isEmpty()) {
+            newTab();
+        }
+    }
+
+    private void updateTitle() {
+        setTitle(text.filePath == null ? "Java Text Editor" : "Java Text Editor - " + text.filePath + " (" + text.format + ")");
+    }
+
+    // the tab title shows the file name and whether there are unsaved changes
+    private void updateTabTitle(Text tabText) {
+        int index = openTexts.indexOf(tabText);
+        String title = tabText.isModified() ? tabText.getName() + " *" : tabText.getName();
+        if (index >= 0 && !title.equals(tabs.getTitleAt(index))) {
+            tabs.setTitleAt(index, title);
+        }
     }
 
     public void actionPerformed(ActionEvent e) {
+        text.flushInput();
         Object source = e.getSource();
-        if (source == openMenuItem) {
+        if (source == newMenuItem) {
+            newTab();
+        } else if (source == closeMenuItem) {
+            closeTab(text);
+        } else if (source == openMenuItem) {
             int returnVal = fileChooser.showOpenDialog(this);
             if (returnVal == JFileChooser.APPROVE_OPTION) {
                 File file = fileChooser.getSelectedFile();
                 try {
-                    BufferedReader reader = new BufferedReader(new FileReader(file));
-                    StringBuilder sb = new StringBuilder();
-                    String line = null;
-                    while ((line = reader.readLine()) != null) {
-                        sb.append(line).append("\n");
-                    }
-                    reader.close();
-                    text.setText(sb.toString());
-                    currentFilePath = file.getAbsolutePath();
-                    setTitle("Java Text Editor - " + currentFilePath);
+                    openFile(file);
                 } catch (IOException ex) {
                     JOptionPane.showMessageDialog(this, "Error reading file: " + ex.getMessage(), "File Error", JOptionPane.ERROR_MESSAGE);
                 }
             }
+        } else if (source == cancelLoadButton) {
+            if (text.loader != null) {
+                text.loader.cancel();
+            }
         } else if (source == saveMenuItem) {
-            if (currentFilePath == null) {
+            if (text.filePath == null) {
                 int returnVal = fileChooser.showSaveDialog(this);
                 if (returnVal == JFileChooser.APPROVE_OPTION) {
                     File file = fileChooser.getSelectedFile();
                     saveFile(file);
                 }
             } else {
-                saveFile(new File(currentFilePath));
+                saveFile(new File(text.filePath));
             }
         } else if (source == exitMenuItem) {
             System.exit(0);
+        } else if (source == undoMenuItem) {
+            text.undo();
+        } else if (source == redoMenuItem) {
+            text.redo();
         } else if (source == cutMenuItem) {
             text.cut();
         } else if (source == copyMenuItem) {
@@ -146,68 +385,555 @@ public class TextEditor extends JFrame implements ActionListener, KeyListener {
             text.paste();
         } else if (source == selectAllMenuItem) {
             text.selectAll();
+        } else if (source == completeWordMenuItem) {
+            completeWord();
         } else if (source == searchMenuItem) {
-            String searchText = JOptionPane.showInputDialog(this, "Search Text:");
-            if (searchText != null && searchText.length() > 0) {
-                System.out.println("Searching for: " + searchText);
-                int index = viewer.search(searchText);
-                if (index >= 0) {
-                    JOptionPane.showMessageDialog(this, "Text found at index: " + index, "Search", JOptionPane.INFORMATION_MESSAGE);
-                    viewer.select(index, index + searchText.length());
-                    viewer.caretColumn = index + searchText.length();
-                } else {
-                    JOptionPane.showMessageDialog(this, "Text not found: " + searchText, "Search", JOptionPane.INFORMATION_MESSAGE);
-                }
+            SearchQuery query = askSearchQuery("Search", false);
+            if (query != null) {
+                viewer.search(query);
             }
+        } else if (source == findNextMenuItem) {
+            viewer.findNext();
+        } else if (source == findAllMenuItem) {
+            SearchQuery query = askSearchQuery("Find All", false);
+            if (query != null) {
+                viewer.findAll(query);
+            }
+        } else if (source == replaceAllMenuItem) {
+            SearchQuery query = askSearchQuery("Replace All", true);
+            if (query != null) {
+                viewer.replaceAll(query, replaceField.getText());
+            }
+        } else if (source == matchBracketMenuItem) {
+            viewer.goToMatchingBracket();
+        } else if (source == outlineMenuItem) {
+            showOutline();
+        } else if (source == goToLineMenuItem) {
+            goToLine();
+        } else if (source == foldMenuItem) {
+            viewer.foldAtCaret();
+        } else if (source == unfoldMenuItem) {
+            viewer.unfoldAtCaret();
+        } else if (source == unfoldAllMenuItem) {
+            viewer.unfoldAll();
+        } else if (source == wordWrapMenuItem) {
+            for (Text tabText : openTexts) {
+                tabText.viewer.setWrap(wordWrapMenuItem.isSelected());
+            }
+        } else if (source == followMenuItem) {
+            text.setFollow(followMenuItem.isSelected());
+            followMenuItem.setSelected(text.follow);
+        } else if (source == hudMenuItem) {
+            showHud(hudMenuItem.isSelected());
         } else if (source == fontComboBox) {
             String fontFamily = (String) fontComboBox.getSelectedItem();
             Font font = viewer.getFont().deriveFont(Font.PLAIN);
             font = new Font(fontFamily, font.getStyle(), font.getSize());
-            viewer.setFont(font);
-            text.setFont(font);
+            setEditorFont(font);
         } else if (source == fontSizeComboBox) {
             int fontSize = (int) fontSizeComboBox.getSelectedItem();
             Font font = viewer.getFont().deriveFont(Font.PLAIN);
             font = new Font(font.getFontName(), font.getStyle(), fontSize);
-            viewer.setFont(font);
-            text.setFont(font);
+            setEditorFont(font);
         } else if (source == fontColorComboBox) {
             Color newColor = (Color) fontColorComboBox.getSelectedItem();
             Font font = viewer.getFont().deriveFont(Font.PLAIN);
             font = new Font(font.getFontName(), font.getStyle(), font.getSize());
-            viewer.setFont(font);
-            text.setFont(font);
-            viewer.setFontColor(newColor);
+            setEditorFont(font);
+            for (Text tabText : openTexts) {
+                tabText.viewer.setFontColor(newColor);
+            }
+        }
+    }
 
+    // every tab shares the font, so they share the glyph width cache too
+    private void setEditorFont(Font font) {
+        for (Text tabText : openTexts) {
+            tabText.viewer.setFont(font);
+            tabText.setFont(font);
         }
     }
 
-    private void saveFile(File file) {
+    // null when the dialog was cancelled or the query is empty or invalid
+    private SearchQuery askSearchQuery(String title, boolean replace) {
+        JPanel searchPanel = new JPanel(new GridLayout(0, 1));
+        searchPanel.add(new JLabel("Search Text:"));
+        searchPanel.add(searchField);
+        if (replace) {
+            searchPanel.add(new JLabel("Replace With:"));
+            searchPanel.add(replaceField);
+        }
+        searchPanel.add(regexCheckBox);
+        searchPanel.add(matchCaseCheckBox);
+        int choice = JOptionPane.showConfirmDialog(this, searchPanel, title, JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        String searchText = searchField.getText();
+        if (choice != JOptionPane.OK_OPTION || searchText.length() == 0) {
+            return null;
+        }
         try {
-            BufferedWriter writer = new BufferedWriter(new FileWriter(file));
-            writer.write(text.getText());
-            writer.close();
-            currentFilePath = file.getAbsolutePath();
-            setTitle("Java Text Editor - " + currentFilePath);
-        } catch (IOException ex) {
-            JOptionPane.showMessageDialog(this, "Error writing file: " + ex.getMessage(), "File Error", JOptionPane.ERROR_MESSAGE);
+            return new SearchQuery(searchText, regexCheckBox.isSelected(), !matchCaseCheckBox.isSelected());
+        } catch (PatternSyntaxException ex) {
+            JOptionPane.showMessageDialog(this, ex.getMessage(), title, JOptionPane.ERROR_MESSAGE);
+            return null;
+        }
+    }
+
+    // opens the file in the current tab when that is an untouched new one, otherwise in a new tab
+    private void openFile(File file) throws IOException {
+        Text target = text.filePath == null && text.loader == null && !text.isModified() ? text : newTab();
+        load(target, file);
+    }
+
+    // the file is read on a background thread; the viewer paints whatever has arrived so far
+    private void load(Text target, File file) throws IOException {
+        if (target.loader != null) {
+            target.loader.cancel();
+        }
+        FileLoader fileLoader = new FileLoader(file, TextFormat.detect(file.toPath()));
+        target.loader = fileLoader;
+        target.setSource(fileLoader.getSource());
+        target.setFormat(fileLoader.getFormat());
+        target.highlighter.setLexer(TokenStyle.lexerFor(file.getName()));
+        target.structure.setMarkup(StructureIndex.isMarkup(file.getName()));
+        target.filePath = file.getAbsolutePath();
+        target.diskSize = file.length();
+        target.diskModified = file.lastModified();
+        target.partial = false;
+        updateTabTitle(target);
+        if (target == text) {
+            updateTitle();
+            statusLabel.setText("Loading " + file.getName());
+            progressBar.setValue(0);
+            progressBar.setVisible(true);
+            cancelLoadButton.setVisible(true);
+            statusBar.revalidate();
+        }
+        fileLoader.start(new FileLoader.Listener() {
+            public void loaded(long bytesRead, long fileSize) {
+                if (target.loader == fileLoader) {
+                    target.sourceGrew();
+                    if (target == text) {
+                        progressBar.setValue(fileSize == 0 ? 1000 : (int) (bytesRead * 1000 / fileSize));
+                        statusLabel.setText("Loading " + file.getName() + " - " + text.getLineCount() + " lines");
+                    }
+                }
+            }
+
+            public void finished(boolean cancelled) {
+                if (target.loader == fileLoader) {
+                    target.loader = null;
+                    target.sourceGrew();
+                    target.restoreView();
+                    if (!cancelled) {
+                        recover(target, file);
+                        target.fileBytes = fileLoader.getBytesRead();
+                        if (target.follow) {
+                            target.startFollower();
+                        }
+                    }
+                    if (cancelled) {
+                        // only part of the file is in the document, so saving must not overwrite it
+                        target.filePath = null;
+                        target.partial = true;
+                        target.follow = false;
+                        if (target == text) {
+                            followMenuItem.setSelected(false);
+                        }
+                        updateTabTitle(target);
+                    }
+                    if (target == text) {
+                        progressBar.setVisible(false);
+                        cancelLoadButton.setVisible(false);
+                        updateTitle();
+                        if (cancelled) {
+                            setTitle("Java Text Editor - " + file.getName() + " (partial)");
+                            statusLabel.setText("Loading cancelled - " + text.getLineCount() + " lines");
+                        } else {
+                            statusLabel.setText(text.getLineCount() + " lines");
+                        }
+                    }
+                    documents.trim();
+                }
+            }
+
+            public void failed(IOException e) {
+                if (target.loader == fileLoader) {
+                    target.loader = null;
+                    if (target == text) {
+                        progressBar.setVisible(false);
+                        cancelLoadButton.setVisible(false);
+                        statusLabel.setText(" ");
+                    }
+                    JOptionPane.showMessageDialog(TextEditor.this, "Error reading file: " + e.getMessage(), "File Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        });
+    }
+
+    // a journal left next to the file holds changes that were never saved; they are replayed on request
+    private void recover(Text target, File file) {
+        Path journalPath = EditJournal.pathFor(file.toPath());
+        if (!Files.exists(journalPath)) {
+            return;
+        }
+        long diskSize = target.diskSize;
+        long diskModified = target.diskModified;
+        Workers.io().execute(() -> {
+            List<EditJournal.Splice> splices;
+            try {
+                splices = EditJournal.read(journalPath, diskSize, diskModified);
+            } catch (IOException e) {
+                splices = null;
+            }
+            List<EditJournal.Splice> found = splices;
+            SwingUtilities.invokeLater(() -> {
+                if (!file.getAbsolutePath().equals(target.filePath) || target.getEditCount() != 0) {
+                    return;
+                }
+                if (found == null || found.isEmpty()) {
+                    // written against another version of the file, or before any change reached the disk
+                    try {
+                        Files.deleteIfExists(journalPath);
+                    } catch (IOException e) {
+                        // tried again the next time the file is opened
+                    }
+                    return;
+                }
+                int choice = JOptionPane.showConfirmDialog(this, file.getName() + " has " + found.size() + " unsaved changes from an earlier session. Recover them?", "Recover", JOptionPane.YES_NO_OPTION);
+                if (choice == JOptionPane.YES_OPTION) {
+                    target.replay(found);
+                } else {
+                    target.discardJournal();
+                    try {
+                        Files.deleteIfExists(journalPath);
+                    } catch (IOException e) {
+                        // tried again the next time the file is opened
+                    }
+                }
+            });
+        });
+    }
+
+    // the document's pieces are captured here and written on a background thread
+    private void saveFile(File file) {
+        if (text.loader != null) {
+            JOptionPane.showMessageDialog(this, "The file is still loading.", "File Error", JOptionPane.ERROR_MESSAGE);
+            return;
         }
+        Text target = text;
+        int editCount = target.getEditCount();
+        List<Segment> snapshot = target.snapshot();
+        target.journalSaving(file);
+        statusLabel.setText("Saving " + file.getName());
+        FileSaver saver = new FileSaver(file.toPath(), target.format, snapshot);
+        saver.start(new FileSaver.Listener() {
+            public void saved(Path path) {
+                target.filePath = path.toString();
+                target.partial = false;
+                target.highlighter.setLexer(TokenStyle.lexerFor(path.getFileName().toString()));
+                target.structure.setMarkup(StructureIndex.isMarkup(path.getFileName().toString()));
+                target.core.setSaved(editCount);
+                target.journalSaved(path.toFile(), editCount);
+                target.fileBytes = path.toFile().length();
+                if (target.follow) {
+                    // the saved file replaced the one being followed
+                    target.startFollower();
+                }
+                updateTabTitle(target);
+                if (target == text) {
+                    updateTitle();
+                    statusLabel.setText("Saved " + file.getName());
+                }
+            }
+
+            public void failed(IOException e) {
+                target.savingJournal = null;
+                if (target == text) {
+                    statusLabel.setText(" ");
+                }
+                JOptionPane.showMessageDialog(TextEditor.this, "Error writing file: " + e.getMessage(), "File Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
     }
 
+    // files named on the command line are opened, and recovered when a journal of unsaved changes is found
     public static void main(String[] args) {
         TextEditor editor = new TextEditor();
         editor.setVisible(true);
+        for (String arg : args) {
+            try {
+                editor.openFile(new File(arg));
+            } catch (IOException e) {
+                JOptionPane.showMessageDialog(editor, "Error reading file: " + e.getMessage(), "File Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
+    // the HUD records while shown; hidden, metrics are only recorded when -Deditor.metrics=true asked for them
+    private void showHud(boolean show) {
+        Metrics.setEnabled(show || Boolean.getBoolean("editor.metrics"));
+        if (show) {
+            watchdog.start();
+            hudTimer.start();
+        } else {
+            hudTimer.stop();
+        }
+        viewer.repaint();
+    }
+
+    // one row per operation: count, median, 99th percentile, maximum and bytes allocated per operation
+    private List<String> hudRows() {
+        List<String> rows = new ArrayList<>();
+        rows.add(String.format("%-12s %7s %8s %8s %8s %9s", "", "count", "p50", "p99", "max", "alloc/op"));
+        for (Metrics.Op op : Metrics.Op.values()) {
+            LatencyHistogram histogram = Metrics.getHistogram(op);
+            rows.add(String.format("%-12s %7d %8s %8s %8s %9s", op.getLabel(), histogram.getCount(),
+                    formatNanos(histogram.getPercentile(0.5)), formatNanos(histogram.getPercentile(0.99)),
+                    formatNanos(histogram.getMax()), formatBytes(Metrics.getBytesPerOperation(op))));
+        }
+        String stall = watchdog.getLastStall();
+        rows.add("last stall: " + (stall == null ? "none" : stall));
+        return rows;
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 1_000_000) {
+            return nanos / 1000 + "us";
+        } else if (nanos < 1_000_000_000) {
+            return String.format("%.1fms", nanos / 1e6);
+        }
+        return String.format("%.2fs", nanos / 1e9);
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + "B";
+        } else if (bytes < 1 << 20) {
+            return bytes / 1024 + "KB";
+        }
+        return bytes / (1 << 20) + "MB";
+    }
+
+    // the structures of the text as a tree whose levels are listed as they are expanded; choosing one moves the caret there
+    private void showOutline() {
+        Text target = text;
+        StructureIndex structure = target.structure;
+        if (!structure.isReady()) {
+            statusLabel.setText("The outline is not ready yet");
+            return;
+        }
+        DefaultMutableTreeNode root = new DefaultMutableTreeNode(target.getName());
+        addOutlineNodes(target, root, structure.size() > 0 && structure.getKind(0) > 0 ? 0 : -1);
+        DefaultTreeModel model = new DefaultTreeModel(root);
+        JTree tree = new JTree(model);
+        tree.setToggleClickCount(0);
+        tree.addTreeWillExpandListener(new TreeWillExpandListener() {
+            public void treeWillExpand(TreeExpansionEvent e) {
+                DefaultMutableTreeNode node = (DefaultMutableTreeNode) e.getPath().getLastPathComponent();
+                if (node.getChildCount() == 1 && ((DefaultMutableTreeNode) node.getFirstChild()).getUserObject() == null) {
+                    // the placeholder makes the node expandable until its children are listed
+                    node.removeAllChildren();
+                    addOutlineNodes(target, node, structure.getFirstChild(((OutlineEntry) node.getUserObject()).index));
+                    model.nodeStructureChanged(node);
+                }
+            }
+
+            public void treeWillCollapse(TreeExpansionEvent e) {
+            }
+        });
+        JDialog dialog = new JDialog(this, "Outline", true);
+        Runnable jump = () -> {
+            DefaultMutableTreeNode node = (DefaultMutableTreeNode) tree.getLastSelectedPathComponent();
+            if (node != null && node.getUserObject() instanceof OutlineEntry) {
+                dialog.dispose();
+                target.setCaretPosition(((OutlineEntry) node.getUserObject()).offset);
+                target.viewer.requestFocusInWindow();
+            }
+        };
+        tree.addMouseListener(new MouseAdapter() {
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    jump.run();
+                }
+            }
+        });
+        tree.addKeyListener(new KeyAdapter() {
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_ENTER) {
+                    jump.run();
+                }
+            }
+        });
+        dialog.add(new JScrollPane(tree));
+        dialog.setSize(450, 550);
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+
+    // the structure starting at entry first and the ones following it at the same depth
+    private void addOutlineNodes(Text target, DefaultMutableTreeNode parent, int first) {
+        StructureIndex structure = target.structure;
+        int count = 0;
+        for (int i = first; i >= 0; i = structure.getNextSibling(i)) {
+            if (count++ == OUTLINE_CHILDREN) {
+                parent.add(new DefaultMutableTreeNode("..."));
+                return;
+            }
+            long offset = structure.getOffset(i);
+            DefaultMutableTreeNode node = new DefaultMutableTreeNode(new OutlineEntry(i, offset, outlineLabel(target, offset)));
+            if (structure.getFirstChild(i) >= 0) {
+                node.add(new DefaultMutableTreeNode());
+            }
+            parent.add(node);
+        }
+    }
+
+    // the text around where a structure opens, on its line
+    private static String outlineLabel(Text target, long offset) {
+        int line = target.getLineOfOffset(offset);
+        long from = Math.max(target.getLineStart(line), offset - 40);
+        long to = Math.min(target.getLineEnd(line), offset + 40);
+        return target.core.getText(from, to).trim().replaceAll("\\s+", " ") + "    line " + (line + 1);
+    }
+
+    // a structure listed in the outline
+    private static final class OutlineEntry {
+        private final int index;
+        private final long offset;
+        private final String label;
+
+        OutlineEntry(int index, long offset, String label) {
+            this.index = index;
+            this.offset = offset;
+            this.label = label;
+        }
+
+        public String toString() {
+            return label;
+        }
+    }
+
+    // moves the caret to a line, to line:column, or to a char offset given as #offset
+    private void goToLine() {
+        Text target = text;
+        String input = JOptionPane.showInputDialog(this, "Line (1 to " + target.getLineCount() + "), line:column or #offset", "Go to Line", JOptionPane.PLAIN_MESSAGE);
+        if (input == null || input.isBlank()) {
+            return;
+        }
+        input = input.trim();
+        try {
+            long position;
+            if (input.startsWith("#")) {
+                position = Math.min(Long.parseLong(input.substring(1).trim()), target.getLength());
+            } else {
+                int colon = input.indexOf(':');
+                long line = Long.parseLong(colon < 0 ? input : input.substring(0, colon).trim());
+                long column = colon < 0 ? 1 : Long.parseLong(input.substring(colon + 1).trim());
+                int index = (int) Math.max(0, Math.min(target.getLineCount() - 1L, line - 1));
+                position = Math.min(target.getLineEnd(index), target.getLineStart(index) + Math.max(0, column - 1));
+            }
+            target.setCaretPosition(Math.max(0, position));
+            target.viewer.requestFocusInWindow();
+        } catch (NumberFormatException e) {
+            statusLabel.setText("Not a line or offset: " + input);
+        }
+    }
+
+    // offers the words of the text that start with the word before the caret; one that fits alone is typed right away
+    private void completeWord() {
+        Text target = text;
+        target.flushInput();
+        long caret = target.getCaretPosition();
+        long lineStart = target.getLineStart(target.getLineOfOffset(caret));
+        String before = target.core.getText(Math.max(lineStart, caret - WordIndex.MAX_WORD), caret);
+        int start = before.length();
+        while (start > 0 && WordIndex.isWordChar(before.charAt(start - 1))) {
+            start--;
+        }
+        String prefix = before.substring(start);
+        if (prefix.isEmpty() || Character.isDigit(prefix.charAt(0))) {
+            statusLabel.setText("No word before the caret to complete");
+            return;
+        }
+        String[] words = target.words.complete(prefix, COMPLETIONS);
+        if (words.length == 0) {
+            statusLabel.setText("No completions for " + prefix + (target.words.isReady() ? "" : " yet"));
+            return;
+        }
+        if (words.length == 1) {
+            target.core.type(words[0].substring(prefix.length()));
+            return;
+        }
+        JList<String> list = new JList<>(words);
+        list.setSelectedIndex(0);
+        JWindow popup = new JWindow(this);
+        Runnable choose = () -> {
+            String word = list.getSelectedValue();
+            popup.dispose();
+            target.viewer.requestFocusInWindow();
+            if (word != null && target.getCaretPosition() == caret) {
+                target.core.type(word.substring(prefix.length()));
+            }
+        };
+        list.addKeyListener(new KeyAdapter() {
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_ENTER || e.getKeyCode() == KeyEvent.VK_TAB) {
+                    choose.run();
+                } else if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
+                    popup.dispose();
+                    target.viewer.requestFocusInWindow();
+                }
+            }
+        });
+        list.addMouseListener(new MouseAdapter() {
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    choose.run();
+                }
+            }
+        });
+        popup.addWindowFocusListener(new WindowAdapter() {
+            public void windowLostFocus(WindowEvent e) {
+                popup.dispose();
+            }
+        });
+        list.setFocusTraversalKeysEnabled(false);
+        list.setVisibleRowCount(Math.min(words.length, 10));
+        popup.add(new JScrollPane(list));
+        popup.pack();
+        Point point = target.viewer.getCaretPoint();
+        SwingUtilities.convertPointToScreen(point, target.viewer);
+        popup.setLocation(point);
+        popup.setVisible(true);
+        list.requestFocusInWindow();
     }
 
     @Override
     public void keyTyped(KeyEvent e) {
-        // add
+        Metrics.keyHandled(e.getWhen());
+        if (isTypedChar(e)) {
+            text.type(e.getKeyChar());
+        }
+    }
+
+    // chars that are inserted as typed; control keys and shortcuts are handled in keyPressed
+    private static boolean isTypedChar(KeyEvent e) {
+        char c = e.getKeyChar();
+        if (c == KeyEvent.CHAR_UNDEFINED || e.isMetaDown() || e.isControlDown() && !e.isAltDown()) {
+            return false;
+        }
+        return c >= ' ' && c != '\u007f' || c == '\n' || c == '\t';
     }
 
     @Override
     public void keyPressed(KeyEvent e) {
+        Metrics.keyHandled(e.getWhen());
         int keyCode = e.getKeyCode();
         int modifiers = e.getModifiers();
+        // anything but plain typing sees the document with the pending chars already in it
+        if (!isTypedChar(e)) {
+            text.flushInput();
+        }
 
         // handle arrow keys
         if (keyCode == KeyEvent.VK_LEFT) {
@@ -222,19 +948,42 @@ public class TextEditor extends JFrame implements ActionListener, KeyListener {
             } else {
                 text.moveCaretForward();
             }
+        } else if (keyCode == KeyEvent.VK_UP && modifiers == (KeyEvent.CTRL_MASK | KeyEvent.ALT_MASK)) {
+            text.addCaretLines(-1);
+        } else if (keyCode == KeyEvent.VK_DOWN && modifiers == (KeyEvent.CTRL_MASK | KeyEvent.ALT_MASK)) {
+            text.addCaretLines(1);
         } else if (keyCode == KeyEvent.VK_UP) {
             text.moveCaretUp();
         } else if (keyCode == KeyEvent.VK_DOWN) {
             text.moveCaretDown();
+        } else if (keyCode == KeyEvent.VK_ESCAPE) {
+            text.core.clearExtraCarets();
+        } else if (keyCode == KeyEvent.VK_PAGE_UP) {
+            text.moveCaretLines(-viewer.getVisibleLines());
+        } else if (keyCode == KeyEvent.VK_PAGE_DOWN) {
+            text.moveCaretLines(viewer.getVisibleLines());
         } else if (keyCode == KeyEvent.VK_BACK_SPACE) {
             text.deleteBackward();
         } else if (keyCode == KeyEvent.VK_DELETE) {
             System.out.println("delete");
             text.deleteForward();
-        } else if (keyCode == KeyEvent.VK_ENTER) {
-            text.insert("\n", text.getCaretPosition());
-        } else if (keyCode == KeyEvent.VK_TAB) {
-            text.insert("\t", text.getCaretPosition());
+        } else if (keyCode == KeyEvent.VK_CLOSE_BRACKET && modifiers == KeyEvent.CTRL_MASK) {
+            viewer.goToMatchingBracket();
+        } else if (keyCode == KeyEvent.VK_OPEN_BRACKET && modifiers == (KeyEvent.CTRL_MASK | KeyEvent.SHIFT_MASK)) {
+            viewer.foldAtCaret();
+        } else if (keyCode == KeyEvent.VK_CLOSE_BRACKET && modifiers == (KeyEvent.CTRL_MASK | KeyEvent.SHIFT_MASK)) {
+            viewer.unfoldAtCaret();
+        } else if (keyCode == KeyEvent.VK_G && modifiers == KeyEvent.CTRL_MASK) {
+            goToLine();
+        } else if (keyCode == KeyEvent.VK_SPACE && modifiers == KeyEvent.CTRL_MASK) {
+            completeWord();
+        } else if (keyCode == KeyEvent.VK_F3) {
+            viewer.findNext();
+        } else if (keyCode == KeyEvent.VK_Z && modifiers == KeyEvent.CTRL_MASK) {
+            text.undo();
+        } else if (keyCode == KeyEvent.VK_Y && modifiers == KeyEvent.CTRL_MASK
+                || keyCode == KeyEvent.VK_Z && modifiers == (KeyEvent.CTRL_MASK | KeyEvent.SHIFT_MASK)) {
+            text.redo();
         } else if (keyCode == KeyEvent.VK_A && modifiers == KeyEvent.CTRL_MASK) {
             text.selectAll();
         } else if (keyCode == KeyEvent.VK_X && modifiers == KeyEvent.CTRL_MASK) {
@@ -244,14 +993,6 @@ public class TextEditor extends JFrame implements ActionListener, KeyListener {
         } else if (keyCode == KeyEvent.VK_V && modifiers == KeyEvent.CTRL_MASK) {
             text.paste();
         }
-
-        // handle text input
-        if (keyCode != KeyEvent.VK_LEFT && keyCode != KeyEvent.VK_RIGHT && keyCode != KeyEvent.VK_UP && keyCode != KeyEvent.VK_DOWN && !e.isActionKey()) {
-            char c = e.getKeyChar();
-            if (c != KeyEvent.CHAR_UNDEFINED) {
-                text.insert(String.valueOf(c), text.getCaretPosition());
-            }
-        }
     }
 
     @Override
@@ -260,214 +1001,1384 @@ public class TextEditor extends JFrame implements ActionListener, KeyListener {
     }
 
     class Viewer extends Canvas {
-        private int firstLine = 0;
+        private static final int[] ONE_ROW = {0};
+        private static final Color BRACKET_COLOR = new Color(200, 225, 255);
+        private static final Color OCCURRENCE_COLOR = new Color(225, 240, 210);
+        // before the word index is ready, the occurrences of a word are only looked for in this many chars
+        private static final long OCCURRENCE_CHARS = 16L << 20;
+        // the caret rests this long on a word before its occurrences are looked for
+        private static final int OCCURRENCE_DELAY = 150;
+        // brackets on a line looked at for a structure to fold
+        private static final int FOLD_SCAN = 256;
+        private final Text text;
+        private final JScrollBar scrollBar;
+        private final JScrollBar hScrollBar;
+        // pixels scrolled to the right; always 0 with word wrap
+        private int scrollX;
+        // with word wrap a line takes one row per wrapped piece, otherwise rows and lines are the same
+        private int firstRow = 0;
+        private boolean wrap;
+        // kept for every line, wrapped or not, as folded lines take no rows
+        private final WrapIndex wrapIndex = new WrapIndex();
+        private final Folds folds = new Folds();
+        // the bracket or tag at the caret and the one matching it, -1 when there is none
+        private long bracketStart = -1;
+        private long bracketEnd;
+        private long matchStart = -1;
+        private long matchEnd;
+        private boolean bracketMismatch;
+        // the word at the caret and where else it stands on its own, found in the background
+        private String occurrenceWord;
+        private SearchResult occurrences;
+        private final Timer occurrenceTimer;
+        private final SearchEngine.Listener occurrenceListener = new SearchEngine.Listener() {
+            public void matchesFound(SearchResult result) {
+            }
+
+            public void finished(SearchResult result) {
+                if (result == occurrences) {
+                    tiles.invalidateAll();
+                    repaint();
+                }
+            }
+        };
         private int lineHeight;
-        private int caretLine = 0;
-        private int caretColumn = 0;
-        private int selectionStart = -1;
-        private int selectionEnd = -1;
         private boolean mousePressed = false;
         private Color fontColor = Color.BLACK;
+        private final LineCache lineCache = new LineCache();
+        private final LongLines longLines = new LongLines();
+        private final LineTiles tiles = new LineTiles(this, (g, first, count) -> paintRows(g, first, Math.min(getRowCount(), first + count) - 1, first));
+        private SearchQuery searchQuery;
+        private SearchResult searchResult;
+        // find next is waiting for the search thread to reach a match past the caret
+        private boolean findPending;
+        // the height of the HUD as last painted; 0 until it is shown
+        private int hudHeight;
+        private final Timer searchAgainTimer;
+        private final SearchEngine.Listener searchListener = new SearchEngine.Listener() {
+            public void matchesFound(SearchResult result) {
+                matchesChanged(result);
+            }
 
-        public Viewer() {
+            public void finished(SearchResult result) {
+                matchesChanged(result);
+            }
+        };
+
+        public Viewer(Text text, JScrollBar scrollBar, JScrollBar hScrollBar) {
+            this.text = text;
+            this.scrollBar = scrollBar;
+            this.hScrollBar = hScrollBar;
             setBackground(Color.WHITE);
             setPreferredSize(new Dimension(500, 500));
             Font font = getFont();
             lineHeight = 12; //getFontMetrics(new Font()).getHeight();
+            searchAgainTimer = new Timer(300, e -> {
+                if (searchQuery != null) {
+                    startSearch(searchQuery);
+                }
+            });
+            searchAgainTimer.setRepeats(false);
+            occurrenceTimer = new Timer(OCCURRENCE_DELAY, e -> findOccurrences());
+            occurrenceTimer.setRepeats(false);
         }
 
         public void paint(Graphics g) {
-            g.setColor(getBackground());
-            g.fillRect(5, 0, getWidth(), getHeight());
-
-            g.setColor(fontColor);// cha
-            FontMetrics fm = getFontMetrics(getFont());
-            int y = fm.getAscent();
-            int x = 0;
-            int lineCount = getLineCount();
-            for (int i = firstLine; i < lineCount; i++) {
-                String line = getLine(i);
-                if (line != null) {
-                    g.drawString(line, x, y);
-                }
-                y += lineHeight;
-                if (y > getHeight()) {
-                    break;
-                }
+            Metrics.Sample sample = Metrics.start();
+            Rectangle clip = g.getClipBounds();
+            if (clip == null) {
+                clip = new Rectangle(0, 0, getWidth(), getHeight());
+            }
+            layoutRows(firstRow, firstRow + getVisibleLines());
+            // only the rows inside the damaged area are fetched and drawn
+            int from = firstRow + Math.max(0, clip.y) / lineHeight;
+            int to = Math.min(getRowCount() - 1, firstRow + (clip.y + clip.height - 1) / lineHeight);
+            updateHorizontalExtent();
+            if (!tiles.paint(g, clip, firstRow, lineHeight)) {
+                g.setColor(getBackground());
+                g.fillRect(clip.x, clip.y, clip.width, clip.height);
+                paintRows(g, from, to, firstRow);
             }
 
             // draw caret
-            int caretX = getCaretX();
-            int caretY = (caretLine - firstLine) * lineHeight;
-            g.setColor(Color.BLACK);
-            g.drawLine(caretX, caretY, caretX, caretY + lineHeight);
-
-            // draw selection behind text
-            if (selectionStart >= 0 && selectionEnd >= 0) {
-                int startLine = getLineOfOffset(selectionStart);
-                int startColumn = selectionStart - getLineStart(startLine);
-                int startX = getColumnX(startLine, startColumn);
-                int startY = (startLine - firstLine) * lineHeight;
-
-                int endLine = getLineOfOffset(selectionEnd);
-                int endColumn = selectionEnd - getLineStart(endLine);
-                int endX = getColumnX(endLine, endColumn);
-                int endY = (endLine - firstLine) * lineHeight;
-
-                g.setColor(Color.LIGHT_GRAY);
-                if (startLine == endLine) {
-                    g.fillRect(startX, startY, endX - startX, lineHeight);
-                } else {
-                    for (int i = startLine + 1; i < endLine; i++) {
-                        g.fillRect(0, (i - firstLine) * lineHeight, getWidth(), lineHeight);
-                    }
-                    g.fillRect(0, endY, endX, lineHeight);
+            int caretRow = getCaretRow();
+            if (caretRow >= from && caretRow <= to) {
+                int caretX = getCaretX() - scrollX;
+                int caretY = (caretRow - firstRow) * lineHeight;
+                g.setColor(Color.BLACK);
+                g.drawLine(caretX, caretY, caretX, caretY + lineHeight);
+            }
+            paintExtraCarets(g, from, to);
+            Metrics.stop(Metrics.Op.PAINT, sample);
+            Metrics.painted();
+            if (hudMenuItem.isSelected()) {
+                paintHud(g);
+            }
+        }
 
+        // only the carets on rows from..to are looked at, however many there are
+        private void paintExtraCarets(Graphics g, int from, int to) {
+            EditorCore core = text.core;
+            if (core.getExtraCaretCount() == 0 || from > to) {
+                return;
+            }
+            long end = getLineEnd(getLineOfRow(to));
+            g.setColor(Color.BLACK);
+            for (int i = core.extraCaretAfter(getLineStart(getLineOfRow(from))); i < core.getExtraCaretCount() && core.getExtraCaretEnd(i) <= end; i++) {
+                long position = core.getExtraCaretEnd(i);
+                int line = getLineOfOffset(position);
+                int column = (int) (position - getLineStart(line));
+                int row = getRowOfLine(line) + getRowInLine(getRowStarts(line), column);
+                if (row >= from && row <= to && !isHidden(line)) {
+                    int x = getColumnX(line, column) - scrollX;
+                    int y = (row - firstRow) * lineHeight;
+                    g.drawLine(x, y, x, y + lineHeight);
                 }
+            }
+        }
 
+        // the performance HUD in the top right corner, over the text
+        private void paintHud(Graphics g) {
+            List<String> rows = hudRows();
+            FontMetrics metrics = g.getFontMetrics(HUD_FONT);
+            int width = 0;
+            for (String row : rows) {
+                width = Math.max(width, metrics.stringWidth(row));
             }
+            int x = Math.max(0, getWidth() - width - 16);
+            g.setColor(new Color(0, 0, 0, 190));
+            g.fillRect(x, 4, width + 8, rows.size() * metrics.getHeight() + 8);
+            g.setColor(Color.WHITE);
+            g.setFont(HUD_FONT);
+            int y = 8 + metrics.getAscent();
+            for (String row : rows) {
+                g.drawString(row, x + 4, y);
+                y += metrics.getHeight();
+            }
+            hudHeight = rows.size() * metrics.getHeight() + 12;
+        }
+
+        // the strip the HUD is drawn in, which is wide enough whatever the numbers' widths
+        public void repaintHud() {
+            repaint(0, 0, getWidth(), hudHeight);
         }
 
-        private int getColumnX(int startLine, int startColumn) {
-            String line = getLine(startLine);
-            int x = 0;
-            for (int i = 0; i < startColumn; i++) {
-                x += getFontMetrics(getFont()).charWidth(line.charAt(i));
+        // paints rows from..to with row top at y = 0
+        private void paintRows(Graphics g, int from, int to, int top) {
+            if (from > to) {
+                return;
+            }
+            layoutRows(from, to);
+            int fromLine = getLineOfRow(from);
+            int toLine = getLineOfRow(to);
+            // the first line may have started on a row above
+            int y = (getRowOfLine(fromLine) - top) * lineHeight;
+            g.translate(-scrollX, 0);
+
+            // draw matches and selection behind text
+            paintOccurrences(g, fromLine, toLine, y);
+            paintMatches(g, fromLine, toLine, y);
+            paintSelection(g, fromLine, toLine, y);
+            paintBrackets(g, fromLine, toLine, y);
+
+            int ascent = getFontMetrics(getFont()).getAscent();
+            for (int i = fromLine; i <= toLine; i = nextLine(i)) {
+                int[] starts = getRowStarts(i);
+                paintLine(g, i, starts, y, ascent);
+                if (folds.indexOf(i) >= 0) {
+                    paintFoldMarker(g, i, starts, y, ascent);
+                }
+                y += starts.length * lineHeight;
             }
-            return x;
+            g.translate(scrollX, 0);
         }
 
-        private int getLineOfOffset(int selectionStart) {
-            int lineCount = getLineCount();
-            for (int i = 0; i < lineCount; i++) {
-                int start = getLineStart(i);
-                int end = start + getLine(i).length();
-                if (selectionStart >= start && selectionStart <= end) {
-                    return i;
+        // y is the top of the line's first row
+        private void paintLine(Graphics g, int line, int[] starts, int y, int ascent) {
+            CharSequence lineText = getLineChars(line);
+            boolean longLine = lineText instanceof LineChars;
+            // a long line would have to be lexed whole, so it is drawn plain
+            int[] spans = longLine ? null : text.highlighter.getSpans(line, lineText);
+            Rectangle clip = g.getClipBounds();
+            for (int r = 0; r < starts.length; r++) {
+                int rowY = y + r * lineHeight;
+                if (clip != null && (rowY + lineHeight <= clip.y || rowY >= clip.y + clip.height)) {
+                    continue;
+                }
+                int from = starts[r];
+                int to = r + 1 < starts.length ? starts[r + 1] : lineText.length();
+                int x = 0;
+                if (longLine && !wrap) {
+                    // only the columns between the scroll position and the right edge are read
+                    LineChars chars = (LineChars) lineText;
+                    from = Math.max(from, longLines.getColumn(chars, line, scrollX, glyphs()) - 1);
+                    to = Math.min(to, longLines.getColumn(chars, line, scrollX + getWidth(), glyphs()) + 1);
+                    x = longLines.getX(chars, line, from, glyphs());
                 }
+                paintColumns(g, lineText, spans, from, to, x, rowY + ascent);
             }
-            return -1;
         }
 
-        public void select(int x, int y) {
-            selectionStart = x;
-            selectionEnd = y;
-            repaint();
+        // a box after the last row of a fold's header standing for the lines it hides
+        private void paintFoldMarker(Graphics g, int line, int[] starts, int y, int ascent) {
+            int x = getRowX(line, starts[starts.length - 1], getLineLength(line) + 1);
+            int rowY = y + (starts.length - 1) * lineHeight;
+            int width = glyphs().width("...", 0, 3) + 4;
+            g.setColor(Color.GRAY);
+            g.drawRect(x, rowY + 1, width, lineHeight - 3);
+            g.drawString("...", x + 2, rowY + ascent);
         }
 
-        public void selectWord(int x, int y) {
-            int line = firstLine + y / lineHeight;
-            int column = getColumn(line, x);
-            int start = getLineStart(line) + column;
-            int end = start;
-            String lineText = getLineText(line);
-            while (start > 0 && Character.isLetterOrDigit(lineText.charAt(start - 1))) {
-                start--;
+        // draws columns from..to starting at x, tokens in their colors and the text between them in the font color
+        private void paintColumns(Graphics g, CharSequence lineText, int[] spans, int from, int to, int x, int baseline) {
+            GlyphWidths widths = glyphs();
+            int column = from;
+            for (int i = 0; spans != null && i < spans.length && column < to; i += 3) {
+                int start = Math.max(column, Math.min(spans[i], to));
+                int end = Math.min(spans[i + 1], to);
+                if (start > column) {
+                    g.setColor(fontColor);
+                    g.drawString(lineText.subSequence(column, start).toString(), x, baseline);
+                    x += widths.width(lineText, column, start);
+                }
+                if (end > start) {
+                    g.setColor(TokenStyle.color(spans[i + 2]));
+                    g.drawString(lineText.subSequence(start, end).toString(), x, baseline);
+                    x += widths.width(lineText, start, end);
+                }
+                column = Math.max(column, end);
             }
-            while (end < lineText.length() && Character.isLetterOrDigit(lineText.charAt(end))) {
-                end++;
+            if (column < to) {
+                g.setColor(fontColor);
+                g.drawString(lineText.subSequence(column, to).toString(), x, baseline);
             }
-            setCaretPosition(line, start - getLineStart(line));
-            selectionStart = start;
-            selectionEnd = end;
-            mousePressed = false;
-            repaint();
         }
 
-        public int search(String searchText) {
-            String text = getText();
-            return text.indexOf(searchText);
+        // y is the top of line from
+        private void paintMatches(Graphics g, int from, int to, int y) {
+            SearchResult result = searchResult;
+            if (result == null || from > to) {
+                return;
+            }
+            long end = getLineEnd(to);
+            g.setColor(Color.YELLOW);
+            for (int i = result.indexAfter(getLineStart(from)); i < result.size() && result.getStart(i) <= end; i++) {
+                paintRange(g, result.getStart(i), result.getEnd(i), from, to, y);
+            }
         }
 
-        private String getText() {
-            return text.getText();
+        private void paintOccurrences(Graphics g, int from, int to, int y) {
+            SearchResult result = occurrences;
+            if (result == null || from > to) {
+                return;
+            }
+            long end = getLineEnd(to);
+            g.setColor(OCCURRENCE_COLOR);
+            for (int i = result.indexAfter(getLineStart(from)); i < result.size() && result.getStart(i) <= end; i++) {
+                paintRange(g, result.getStart(i), result.getEnd(i), from, to, y);
+            }
         }
 
-        private int getLineCount() {
-            return text.getLineCount();
+        private void paintSelection(Graphics g, int from, int to, int y) {
+            g.setColor(Color.LIGHT_GRAY);
+            if (hasSelection()) {
+                paintRange(g, getSelectionMin(), getSelectionMax(), from, to, y);
+            }
+            EditorCore core = text.core;
+            long end = getLineEnd(to);
+            for (int i = core.extraCaretAfter(getLineStart(from)); i < core.getExtraCaretCount() && core.getExtraCaretStart(i) <= end; i++) {
+                if (core.getExtraCaretStart(i) < core.getExtraCaretEnd(i)) {
+                    paintRange(g, core.getExtraCaretStart(i), core.getExtraCaretEnd(i), from, to, y);
+                }
+            }
         }
 
-        private String getLine(int index) {
-            return text.getLine(index);
+        private void paintBrackets(Graphics g, int from, int to, int y) {
+            if (bracketStart >= 0) {
+                g.setColor(bracketMismatch ? Color.PINK : BRACKET_COLOR);
+                paintRange(g, bracketStart, bracketEnd, from, to, y);
+                if (matchStart >= 0) {
+                    paintRange(g, matchStart, matchEnd, from, to, y);
+                }
+            }
         }
 
-        private int getLineStart(int line) {
-            return text.getLineStart(line);
+        // fills the part of start..end that lies on lines from..to, row by row
+        private void paintRange(Graphics g, long start, long end, int from, int to, int y) {
+            int startLine = getLineOfOffset(start);
+            int endLine = getLineOfOffset(end);
+            if (startLine < 0 || endLine < 0) {
+                return;
+            }
+            for (int i = from; i <= to && i <= endLine; i = nextLine(i)) {
+                int[] starts = getRowStarts(i);
+                if (i >= startLine) {
+                    int length = getLineLength(i);
+                    int startColumn = i == startLine ? (int) (start - getLineStart(i)) : 0;
+                    // one past the end of the line stands for the newline
+                    int endColumn = i == endLine ? (int) (end - getLineStart(i)) : length + 1;
+                    for (int r = 0; r < starts.length; r++) {
+                        int rowEnd = r + 1 < starts.length ? starts[r + 1] : length + 1;
+                        int a = Math.max(startColumn, starts[r]);
+                        int b = Math.min(endColumn, rowEnd);
+                        if (a < b) {
+                            int startX = getRowX(i, starts[r], a);
+                            g.fillRect(startX, y + r * lineHeight, getRowX(i, starts[r], b) - startX, lineHeight);
+                        }
+                    }
+                }
+                y += starts.length * lineHeight;
+            }
         }
 
-        private int getLineEnd(int line) {
-            return text.getLineEnd(line);
+        private GlyphWidths glyphs() {
+            return GlyphWidths.get(getFontMetrics(getFont()));
         }
 
-        private String getLineText(int line) {
-            return text.getLineText(line);
+        // x of the column on the row starting at rowStart; one past the end of the line adds a space for the newline
+        private int getRowX(int line, int rowStart, int column) {
+            CharSequence lineText = getLineChars(line);
+            if (!wrap && lineText instanceof LineChars) {
+                LineChars chars = (LineChars) lineText;
+                int x = longLines.getX(chars, line, Math.min(column, chars.length()), glyphs());
+                return column > chars.length() ? x + glyphs().charWidth(' ') : x;
+            }
+            if (column > lineText.length()) {
+                int width = rowStart == 0 ? getLineWidth(line) : glyphs().width(lineText, rowStart, lineText.length());
+                return width + glyphs().charWidth(' ');
+            }
+            return glyphs().width(lineText, rowStart, column);
         }
 
-        private int getLineOffset(int line) {
-            return text.getLineOffset(line);
+        private int getColumnX(int line, int column) {
+            int[] starts = getRowStarts(line);
+            return getRowX(line, starts[getRowInLine(starts, column)], Math.min(column, getLineLength(line)));
         }
 
-        private int getLineY(int line) {
-            return (line - firstLine) * lineHeight;
+        private int getLineWidth(int line) {
+            CharSequence chars = getLineChars(line);
+            if (chars instanceof LineChars) {
+                return longLines.getWidth((LineChars) chars, line, glyphs());
+            }
+            int width = lineCache.getWidth(line);
+            if (width < 0) {
+                String lineText = getLine(line);
+                width = glyphs().width(lineText, 0, lineText.length());
+                lineCache.setWidth(line, width);
+            }
+            return width;
         }
 
-        private int getColumn(int line, int x) {
-            String lineText = getLineText(line);
-            FontMetrics fm = getFontMetrics(getFont());
-            int offset = getLineOffset(line);
-            int index = 0;
-            int width = 0;
-            while (index < lineText.length() && width < x - offset) {
-                char c = lineText.charAt(index);
-                width += fm.charWidth(c);
-                index++;
-            }
-            return index - 1;
+        public boolean hasSelection() {
+            return text.core.hasSelection();
         }
 
-        private int getCaretX() {
-            String lineText = getLineText(caretLine);
-            FontMetrics fm = getFontMetrics(getFont());
-            int offset = getLineOffset(caretLine);
-            int x = offset + fm.stringWidth(lineText.substring(0, caretColumn));
-            return x;
+        public long getSelectionMin() {
+            return text.core.getSelectionMin();
         }
 
-        private void setCaretPosition(int line, int column) {
-            caretLine = line;
-            caretColumn = column;
+        public long getSelectionMax() {
+            return text.core.getSelectionMax();
+        }
+
+        private int getLineOfOffset(long offset) {
+            if (offset < 0 || offset > text.getLength()) {
+                return -1;
+            }
+            return text.getLineOfOffset(offset);
+        }
+
+        public void select(long start, long end) {
+            text.core.select(start, end);
+        }
+
+        // repaints the caret's old and new line and brings the caret into view
+        public void caretMoved(long oldCaret) {
+            revealCaret();
+            int oldLine = getLineOfOffset(Math.min(oldCaret, text.getLength()));
+            repaintLines(oldLine, oldLine);
+            int line = text.core.getCaretLine();
+            repaintLines(line, line);
+            scrollToCaret();
+            updateBracketMatch();
+            updateOccurrences();
+        }
+
+        // when the word at the caret changed, its occurrences are looked for once the caret rests
+        public void updateOccurrences() {
+            String word = hasSelection() || text.core.getExtraCaretCount() > 0 ? null : getWordAtCaret();
+            boolean same = word == null ? occurrenceWord == null : word.equals(occurrenceWord);
+            if (same) {
+                return;
+            }
+            dropOccurrences();
+            occurrenceWord = word;
+            if (word != null) {
+                occurrenceTimer.restart();
+            }
+        }
+
+        private void findOccurrences() {
+            WordIndex words = text.words;
+            if (occurrenceWord != null && occurrences == null
+                    && (words.isReady() || words.getCandidateChars(occurrenceWord) <= OCCURRENCE_CHARS)) {
+                occurrences = words.findOccurrences(occurrenceWord, occurrenceListener);
+            }
+        }
+
+        // found occurrences move with the edit; a search still running saw the old text, so it is dropped
+        public void occurrencesEdited(long offset, long removed, long inserted) {
+            if (occurrences != null && occurrences.isComplete()) {
+                occurrences.edited(offset, removed, inserted);
+            } else {
+                dropOccurrences();
+            }
+        }
+
+        public void occurrencesEdited(EditRanges ranges) {
+            if (occurrences != null && occurrences.isComplete()) {
+                occurrences.edited(ranges);
+            } else {
+                dropOccurrences();
+            }
+        }
+
+        // the text changed all over, so the next caret move looks for the word again
+        public void dropOccurrences() {
+            occurrenceWord = null;
+            occurrenceTimer.stop();
+            if (occurrences != null) {
+                occurrences.cancel();
+                occurrences = null;
+                tiles.invalidateAll();
+                repaint();
+            }
+        }
+
+        // a word skipped while too much of the text was unread is looked for now
+        public void wordsIndexed() {
+            if (occurrenceWord != null && occurrences == null) {
+                occurrenceTimer.restart();
+            }
+        }
+
+        // the word the caret is in or just after, as the word index counts words; null when there is none
+        private String getWordAtCaret() {
+            int line = text.core.getCaretLine();
+            CharSequence lineText = getLineText(line);
+            if (lineText == null) {
+                return null;
+            }
+            int column = Math.min(text.core.getCaretColumn(), lineText.length());
+            int start = column;
+            int end = column;
+            while (start > 0 && WordIndex.isWordChar(lineText.charAt(start - 1))) {
+                start--;
+            }
+            while (end < lineText.length() && WordIndex.isWordChar(lineText.charAt(end))) {
+                end++;
+            }
+            if (start == end || end - start > WordIndex.MAX_WORD || Character.isDigit(lineText.charAt(start))) {
+                return null;
+            }
+            return lineText.subSequence(start, end).toString();
+        }
+
+        // just below the caret, for a popup
+        public Point getCaretPoint() {
+            return new Point(getCaretX() - scrollX, (getCaretRow() - firstRow + 1) * lineHeight);
+        }
+
+        // finds the bracket or tag at the caret, or else just before it, and the one matching it
+        public void updateBracketMatch() {
+            long oldStart = bracketStart;
+            long oldMatch = matchStart;
+            bracketStart = -1;
+            matchStart = -1;
+            StructureIndex structure = text.structure;
+            long caret = text.getCaretPosition();
+            if (structure.isReady() && !hasSelection()) {
+                int index = structure.indexAt(caret);
+                if (index < 0 && caret > 0) {
+                    index = structure.indexAt(caret - 1);
+                }
+                if (index >= 0) {
+                    int match = structure.getMatch(index);
+                    bracketStart = structure.getOffset(index);
+                    bracketEnd = bracketStart + getEntryLength(index);
+                    bracketMismatch = match < 0 || Math.abs(structure.getKind(match)) != Math.abs(structure.getKind(index));
+                    if (match >= 0) {
+                        matchStart = structure.getOffset(match);
+                        matchEnd = matchStart + getEntryLength(match);
+                    }
+                }
+            }
+            if (bracketStart != oldStart || matchStart != oldMatch) {
+                restyleOffset(oldStart);
+                restyleOffset(oldMatch);
+                restyleOffset(bracketStart);
+                restyleOffset(matchStart);
+            }
+        }
+
+        // a bracket is one char; a tag is shown by its < and its name
+        private int getEntryLength(int index) {
+            StructureIndex structure = text.structure;
+            if (Math.abs(structure.getKind(index)) != StructureIndex.TAG) {
+                return 1;
+            }
+            long start = structure.getOffset(index);
+            String tag = text.core.getText(start, Math.min(text.getLength(), start + 256));
+            int end = tag.startsWith("</") ? 2 : 1;
+            while (end < tag.length() && !Character.isWhitespace(tag.charAt(end)) && tag.charAt(end) != '>' && tag.charAt(end) != '/') {
+                end++;
+            }
+            return end;
+        }
+
+        private void restyleOffset(long offset) {
+            int line = offset < 0 ? -1 : getLineOfOffset(offset);
+            if (line >= 0) {
+                restyleLines(line, line);
+            }
+        }
+
+        // moves the caret to the bracket or tag matching the one at the caret
+        public void goToMatchingBracket() {
+            updateBracketMatch();
+            if (!text.structure.isReady()) {
+                status("Still finding the brackets of the text");
+            } else if (matchStart < 0) {
+                status("No matching bracket");
+            } else {
+                text.setCaretPosition(matchStart);
+            }
+        }
+
+        // folds the structure opening on the caret's line, or else the innermost one around the caret spanning lines
+        public void foldAtCaret() {
+            StructureIndex structure = text.structure;
+            if (!structure.isReady()) {
+                status("Still finding the structure of the text");
+                return;
+            }
+            int line = text.core.getCaretLine();
+            long lineEnd = getLineEnd(line);
+            int first = structure.indexAfter(getLineStart(line));
+            for (int i = first; i < structure.size() && i < first + FOLD_SCAN && structure.getOffset(i) < lineEnd; i++) {
+                if (structure.getKind(i) > 0 && fold(line, structure.getMatch(i))) {
+                    return;
+                }
+            }
+            for (int i = structure.getEnclosing(text.getCaretPosition()); i >= 0; i = structure.getEnclosing(structure.getOffset(i))) {
+                if (fold(getLineOfOffset(structure.getOffset(i)), structure.getMatch(i))) {
+                    return;
+                }
+            }
+            status("Nothing to fold at line " + (line + 1));
+        }
+
+        // hides the lines between the header and the line of the closing entry, when there are any
+        private boolean fold(int header, int closing) {
+            int last = closing < 0 ? -1 : getLineOfOffset(text.structure.getOffset(closing)) - 1;
+            if (last <= header) {
+                return false;
+            }
+            int top = getLineOfRow(firstRow);
+            folds.add(header, last);
+            wrapIndex.setHidden(header + 1, last, true);
+            foldsChanged(top);
+            int caretLine = text.core.getCaretLine();
+            if (caretLine > header && caretLine <= last) {
+                text.setCaretPosition(getLineEnd(header));
+            }
+            return true;
+        }
+
+        public void unfoldAtCaret() {
+            int fold = folds.indexOf(text.core.getCaretLine());
+            if (fold < 0) {
+                status("No fold at line " + (text.core.getCaretLine() + 1));
+                return;
+            }
+            int top = getLineOfRow(firstRow);
+            unfold(fold);
+            foldsChanged(top);
+        }
+
+        public void unfoldAll() {
+            if (folds.size() > 0) {
+                int top = getLineOfRow(firstRow);
+                folds.clear();
+                wrapIndex.showAll();
+                foldsChanged(top);
+            }
+        }
+
+        // a caret moved into folded lines unfolds them
+        private void revealCaret() {
+            int line = text.core.getCaretLine();
+            if (folds.hiding(line) >= 0) {
+                int top = getLineOfRow(firstRow);
+                for (int fold = folds.hiding(line); fold >= 0; fold = folds.hiding(line)) {
+                    unfold(fold);
+                }
+                foldsChanged(top);
+            }
+        }
+
+        // shows the fold's lines again, except those of folds inside it
+        private void unfold(int fold) {
+            int header = folds.getHeader(fold);
+            int last = folds.getLast(fold);
+            folds.remove(fold);
+            wrapIndex.setHidden(header + 1, last, false);
+            for (int i = 0; i < folds.size(); i++) {
+                if (folds.getHeader(i) > header && folds.getHeader(i) <= last) {
+                    wrapIndex.setHidden(folds.getHeader(i) + 1, folds.getLast(i), true);
+                }
+            }
+        }
+
+        // hides the lines of every fold again, after the wrap index forgot them
+        private void applyFolds() {
+            for (int i = 0; i < folds.size(); i++) {
+                wrapIndex.setHidden(folds.getHeader(i) + 1, Math.min(folds.getLast(i), getLineCount() - 1), true);
+            }
+        }
+
+        // every row below the fold moved; top is the line that stays on top
+        private void foldsChanged(int top) {
+            firstRow = Math.max(0, Math.min(getRowOfLine(top), getRowCount() - 1));
+            tiles.invalidateAll();
+            updateExtent();
+            repaint();
+        }
+
+        public void selectionChanged(long oldStart, long oldEnd) {
+            if (oldStart >= 0 && oldEnd >= 0) {
+                long length = text.getLength();
+                restyleLines(getLineOfOffset(Math.min(Math.min(oldStart, oldEnd), length)), getLineOfOffset(Math.min(Math.max(oldStart, oldEnd), length)));
+            }
+            repaintSelection();
+        }
+
+        public void moveCaretTo(int x, int y) {
+            text.setCaretPosition(getOffsetAt(x, y));
+        }
+
+        // keeps the carets there are and adds one where the mouse is
+        public void addCaretAt(int x, int y) {
+            text.core.addCaret(getOffsetAt(x, y));
+        }
+
+        // a caret on every line between the two points, selecting the columns between their x positions
+        public void selectColumn(int fromX, int fromY, int toX, int toY) {
+            int fromLine = getLineOfRow(getRowAt(fromY));
+            int toLine = getLineOfRow(getRowAt(toY));
+            int first = Math.min(fromLine, toLine);
+            int count = Math.abs(toLine - fromLine) + 1;
+            long[] starts = new long[count];
+            long[] ends = new long[count];
+            for (int i = 0; i < count; i++) {
+                int line = first + i;
+                int row = getRowOfLine(line);
+                starts[i] = getLineStart(line) + getColumn(line, row, Math.min(fromX, toX) + scrollX);
+                ends[i] = getLineStart(line) + getColumn(line, row, Math.max(fromX, toX) + scrollX);
+            }
+            text.core.setCarets(starts, ends, toLine - first);
+        }
+
+        private long getOffsetAt(int x, int y) {
+            int row = getRowAt(y);
+            int line = getLineOfRow(row);
+            return getLineStart(line) + getColumn(line, row, x + scrollX);
+        }
+
+        // the extra carets and their selections may be anywhere, so every cached image is stale
+        public void caretsChanged() {
+            tiles.invalidateAll();
+            repaint();
+        }
+
+        // moves the caret by rows, keeping its x position where the target row is long enough
+        public void moveCaretRows(int delta) {
+            int x = getCaretX();
+            int row = (int) Math.max(0, Math.min(getRowCount() - 1L, (long) getCaretRow() + delta));
+            int line = getLineOfRow(row);
+            text.setCaretPosition(getLineStart(line) + getColumn(line, row, x));
+        }
+
+        public void selectWord(int x, int y) {
+            int row = getRowAt(y);
+            int line = getLineOfRow(row);
+            CharSequence lineText = getLineText(line);
+            if (lineText == null) {
+                return;
+            }
+            int start = getColumn(line, row, x + scrollX);
+            int end = start;
+            while (start > 0 && WordIndex.isWordChar(lineText.charAt(start - 1))) {
+                start--;
+            }
+            while (end < lineText.length() && WordIndex.isWordChar(lineText.charAt(end))) {
+                end++;
+            }
+            text.setCaretPosition(getLineStart(line) + start);
+            mousePressed = false;
+            select(getLineStart(line) + start, getLineStart(line) + end);
+        }
+
+        // searches in the background and selects the first match after the caret as soon as it is found
+        public void search(SearchQuery query) {
+            searchQuery = query;
+            startSearch(query);
+            findPending = true;
+        }
+
+        public void findNext() {
+            if (searchQuery == null) {
+                return;
+            }
+            findPending = true;
+            if (searchResult != null) {
+                selectNextMatch();
+            }
+        }
+
+        public void findAll(SearchQuery query) {
+            cancelSearch();
+            searchQuery = query;
+            findPending = false;
+            searchResult = SearchEngine.findAll(new DocumentSnapshot(text.snapshot()), query, searchListener);
+            status("Searching for " + query);
+        }
+
+        // the matches are found in parallel and then replaced in a single edit
+        public void replaceAll(SearchQuery query, String replacement) {
+            cancelSearch();
+            searchQuery = null;
+            findPending = false;
+            int editCount = text.getEditCount();
+            status("Replacing " + query);
+            SearchEngine.findAll(new DocumentSnapshot(text.snapshot()), query, new SearchEngine.Listener() {
+                public void matchesFound(SearchResult result) {
+                }
+
+                public void finished(SearchResult result) {
+                    if (text.getEditCount() != editCount) {
+                        status("Replace All stopped: the text changed while searching");
+                        return;
+                    }
+                    text.replaceAll(result, replacement);
+                    status("Replaced " + result.size() + " matches");
+                }
+            });
+        }
+
+        private void startSearch(SearchQuery query) {
+            cancelSearch();
+            searchResult = SearchEngine.start(new DocumentSnapshot(text.snapshot()), query, searchListener);
+            status("Searching for " + query);
+        }
+
+        private void cancelSearch() {
+            searchAgainTimer.stop();
+            if (searchResult != null) {
+                searchResult.cancel();
+                searchResult = null;
+                tiles.invalidateAll();
+                repaint();
+            }
+        }
+
+        // match offsets no longer line up with the text; search again once the typing stops
+        private void documentEdited() {
+            if (searchQuery != null) {
+                cancelSearch();
+                searchAgainTimer.restart();
+            }
+        }
+
+        private void matchesChanged(SearchResult result) {
+            if (result != searchResult) {
+                return;
+            }
+            tiles.invalidateAll();
+            repaint();
+            if (findPending) {
+                selectNextMatch();
+            } else {
+                status(result.size() + (result.isComplete() ? "" : "+") + " matches");
+            }
+        }
+
+        private void selectNextMatch() {
+            SearchResult result = searchResult;
+            long from = hasSelection() ? getSelectionMax() : text.getCaretPosition();
+            int index = result.indexAfter(from);
+            if (index == result.size()) {
+                if (!result.isComplete()) {
+                    // tried again when more matches arrive
+                    return;
+                }
+                index = 0;
+            }
+            findPending = false;
+            if (result.size() == 0) {
+                status("Text not found: " + result.getQuery());
+                JOptionPane.showMessageDialog(TextEditor.this, "Text not found: " + result.getQuery(), "Search", JOptionPane.INFORMATION_MESSAGE);
+                return;
+            }
+            long start = result.getStart(index);
+            long end = result.getEnd(index);
+            text.setCaretPosition(end);
+            select(start, end);
+            status("Match " + (index + 1) + " of " + result.size() + (result.isComplete() ? "" : "+"));
+        }
+
+        private int getLineCount() {
+            return text.getLineCount();
+        }
+
+        private String getLine(int index) {
+            String line = lineCache.getText(index);
+            if (line == null) {
+                line = text.getLine(index);
+                lineCache.put(index, line);
+            }
+            return line;
+        }
+
+        private long getLineStart(int line) {
+            return text.getLineStart(line);
+        }
+
+        private long getLineEnd(int line) {
+            return text.getLineEnd(line);
+        }
+
+        private CharSequence getLineText(int line) {
+            if (line < 0 || line >= getLineCount()) {
+                return null;
+            }
+            return getLineChars(line);
+        }
+
+        // the line as a string, or read through a window when it is too long to copy
+        private CharSequence getLineChars(int line) {
+            int length = getLineLength(line);
+            if (LongLines.isLong(length)) {
+                return new LineChars(text.core.getDocument(), getLineStart(line), length);
+            }
+            return getLine(line);
+        }
+
+        private int getLineLength(int line) {
+            String cached = lineCache.getText(line);
+            return cached != null ? cached.length() : (int) (getLineEnd(line) - getLineStart(line));
+        }
+
+        private int getLineY(int line) {
+            return (getRowOfLine(line) - firstRow) * lineHeight;
+        }
+
+        // rows go through the wrap index while lines wrap or are folded; otherwise rows and lines are the same
+        private boolean isIndexed() {
+            return wrap || folds.size() > 0;
+        }
+
+        private int getRowCount() {
+            return isIndexed() ? wrapIndex.getRowCount() : getLineCount();
+        }
+
+        private int getRowOfLine(int line) {
+            return isIndexed() ? wrapIndex.rowOf(line) : line;
+        }
+
+        private int getLineOfRow(int row) {
+            return isIndexed() ? wrapIndex.lineAt(row) : row;
+        }
+
+        // the line shown after the given one, past any folded lines
+        private int nextLine(int line) {
+            return isIndexed() ? getLineOfRow(getRowOfLine(line) + getRowStarts(line).length) : line + 1;
+        }
+
+        private boolean isHidden(int line) {
+            return folds.size() > 0 && wrapIndex.getRows(line) == 0;
+        }
+
+        private int getRowAt(int y) {
+            return Math.max(0, Math.min(getRowCount() - 1, firstRow + Math.max(0, y) / lineHeight));
+        }
+
+        private int getCaretRow() {
+            int caretLine = text.core.getCaretLine();
+            return getRowOfLine(caretLine) + getRowInLine(getRowStarts(caretLine), text.core.getCaretColumn());
+        }
+
+        // the row holding the column; a column where a row starts belongs to that row
+        private static int getRowInLine(int[] starts, int column) {
+            int low = 0;
+            int high = starts.length - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (starts[mid] <= column) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        // the column nearest to x on the given row of the line
+        private int getColumn(int line, int row, int x) {
+            CharSequence lineText = getLineChars(line);
+            if (!wrap && lineText instanceof LineChars) {
+                return longLines.getColumn((LineChars) lineText, line, x, glyphs());
+            }
+            int[] starts = getRowStarts(line);
+            int r = Math.max(0, Math.min(starts.length - 1, row - getRowOfLine(line)));
+            // the caret cannot stand after the last char of a row that continues below
+            int end = r + 1 < starts.length ? starts[r + 1] - 1 : lineText.length();
+            return glyphs().column(lineText, starts[r], end, x);
+        }
+
+        // column where each row of the line starts; measuring may change how many rows the line has
+        private int[] getRowStarts(int line) {
+            if (!wrap || line >= getLineCount()) {
+                return ONE_ROW;
+            }
+            int[] starts = wrapIndex.getRowStarts(line);
+            if (starts == null) {
+                int rows = wrapIndex.getRows(line);
+                if (rows == 0) {
+                    // folded away
+                    return ONE_ROW;
+                }
+                starts = wrapIndex.measure(line, getLineChars(line), glyphs());
+                if (starts.length != rows) {
+                    // everything below moved
+                    int top = getLineY(line);
+                    tiles.invalidate(getRowOfLine(line), starts.length - rows);
+                    updateExtent();
+                    repaint(0, Math.max(0, top), getWidth(), getHeight());
+                }
+            }
+            return starts;
+        }
+
+        // measures the lines covering rows from..to, so the rows painted agree with the index
+        private void layoutRows(int from, int to) {
+            if (!wrap) {
+                return;
+            }
+            for (int line = getLineOfRow(from); line < getLineCount() && getRowOfLine(line) <= to; line = nextLine(line)) {
+                getRowStarts(line);
+            }
+        }
+
+        public void setWrap(boolean wrap) {
+            if (wrap != this.wrap) {
+                int line = getLineOfRow(firstRow);
+                this.wrap = wrap;
+                scrollX = 0;
+                hScrollBar.setVisible(!wrap);
+                revalidate();
+                documentChanged();
+                scrollTo(getRowOfLine(line));
+            }
+        }
+
+        private int getCaretX() {
+            return getColumnX(text.core.getCaretLine(), text.core.getCaretColumn());
         }
 
         public void update(Graphics g) {
             paint(g);
         }
 
+        // repaints the part of lines from..to that is on screen
+        public void repaintLines(int from, int to) {
+            int top = Math.max(0, getLineY(from));
+            int bottom = Math.min(getHeight(), getLineY(to + 1));
+            if (bottom > top) {
+                repaint(0, top, getWidth(), bottom - top);
+            }
+        }
+
+        // lines from..to look different but kept their text
+        public void restyleLines(int from, int to) {
+            tiles.invalidateLines(getRowOfLine(from), getRowOfLine(to + 1) - 1);
+            repaintLines(from, to);
+        }
+
+        public void repaintSelection() {
+            if (hasSelection()) {
+                int from = getLineOfOffset(getSelectionMin());
+                int to = getLineOfOffset(getSelectionMax());
+                restyleLines(from, to);
+            }
+        }
+
+        // an edit touched the given line and changed the line count by lineDelta
+        public void linesChanged(int line, int lineDelta) {
+            text.highlighter.linesChanged(line, lineDelta);
+            lineCache.invalidate(line, lineDelta);
+            longLines.invalidate(line, lineDelta);
+            boolean unfolded = folds.linesChanged(line, lineDelta);
+            wrapIndex.linesChanged(line, lineDelta);
+            if (unfolded) {
+                // the edit reached into folded lines, which are shown again
+                wrapIndex.showAll();
+                applyFolds();
+                tiles.invalidateAll();
+            }
+            if (wrap) {
+                // measured again right away, so the rows below only move when its row count changed
+                getRowStarts(line);
+            }
+            if (lineDelta == 0) {
+                tiles.invalidateLines(getRowOfLine(line), getRowOfLine(line + 1) - 1);
+                repaintLines(line, line);
+            } else {
+                tiles.invalidate(getRowOfLine(line), lineDelta);
+                updateExtent();
+                repaintLines(line, getLineOfRow(firstRow + getVisibleLines()));
+            }
+        }
+
+        // back to the top of a newly loaded document
+        public void reset() {
+            cancelSearch();
+            searchQuery = null;
+            findPending = false;
+            firstRow = 0;
+            scrollX = 0;
+            folds.clear();
+            dropOccurrences();
+            documentChanged();
+        }
+
+        public void documentChanged() {
+            lineCache.clear();
+            longLines.clear();
+            tiles.clear();
+            // widths or text changed everywhere; the top line stays on top
+            int line = Math.min(getLineOfRow(firstRow), getLineCount() - 1);
+            if (wrapIndex.getLineCount() != getLineCount()) {
+                // the lines were replaced, so the folds no longer fit them
+                folds.clear();
+            }
+            int width = getWidth();
+            wrapIndex.reset(getLineCount(), wrap && width > 0 ? width - glyphs().charWidth(' ') : 0);
+            applyFolds();
+            firstRow = getRowOfLine(line);
+            updateExtent();
+            repaint();
+        }
+
+        public int getVisibleLines() {
+            return Math.max(1, getHeight() / lineHeight);
+        }
+
+        public void scrollTo(int row) {
+            row = Math.max(0, Math.min(row, getRowCount() - 1));
+            if (row != firstRow) {
+                firstRow = row;
+                repaint();
+            }
+            if (scrollBar.getValue() != firstRow) {
+                scrollBar.setValue(firstRow);
+            }
+        }
+
+        public void scrollToCaret() {
+            int caretRow = getCaretRow();
+            if (caretRow < firstRow) {
+                scrollTo(caretRow);
+            } else if (caretRow >= firstRow + getVisibleLines()) {
+                scrollTo(caretRow - getVisibleLines() + 1);
+            }
+            if (!wrap) {
+                int caretX = getCaretX();
+                if (caretX < scrollX || caretX >= scrollX + getWidth()) {
+                    scrollToX(caretX - getWidth() / 2);
+                }
+            }
+        }
+
+        public void scrollToX(int x) {
+            x = Math.max(0, x);
+            if (x != scrollX) {
+                scrollX = x;
+                // every tile shows the old part of its lines
+                tiles.invalidateAll();
+                repaint();
+            }
+            if (hScrollBar.getValue() != scrollX) {
+                updateHorizontalExtent();
+                hScrollBar.setValue(scrollX);
+            }
+        }
+
+        // the horizontal range covers the widest line on screen
+        private void updateHorizontalExtent() {
+            if (wrap) {
+                return;
+            }
+            int width = Math.max(1, getWidth());
+            int widest = 0;
+            for (int row = firstRow; row < Math.min(getRowCount(), firstRow + getVisibleLines()); row++) {
+                widest = Math.max(widest, getLineWidth(getLineOfRow(row)) + glyphs().charWidth(' '));
+            }
+            hScrollBar.setValues(scrollX, width, 0, Math.max(widest, scrollX + width));
+            hScrollBar.setBlockIncrement(width);
+        }
+
+        // keeps the scroll bar range in step with the row count
+        private void updateExtent() {
+            if (scrollBar != null) {
+                int visible = getVisibleLines();
+                scrollBar.setValues(firstRow, visible, 0, Math.max(getRowCount(), visible));
+                scrollBar.setBlockIncrement(visible);
+            }
+        }
+
+        public void releaseTiles() {
+            tiles.clear();
+        }
+
+        // background work of a hidden tab does not write over the active tab's status
+        private void status(String message) {
+            if (this == viewer) {
+                statusLabel.setText(message);
+            }
+        }
+
         public void setFontColor(Color color) {
             this.fontColor = color;
+            tiles.clear();
             repaint();
         }
     }
 
-    class Text {
-        private StringBuilder sb;
+    class Text implements DocumentManager.Resident {
+        private Viewer viewer;
+        private JPanel panel;
+        private String filePath;
+        private FileLoader loader;
+        private TextSource source;
+        // only part of the file was loaded
+        private boolean partial;
+        // the charset, byte order mark and line separator the file is written back with
+        private TextFormat format = TextFormat.DEFAULT;
+        // the document, caret, selection and history; the viewer and journal follow it through the listener
+        private final EditorCore core = new EditorCore(new EditorCore.Listener() {
+            public void edited(long offset, long removed, CharSequence inserted, int line, int lineDelta) {
+                journal(offset, removed, inserted);
+                updateTabTitle(Text.this);
+                structure.edited(offset, removed, inserted.length());
+                words.edited(offset, removed, inserted.length());
+                viewer.documentEdited();
+                viewer.linesChanged(line, lineDelta);
+                viewer.updateBracketMatch();
+                viewer.occurrencesEdited(offset, removed, inserted.length());
+            }
+
+            public void rangesEdited(Edit edit, boolean undo, EditRanges ranges) {
+                journal(edit, undo);
+                updateTabTitle(Text.this);
+                for (int i = 0; i < ranges.size(); i++) {
+                    structure.edited(ranges.getOffset(i), ranges.getRemoved(i), ranges.getInserted(i));
+                    words.edited(ranges.getOffset(i), ranges.getRemoved(i), ranges.getInserted(i));
+                    viewer.linesChanged(ranges.getLine(i), ranges.getLineDelta(i));
+                }
+                viewer.documentEdited();
+                viewer.updateBracketMatch();
+                viewer.occurrencesEdited(ranges);
+            }
+
+            public void replaced(Edit edit, boolean undo) {
+                journal(edit, undo);
+                updateTabTitle(Text.this);
+                viewer.documentEdited();
+                highlighter.textReplaced();
+                structure.textReplaced();
+                words.textReplaced();
+                viewer.documentChanged();
+                viewer.dropOccurrences();
+            }
+
+            public void appended(int line, int lineDelta) {
+                structure.appended();
+                words.appended();
+                viewer.linesChanged(line, lineDelta);
+            }
+
+            public void caretMoved(long oldCaret) {
+                viewer.caretMoved(oldCaret);
+            }
+
+            public void selectionChanged(long oldStart, long oldEnd) {
+                viewer.selectionChanged(oldStart, oldEnd);
+            }
+
+            public void caretsChanged() {
+                viewer.caretsChanged();
+            }
+        });
+        private final Highlighter highlighter = new Highlighter((from, to) -> viewer.restyleLines(from, to));
+        // brackets or tags and how they nest, for matching, folding and the outline
+        private final StructureIndex structure = new StructureIndex(() -> viewer.updateBracketMatch());
+        // the words and the blocks of text holding each, for occurrences and completion
+        private final WordIndex words = new WordIndex(() -> viewer.wordsIndexed());
+        // typed chars not yet in the document; a burst of key events becomes one edit and one repaint
+        private final StringBuilder pendingInput = new StringBuilder();
+        private final Runnable flushTask = this::flushInput;
+        private boolean flushScheduled;
+        // the text was dropped to stay within the memory budget and is read again when the tab is shown
+        private boolean evicted;
+        private long restoreCaret = -1;
+        private int restoreFirstLine;
+        // size and modification time of the file the text was read from or saved to, which the journal replays against
+        private long diskSize;
+        private long diskModified;
+        private EditJournal journal;
+        // takes the changes made while a save is written, which are all the saved file lacks
+        private EditJournal savingJournal;
+        private final EditJournal.Listener journalListener = e -> {
+            if (journal != null) {
+                journal = null;
+                unjournaled = true;
+                viewer.status("Autosave journal stopped: " + e.getMessage());
+            }
+        };
+        // a change was made that the journal could not record, so it stays off until the next save
+        private boolean unjournaled;
+        // text appended to the file is read into the document, starting again after every load
+        private boolean follow;
+        private FileFollower follower;
+        // bytes of the file that are in the document
+        private long fileBytes;
 
         public Text() {
-            sb = new StringBuilder("this is a test");
+            highlighter.setDocument(core.getDocument());
+            structure.setDocument(core.getDocument());
+            words.setDocument(core.getDocument());
+        }
+
+        public Viewer getViewer() {
+            return viewer;
+        }
+
+        public String getName() {
+            String name = filePath == null ? "Untitled" : new File(filePath).getName();
+            return partial ? name + " (partial)" : name;
+        }
+
+        public boolean isModified() {
+            return core.isModified();
+        }
+
+        public boolean isEvicted() {
+            return evicted;
+        }
+
+        public long getMemoryUsage() {
+            return core.getDocument().getMemoryUsage() + structure.getMemoryUsage() + words.getMemoryUsage();
+        }
+
+        // unsaved text stays; a mapped file only drops its decoded pages, anything else is read again later
+        public boolean evict() {
+            if (evicted || loader != null || filePath == null || isModified() || follow) {
+                return false;
+            }
+            viewer.releaseTiles();
+            viewer.lineCache.clear();
+            if (source instanceof MappedFileSource) {
+                ((MappedFileSource) source).releaseMemory();
+                return true;
+            }
+            restoreCaret = getCaretPosition();
+            restoreFirstLine = viewer.getLineOfRow(viewer.firstRow);
+            // the history refers to the buffers being dropped
+            core.setDocument(new PieceTable(""));
+            source = null;
+            highlighter.setDocument(core.getDocument());
+            structure.setDocument(core.getDocument());
+            words.setDocument(core.getDocument());
+            viewer.reset();
+            evicted = true;
+            return true;
+        }
+
+        // puts the caret and scroll position back after an evicted document was read again
+        public void restoreView() {
+            if (restoreCaret >= 0) {
+                viewer.scrollTo(viewer.getRowOfLine(restoreFirstLine));
+                setCaretPosition(Math.min(restoreCaret, getLength()));
+                restoreCaret = -1;
+            }
         }
 
         public void setText(String text) {
-            sb = new StringBuilder(text);
-            viewer.repaint();
+            discardJournal();
+            core.setDocument(new PieceTable(text));
+            setFormat(TextFormat.DEFAULT);
+            source = null;
+            evicted = false;
+            pendingInput.setLength(0);
+            highlighter.setDocument(core.getDocument());
+            structure.setDocument(core.getDocument());
+            words.setDocument(core.getDocument());
+            viewer.reset();
+        }
+
+        public void setSource(TextSource source) {
+            discardJournal();
+            stopFollower();
+            core.setDocument(new PieceTable(source));
+            this.source = source;
+            evicted = false;
+            pendingInput.setLength(0);
+            highlighter.setDocument(core.getDocument());
+            structure.setDocument(core.getDocument());
+            words.setDocument(core.getDocument());
+            viewer.reset();
+        }
+
+        public void setFormat(TextFormat format) {
+            this.format = format;
+            core.setLineSeparator(format.getLineSeparator());
+        }
+
+        public void sourceGrew() {
+            core.sourceGrew();
         }
 
         public String getText() {
-            return sb.toString();
+            return core.getText();
+        }
+
+        public List<Segment> snapshot() {
+            return core.snapshot();
+        }
+
+        public long getLength() {
+            return core.getLength();
+        }
+
+        public int getEditCount() {
+            return core.getEditCount();
         }
 
         public void setFont(Font font) {
             viewer.setFont(font);
             viewer.lineHeight = viewer.getFontMetrics(viewer.getFont()).getHeight();
-            viewer.repaint();
+            viewer.documentChanged();
         }
 
         public Font getFont() {
@@ -475,118 +2386,62 @@ public class TextEditor extends JFrame implements ActionListener, KeyListener {
         }
 
         public int getLineCount() {
-            return sb.toString().split("\n").length;
+            return core.getLineCount();
         }
 
         public String getLine(int index) {
-            String[] lines = sb.toString().split("\n");
-            if (index < lines.length) {
-                return lines[index];
-            } else {
-                return null;
-            }
+            return getLineText(index);
         }
 
-        public int getLineStart(int line) {
-            String[] lines = sb.toString().split("\n");
-            if (line == 0) {
-                return 0;
-            } else if (line < lines.length) {
-                int start = 0;
-                for (int i = 0; i < line; i++) {
-                    start += lines[i].length() + 1;
-                }
-                return start;
-            } else {
-                return -1;
-            }
+        public long getLineStart(int line) {
+            return core.getLineStart(line);
         }
 
-        public int getLineEnd(int line) {
-            String[] lines = sb.toString().split("\n");
-            if (line < lines.length) {
-                return getLineStart(line + 1) - 1;
-            } else {
-                return -1;
-            }
+        public long getLineEnd(int line) {
+            return core.getLineEnd(line);
         }
 
-        public String getLineText(int line) {
-            String[] lines = sb.toString().split("\n");
-            if (line < lines.length) {
-                return lines[line];
-            } else {
-                return null;
-            }
+        public int getLineOfOffset(long offset) {
+            return core.getLineOfOffset(offset);
         }
 
-        public int getLineOffset(int line) {
-            String[] lines = sb.toString().split("\n");
-            if (line < lines.length) {
-                int caretColumn = viewer.caretColumn;
-                return viewer.getFontMetrics(viewer.getFont()).stringWidth(lines[line].substring(0, caretColumn));
-            } else {
-                return -1;
-            }
+        public String getLineText(int line) {
+            return core.getLineText(line);
         }
 
         public void cut() {
-            if (viewer.selectionStart >= 0 && viewer.selectionEnd >= 0) {
-                String selection = sb.substring(viewer.selectionStart, viewer.selectionEnd);
-                sb.delete(viewer.selectionStart, viewer.selectionEnd);
-                viewer.caretLine = viewer.selectionStart / (viewer.getFontMetrics(viewer.getFont()).stringWidth("\n") + 1);
-                viewer.caretColumn = viewer.selectionStart - getLineStart(viewer.caretLine);
-                viewer.selectionStart = -1;
-                viewer.selectionEnd = -1;
-                viewer.repaint();
+            if (core.hasAnySelection()) {
+                String selection = core.getSelectedText();
+                core.deleteSelection();
                 Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new StringSelection(selection), null);
             }
         }
 
         public void copy() {
-            if (viewer.selectionStart >= 0 && viewer.selectionEnd >= 0) {
-                String selection = sb.substring(viewer.selectionStart, viewer.selectionEnd);
-                Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new StringSelection(selection), null);
+            if (core.hasAnySelection()) {
+                Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new StringSelection(core.getSelectedText()), null);
             }
         }
 
         public void paste() {
             try {
                 String selection = (String) Toolkit.getDefaultToolkit().getSystemClipboard().getData(DataFlavor.stringFlavor);
-                if (viewer.selectionStart >= 0 && viewer.selectionEnd >= 0) {
-                    sb.delete(viewer.selectionStart, viewer.selectionEnd);
-                }
-                sb.insert(getCaretPosition(), selection);
-                setCaretPosition(getCaretPosition() + selection.length());
-                viewer.selectionStart = -1;
-                viewer.selectionEnd = -1;
-                viewer.repaint();
+                core.replaceSelection(selection);
             } catch (UnsupportedFlavorException | IOException ex) {
 // ignore
             }
         }
 
         public void selectAll() {
-            viewer.selectionStart = 0;
-            viewer.selectionEnd = sb.length();
-            viewer.repaint();
+            core.selectAll();
         }
 
-        public int getCaretPosition() {
-            return viewer.getLineStart(viewer.caretLine) + viewer.caretColumn;
+        public long getCaretPosition() {
+            return core.getCaretPosition();
         }
 
-        public void setCaretPosition(int position) {
-            int line = 0;
-            while (getLineStart(line + 1) <= position) {
-                line++;
-            }
-            int column = position - getLineStart(line);
-            viewer.caretLine = line;
-            viewer.caretColumn = column;
-            viewer.selectionStart = -1;
-            viewer.selectionEnd = -1;
-            viewer.repaint();
+        public void setCaretPosition(long position) {
+            core.setCaretPosition(position);
         }
 
         public void setForeground(Color color) {
@@ -594,127 +2449,240 @@ public class TextEditor extends JFrame implements ActionListener, KeyListener {
             viewer.repaint();
         }
 
-        public void insert(String input, int caretPosition) {
-            sb.insert(caretPosition, input);
-            viewer.repaint();
+        public void insert(String input, long caretPosition) {
+            core.insert(caretPosition, input);
         }
 
-        public void moveCaretWordBackward() {
-            int line = viewer.caretLine;
-            int column = viewer.caretColumn;
-            String lineText = getLineText(line);
-            if (column > 0) {
-                if (Character.isWhitespace(lineText.charAt(column - 1))) {
-                    for (int i = column - 1; i >= 0; i--) {
-                        if (!Character.isWhitespace(lineText.charAt(i))) {
-                            column = i + 1;
-                            break;
+        // queued until the events already waiting have been handled, then inserted together
+        public void type(char c) {
+            pendingInput.append(c);
+            if (!flushScheduled) {
+                flushScheduled = true;
+                SwingUtilities.invokeLater(flushTask);
+            }
+        }
+
+        public void flushInput() {
+            flushScheduled = false;
+            if (pendingInput.length() == 0) {
+                return;
+            }
+            // the core copies the chars into the document and keeps nothing of the builder, so it is used again
+            core.type(pendingInput);
+            pendingInput.setLength(0);
+        }
+
+        public void delete(long start, long end) {
+            core.delete(start, end);
+        }
+
+        public void undo() {
+            core.undo();
+        }
+
+        public void redo() {
+            core.redo();
+        }
+
+        public void replaceAll(SearchResult matches, String replacement) {
+            core.replaceAll(matches, replacement);
+        }
+
+        // only a file read completely can be followed; a load in progress starts following when it finishes
+        public void setFollow(boolean on) {
+            if (on && filePath == null) {
+                viewer.status("Only a saved file can be followed");
+                on = false;
+            }
+            follow = on;
+            if (!on) {
+                stopFollower();
+            } else if (loader == null && follower == null) {
+                startFollower();
+            }
+        }
+
+        private void startFollower() {
+            stopFollower();
+            File file = new File(filePath);
+            follower = new FileFollower(file.toPath(), format.getCharset(), fileBytes, new FileFollower.Listener() {
+                public void appended(CharSequence appended, long fileSize, long lastModified) {
+                    followed(appended, fileSize, lastModified);
+                }
+
+                public void truncated() {
+                    follower = null;
+                    if (isModified()) {
+                        follow = false;
+                        if (Text.this == text) {
+                            followMenuItem.setSelected(false);
                         }
+                        viewer.status(file.getName() + " was truncated or replaced; no longer following it");
+                        return;
                     }
-                } else {
-                    for (int i = column - 1; i >= 0; i--) {
-                        if (Character.isWhitespace(lineText.charAt(i))) {
-                            column = i + 1;
-                            break;
-                        }
+                    // read again from the start, and followed from there once loaded
+                    try {
+                        load(Text.this, file);
+                    } catch (IOException e) {
+                        failed(e);
                     }
                 }
-                viewer.caretColumn = column;
-                viewer.repaint();
-            }
 
+                public void failed(IOException e) {
+                    follower = null;
+                    follow = false;
+                    if (Text.this == text) {
+                        followMenuItem.setSelected(false);
+                    }
+                    viewer.status("Stopped following " + file.getName() + ": " + e.getMessage());
+                }
+            });
+            follower.start();
+        }
 
+        public void stopFollower() {
+            if (follower != null) {
+                follower.stop();
+                follower = null;
+            }
         }
 
-        public void moveCaretBackward() {
-            int line = viewer.caretLine;
-            int column = viewer.caretColumn;
-            if (column > 0) {
-                column--;
-                viewer.caretColumn = column;
-                viewer.repaint();
+        // text appended to the file; not an edit, so it is neither undone, journaled nor counted as a change
+        private void followed(CharSequence appended, long fileSize, long lastModified) {
+            boolean atEnd = !core.hasSelection() && pendingInput.length() == 0 && getCaretPosition() == getLength();
+            core.append(appended);
+            fileBytes = fileSize;
+            if (isModified()) {
+                // the journal replays against the file as it was, which no longer exists
+                discardJournal();
+                unjournaled = true;
+            } else {
+                diskSize = fileSize;
+                diskModified = lastModified;
+            }
+            if (atEnd) {
+                setCaretPosition(getLength());
             }
         }
 
-        public void moveCaretWordForward() {
-            int line = viewer.caretLine;
-            int column = viewer.caretColumn;
-            String lineText = getLineText(line);
-            if (column < lineText.length()) {
-                if (Character.isWhitespace(lineText.charAt(column))) {
-                    for (int i = column; i < lineText.length(); i++) {
-                        if (!Character.isWhitespace(lineText.charAt(i))) {
-                            column = i;
-                            break;
-                        }
-                    }
+        // the journal of changes since the text was read or saved; null while changes cannot be journaled
+        private EditJournal openJournal() {
+            if (journal == null && !unjournaled) {
+                if (filePath == null || loader != null || partial) {
+                    // there is no complete file to replay against
+                    unjournaled = true;
                 } else {
-                    for (int i = column; i < lineText.length(); i++) {
-                        if (Character.isWhitespace(lineText.charAt(i))) {
-                            column = i;
-                            break;
-                        }
-                    }
+                    journal = new EditJournal(EditJournal.pathFor(Paths.get(filePath)), diskSize, diskModified, journalListener);
                 }
-                viewer.caretColumn = column;
-                viewer.repaint();
             }
+            return journal;
         }
 
-        public void moveCaretForward() {
-            int line = viewer.caretLine;
-            int column = viewer.caretColumn;
-            String lineText = getLineText(line);
-            if (column < lineText.length()) {
-                column++;
-                viewer.caretColumn = column;
-                viewer.repaint();
+        private void journal(long offset, long removed, CharSequence inserted) {
+            EditJournal opened = openJournal();
+            if (opened != null) {
+                opened.splice(offset, removed, inserted);
+            }
+            if (savingJournal != null) {
+                savingJournal.splice(offset, removed, inserted);
             }
         }
 
-        public void moveCaretUp() {
+        private void journal(Edit edit, boolean undo) {
+            EditJournal opened = openJournal();
+            if (opened != null) {
+                edit.journal(opened, undo);
+            }
+            if (savingJournal != null) {
+                edit.journal(savingJournal, undo);
+            }
+        }
 
+        public void discardJournal() {
+            if (journal != null) {
+                journal.delete();
+                journal = null;
+            }
+            unjournaled = false;
+        }
 
+        // the text as it is now is about to be written to file
+        public void journalSaving(File file) {
+            savingJournal = new EditJournal(EditJournal.pathFor(file.toPath()), journalListener);
         }
 
-        public void moveCaretDown() {
+        // the file now holds the text as of savedEditCount, and the journal starts over from it
+        public void journalSaved(File file, int savedEditCount) {
+            discardJournal();
+            diskSize = file.length();
+            diskModified = file.lastModified();
+            EditJournal next = savingJournal;
+            savingJournal = null;
+            if (next != null && core.getEditCount() != savedEditCount) {
+                // changed while saving; the journal goes on with just those changes
+                next.begin(diskSize, diskModified);
+                journal = next;
+            }
         }
 
-        public void deleteBackward() {
-            if (viewer.selectionStart >= 0 && viewer.selectionEnd >= 0) {
-                sb.delete(viewer.selectionStart, viewer.selectionEnd);
-                viewer.caretLine = viewer.selectionStart / (viewer.getFontMetrics(viewer.getFont()).stringWidth("\n") + 1);
-                viewer.caretColumn = viewer.selectionStart - getLineStart(viewer.caretLine);
-                viewer.selectionStart = -1;
-                viewer.selectionEnd = -1;
-                viewer.repaint();
-            } else {
-                if (viewer.caretColumn > 0) {
-                    sb.deleteCharAt(getCaretPosition() - 1);
-                    setCaretPosition(getCaretPosition() - 1);
-                    viewer.repaint();
-                }
+        // applies the changes found in a journal as ordinary edits, which journal them again
+        public void replay(List<EditJournal.Splice> splices) {
+            long caret = 0;
+            for (EditJournal.Splice splice : splices) {
+                long offset = Math.min(splice.getOffset(), getLength());
+                delete(offset, Math.min(getLength(), offset + splice.getRemoved()));
+                insert(splice.getInserted(), offset);
+                caret = offset + splice.getInserted().length();
             }
+            setCaretPosition(caret);
         }
 
-        public void deleteForward() {
-            if (viewer.selectionStart >= 0 && viewer.selectionEnd >= 0) {
-                sb.delete(viewer.selectionStart, viewer.selectionEnd);
-                viewer.caretLine = viewer.selectionStart / (viewer.getFontMetrics(viewer.getFont()).stringWidth("\n") + 1);
-                viewer.caretColumn = viewer.selectionStart - getLineStart(viewer.caretLine);
-                viewer.selectionStart = -1;
-                viewer.selectionEnd = -1;
-                viewer.repaint();
+        public void moveCaretWordBackward() {
+            core.moveCaretWordBackward();
+        }
+
+        public void moveCaretBackward() {
+            core.moveCaretBackward();
+        }
+
+        public void moveCaretWordForward() {
+            core.moveCaretWordForward();
+        }
+
+        public void moveCaretForward() {
+            core.moveCaretForward();
+        }
+
+        public void moveCaretUp() {
+            moveCaretLines(-1);
+        }
+
+        public void moveCaretDown() {
+            moveCaretLines(1);
+        }
+
+        // with word wrap or folds the caret moves by rows, keeping its x position; several carets move by lines
+        public void moveCaretLines(int delta) {
+            if ((viewer.wrap || viewer.folds.size() > 0) && core.getExtraCaretCount() == 0) {
+                viewer.moveCaretRows(delta);
             } else {
-                if (viewer.caretColumn < getLineText(viewer.caretLine).length()) {
-                    sb.deleteCharAt(getCaretPosition());
-                    viewer.repaint();
-                }
+                core.moveCaretLines(delta);
             }
         }
 
+        // another caret delta lines from the caret, in the same column where the line is long enough
+        public void addCaretLines(int delta) {
+            int line = (int) Math.max(0, Math.min(getLineCount() - 1L, (long) core.getCaretLine() + delta));
+            long column = Math.min(core.getCaretColumn(), core.getLineEnd(line) - core.getLineStart(line));
+            core.addCaret(core.getLineStart(line) + column);
+        }
+
+        public void deleteBackward() {
+            core.deleteBackward();
+        }
 
+        public void deleteForward() {
+            core.deleteForward();
+        }
     }
 }
-
-
@@ -0,0 +1,145 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// how a file stores its text: the charset, the byte order mark it starts with, if any, and the line separator
+// that lines added in the editor get. The document holds the file's chars as they are, \r\n included, so a file
+// is written back byte for byte whatever mix of line endings it has
+public final class TextFormat {
+    // -Deditor.charset names the charset of new files and of files opened without a byte order mark
+    private static final Charset FORCED_CHARSET = System.getProperty("editor.charset") == null ? null : Charset.forName(System.getProperty("editor.charset"));
+    public static final TextFormat DEFAULT = new TextFormat(FORCED_CHARSET != null ? FORCED_CHARSET : StandardCharsets.UTF_8, new byte[0], "\n");
+    // the prefix that detection looks at
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    private static final byte[] UTF_8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final byte[] UTF_16BE_BOM = {(byte) 0xFE, (byte) 0xFF};
+    private static final byte[] UTF_16LE_BOM = {(byte) 0xFF, (byte) 0xFE};
+
+    private final Charset charset;
+    private final byte[] bom;
+    private final String lineSeparator;
+
+    public TextFormat(Charset charset, byte[] bom, String lineSeparator) {
+        this.charset = charset;
+        this.bom = bom;
+        this.lineSeparator = lineSeparator;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    // written before the text; empty for most files
+    public byte[] getBom() {
+        return bom.clone();
+    }
+
+    public int getBomLength() {
+        return bom.length;
+    }
+
+    // \n or \r\n, whichever the file's first line ends with; a lone \r is kept as an ordinary char
+    public String getLineSeparator() {
+        return lineSeparator;
+    }
+
+    public String toString() {
+        return charset.name() + (bom.length > 0 ? " BOM" : "") + (lineSeparator.equals("\r\n") ? " CRLF" : " LF");
+    }
+
+    // looks at the start of the file: a byte order mark decides, otherwise the forced charset, otherwise
+    // UTF-16 when every other byte is zero, UTF-8 when the sample decodes as UTF-8, and Latin-1 when nothing else fits
+    public static TextFormat detect(Path path) throws IOException {
+        return detect(path, FORCED_CHARSET);
+    }
+
+    // charset, when not null, is used unless the file starts with a byte order mark of another charset
+    public static TextFormat detect(Path path, Charset charset) throws IOException {
+        ByteBuffer sample = ByteBuffer.allocateDirect(SAMPLE_SIZE);
+        boolean whole;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (sample.hasRemaining() && channel.read(sample) >= 0) {
+                // read until the sample is full or the file ends
+            }
+            whole = channel.size() <= sample.position();
+        }
+        sample.flip();
+        byte[] bom = new byte[0];
+        if (startsWith(sample, UTF_8_BOM)) {
+            charset = StandardCharsets.UTF_8;
+            bom = UTF_8_BOM;
+        } else if (startsWith(sample, UTF_16BE_BOM)) {
+            charset = StandardCharsets.UTF_16BE;
+            bom = UTF_16BE_BOM;
+        } else if (startsWith(sample, UTF_16LE_BOM)) {
+            charset = StandardCharsets.UTF_16LE;
+            bom = UTF_16LE_BOM;
+        } else if (charset == null) {
+            charset = guess(sample, whole);
+        }
+        sample.position(bom.length);
+        return new TextFormat(charset, bom, lineSeparator(sample, charset));
+    }
+
+    private static boolean startsWith(ByteBuffer bytes, byte[] prefix) {
+        if (bytes.remaining() < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes.get(i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Charset guess(ByteBuffer sample, boolean whole) {
+        // ASCII text in UTF-16 has a zero in every other byte, on the side that gives the byte order away
+        int pairs = sample.remaining() / 2;
+        int evenZeros = 0;
+        int oddZeros = 0;
+        for (int i = 0; i < pairs * 2; i += 2) {
+            if (sample.get(i) == 0) {
+                evenZeros++;
+            }
+            if (sample.get(i + 1) == 0) {
+                oddZeros++;
+            }
+        }
+        if (pairs > 0 && oddZeros > pairs * 3 / 10 && evenZeros < pairs / 20) {
+            return StandardCharsets.UTF_16LE;
+        } else if (pairs > 0 && evenZeros > pairs * 3 / 10 && oddZeros < pairs / 20) {
+            return StandardCharsets.UTF_16BE;
+        }
+        // a character cut off at the end of the sample is not an error unless the file ends there too
+        CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        if (!utf8.decode(sample.duplicate(), CharBuffer.allocate(sample.remaining()), whole).isError()) {
+            return StandardCharsets.UTF_8;
+        }
+        return StandardCharsets.ISO_8859_1;
+    }
+
+    private static String lineSeparator(ByteBuffer sample, Charset charset) {
+        CharBuffer chars = CharBuffer.allocate(sample.remaining());
+        charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(sample, chars, false);
+        chars.flip();
+        for (int i = 0; i < chars.length(); i++) {
+            if (chars.charAt(i) == '\n') {
+                return i > 0 && chars.charAt(i - 1) == '\r' ? "\r\n" : "\n";
+            }
+        }
+        return DEFAULT.lineSeparator;
+    }
+}
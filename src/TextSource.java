@@ -0,0 +1,21 @@
+public interface TextSource {
+    long length();
+
+    char charAt(long offset);
+
+    void appendTo(StringBuilder out, long start, long end);
+
+    void getChars(long start, long end, char[] dst, int dstBegin);
+
+    // number of newlines before the given offset
+    long newlinesBefore(long offset);
+
+    // offset of the index-th newline, counting from 0
+    long newlinePosition(long index);
+
+    // heap held by the source, roughly
+    long getMemoryUsage();
+
+    // whether the text itself is held on the heap, so anything referring to it keeps it alive
+    boolean isInMemory();
+}
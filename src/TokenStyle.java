@@ -0,0 +1,47 @@
+import java.awt.Color;
+
+public class TokenStyle {
+    public static final int KEYWORD = 0;
+    public static final int STRING = 1;
+    public static final int NUMBER = 2;
+    public static final int COMMENT = 3;
+    public static final int ANNOTATION = 4;
+    public static final int KEY = 5;
+    public static final int ERROR = 6;
+    public static final int WARNING = 7;
+    public static final int INFO = 8;
+    public static final int DEBUG = 9;
+
+    private static final Color[] COLORS = {
+            new Color(0, 0, 160),
+            new Color(0, 128, 0),
+            new Color(0, 0, 255),
+            new Color(128, 128, 128),
+            new Color(128, 128, 0),
+            new Color(128, 0, 128),
+            new Color(200, 0, 0),
+            new Color(200, 120, 0),
+            new Color(0, 120, 160),
+            new Color(150, 150, 150),
+    };
+
+    private TokenStyle() {
+    }
+
+    public static Color color(int style) {
+        return COLORS[style];
+    }
+
+    // the file's extension picks the lexer; null means plain text
+    public static Lexer lexerFor(String fileName) {
+        String name = fileName.toLowerCase();
+        if (name.endsWith(".java")) {
+            return new JavaLexer();
+        } else if (name.endsWith(".json")) {
+            return new JsonLexer();
+        } else if (name.endsWith(".log")) {
+            return new LogLexer();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,114 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+public class UndoHistory {
+    // -Deditor.undoBudget=<bytes> caps what the history may hold; the oldest edits go first
+    private static final long DEFAULT_BUDGET = Long.getLong("editor.undoBudget", 32L * 1024 * 1024);
+    private static final long COALESCE_INTERVAL = 1_000_000_000L;
+
+    private final Deque<Edit> undoStack = new ArrayDeque<>();
+    private final Deque<Edit> redoStack = new ArrayDeque<>();
+    private long budget;
+    private long used;
+    private long lastRecord;
+    private boolean lastCoalescing;
+
+    public UndoHistory() {
+        this(DEFAULT_BUDGET);
+    }
+
+    public UndoHistory(long budget) {
+        this.budget = budget;
+    }
+
+    public void setBudget(long budget) {
+        this.budget = budget;
+        trim();
+    }
+
+    // coalescing edits that follow each other quickly are merged into the previous entry when it allows
+    public void record(Edit edit, boolean coalescing) {
+        for (Edit undone : redoStack) {
+            used -= undone.getMemoryUsage();
+        }
+        redoStack.clear();
+        long now = System.nanoTime();
+        Edit last = undoStack.peekLast();
+        if (coalescing && lastCoalescing && last != null && now - lastRecord < COALESCE_INTERVAL) {
+            long before = last.getMemoryUsage();
+            if (last.absorb(edit)) {
+                used += last.getMemoryUsage() - before;
+                edit = null;
+            }
+        }
+        if (edit != null) {
+            undoStack.addLast(edit);
+            used += edit.getMemoryUsage();
+        }
+        lastRecord = now;
+        lastCoalescing = coalescing;
+        trim();
+    }
+
+    // typing that goes on from the last entry, which was typing too, is added to that entry in place
+    public boolean extend(long offset, long length) {
+        long now = System.nanoTime();
+        if (!lastCoalescing || now - lastRecord >= COALESCE_INTERVAL || !(undoStack.peekLast() instanceof TextEdit last)) {
+            return false;
+        }
+        long before = last.getMemoryUsage();
+        if (!last.extend(offset, length)) {
+            return false;
+        }
+        used += last.getMemoryUsage() - before;
+        lastRecord = now;
+        trim();
+        return true;
+    }
+
+    // returns the edit that was undone, or null when there is nothing to undo
+    public Edit undo(Document doc) {
+        Edit edit = undoStack.pollLast();
+        if (edit != null) {
+            edit.undo(doc);
+            redoStack.addLast(edit);
+        }
+        lastCoalescing = false;
+        return edit;
+    }
+
+    public Edit redo(Document doc) {
+        Edit edit = redoStack.pollLast();
+        if (edit != null) {
+            edit.redo(doc);
+            undoStack.addLast(edit);
+        }
+        lastCoalescing = false;
+        return edit;
+    }
+
+    public boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    public void clear() {
+        undoStack.clear();
+        redoStack.clear();
+        used = 0;
+        lastCoalescing = false;
+    }
+
+    private void trim() {
+        // redo entries are the furthest from the present state, so they are dropped before any undo entry
+        while (used > budget && !redoStack.isEmpty()) {
+            used -= redoStack.pollFirst().getMemoryUsage();
+        }
+        while (used > budget && !undoStack.isEmpty()) {
+            used -= undoStack.pollFirst().getMemoryUsage();
+        }
+    }
+}
@@ -0,0 +1,599 @@
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// the words of a document, known without reading it again: the text is cut into blocks, each keeping the sorted ids
+// of the distinct words in it, and a vocabulary hashes every word to its id and keeps the ids in alphabetical order.
+// The blocks holding a word are found by a binary search per block, and completions by a binary search of the order.
+// An edit only marks the blocks it touched; those are read again on a background thread, as every block is after a load
+public class WordIndex {
+    // longer runs of word chars are not indexed, and neither are runs starting with a digit
+    public static final int MAX_WORD = 64;
+    // chars per block; an edit has the whole block read again
+    private static final int BLOCK = 256 * 1024;
+    // a block grown past this by edits is cut into blocks of the usual size
+    private static final int MAX_BLOCK = 4 * BLOCK;
+    private static final long PUBLISH_INTERVAL = 50_000_000L;
+    // quiet time after an edit before the blocks it marked are read, so a burst of typing takes one snapshot
+    private static final int READ_DELAY = 200;
+    // new words that completion looks through one by one before they are merged into the alphabetical order
+    private static final int UNSORTED_WORDS = 16 * 1024;
+    // occurrences of one word found at most, so a word on every line of a huge file cannot take all the memory
+    private static final int OCCURRENCE_LIMIT = 1 << 20;
+
+    // called on the event dispatch thread when every block has been read
+    public interface Listener {
+        void wordsIndexed();
+    }
+
+    private final Listener listener;
+    private Document doc;
+    // the document length the blocks agree with
+    private long length;
+    // block i covers blockStarts[i] to blockStarts[i + 1]; a word belongs to the block it starts in
+    private long[] blockStarts = new long[2];
+    // sorted word ids of each block, null while the block has to be read again
+    private int[][] blockWords = new int[1][];
+    // a new stamp every time a block is marked, so a background result for older text is recognized
+    private int[] stamps = new int[1];
+    private int blockCount;
+    private int nextStamp;
+    private int dirtyCount;
+    private boolean running;
+    private final Timer readTimer = new Timer(READ_DELAY, e -> update());
+    // bumped when the document is replaced, which drops whatever is being read
+    private volatile int version;
+    private Vocabulary vocabulary = new Vocabulary();
+    // blocks holding each word by id; a word in none stays in the vocabulary but is not offered
+    private int[] frequencies = new int[256];
+
+    public WordIndex(Listener listener) {
+        this.listener = listener;
+        readTimer.setRepeats(false);
+    }
+
+    // letters, digits and underscores make up words
+    public static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    public void setDocument(Document doc) {
+        this.doc = doc;
+        reset();
+    }
+
+    // every block has been read; until then lookups treat the unread blocks as holding any word
+    public boolean isReady() {
+        return dirtyCount == 0 && !running;
+    }
+
+    // removed chars at offset were replaced by inserted ones
+    public void edited(long offset, long removed, long inserted) {
+        if (doc == null) {
+            return;
+        }
+        // a word reaching into the edit starts at most MAX_WORD chars before it, and one just after it may now be joined
+        int first = blockOf(Math.max(0, offset - MAX_WORD));
+        int last = blockOf(offset + removed);
+        long delta = inserted - removed;
+        for (int i = 1; i <= blockCount; i++) {
+            long start = blockStarts[i];
+            if (start >= offset + removed) {
+                blockStarts[i] = start + delta;
+            } else if (start > offset) {
+                blockStarts[i] = offset + inserted;
+            }
+        }
+        length += delta;
+        for (int i = first; i <= last; i++) {
+            markDirty(i);
+        }
+        for (int i = last; i >= first; i--) {
+            if (blockStarts[i + 1] - blockStarts[i] > MAX_BLOCK) {
+                split(i);
+            }
+        }
+        readTimer.restart();
+    }
+
+    // text was added at the end without an edit, by loading or following a file
+    public void appended() {
+        if (doc != null && doc.length() != length) {
+            edited(length, 0, doc.length() - length);
+        }
+    }
+
+    // the text changed in places nobody told us about
+    public void textReplaced() {
+        reset();
+    }
+
+    // words starting with prefix and longer than it, in alphabetical order, at most max of them
+    public String[] complete(String prefix, int max) {
+        return vocabulary.complete(prefix, max, frequencies);
+    }
+
+    // chars in the blocks a lookup of the word reads: those holding it and those not read yet
+    public long getCandidateChars(String word) {
+        int id = vocabulary.find(word);
+        long chars = 0;
+        for (int i = 0; i < blockCount; i++) {
+            if (isCandidate(i, id)) {
+                chars += blockStarts[i + 1] - blockStarts[i];
+            }
+        }
+        return chars;
+    }
+
+    private boolean isCandidate(int block, int id) {
+        return blockWords[block] == null || id >= 0 && Arrays.binarySearch(blockWords[block], id) >= 0;
+    }
+
+    // finds where the word stands on its own, reading only the blocks holding it; calls back on the event dispatch thread
+    public SearchResult findOccurrences(String word, SearchEngine.Listener listener) {
+        SearchResult result = new SearchResult(new SearchQuery(word, false, false));
+        int id = vocabulary.find(word);
+        long[] ranges = new long[2 * blockCount];
+        int count = 0;
+        for (int i = 0; i < blockCount; i++) {
+            if (isCandidate(i, id)) {
+                ranges[count++] = blockStarts[i];
+                ranges[count++] = blockStarts[i + 1];
+            }
+        }
+        int rangeCount = count;
+        DocumentSnapshot snapshot = new DocumentSnapshot(doc.snapshot());
+        Workers.parallel().execute(() -> {
+            char[] buffer = new char[bufferSize(ranges, rangeCount)];
+            for (int r = 0; r < rangeCount && !result.isCancelled() && result.size() < OCCURRENCE_LIMIT; r += 2) {
+                long start = ranges[r];
+                long from = start > 0 ? start - 1 : 0;
+                int n = read(snapshot, start, ranges[r + 1], buffer);
+                scan(buffer, n, (int) (start - from), (int) (ranges[r + 1] - from), (wordStart, wordEnd) -> {
+                    if (sameChars(word, buffer, wordStart, wordEnd)) {
+                        result.add(from + wordStart, from + wordEnd);
+                    }
+                });
+            }
+            result.setComplete();
+            SwingUtilities.invokeLater(() -> listener.finished(result));
+        });
+        return result;
+    }
+
+    public long getMemoryUsage() {
+        long usage = 8L * blockStarts.length + 8L * blockWords.length + 4L * stamps.length + 4L * frequencies.length;
+        for (int i = 0; i < blockCount; i++) {
+            if (blockWords[i] != null) {
+                usage += 16 + 4L * blockWords[i].length;
+            }
+        }
+        return usage + vocabulary.getMemoryUsage();
+    }
+
+    private void reset() {
+        version++;
+        running = false;
+        readTimer.stop();
+        length = doc == null ? 0 : doc.length();
+        blockCount = (int) Math.max(1, (length + BLOCK - 1) / BLOCK);
+        blockStarts = new long[blockCount + 1];
+        blockWords = new int[blockCount][];
+        stamps = new int[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            blockStarts[i] = (long) i * BLOCK;
+            stamps[i] = nextStamp++;
+        }
+        blockStarts[blockCount] = length;
+        dirtyCount = blockCount;
+        vocabulary = new Vocabulary();
+        frequencies = new int[256];
+        update();
+    }
+
+    // the block holding offset; the end of the document is in the last block
+    private int blockOf(long offset) {
+        int low = 0;
+        int high = blockCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (blockStarts[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private void markDirty(int block) {
+        int[] ids = blockWords[block];
+        if (ids != null) {
+            for (int id : ids) {
+                frequencies[id]--;
+            }
+            blockWords[block] = null;
+            dirtyCount++;
+        }
+        stamps[block] = nextStamp++;
+    }
+
+    // cuts a dirty block into blocks of the usual size, all of them dirty
+    private void split(int block) {
+        long start = blockStarts[block];
+        long end = blockStarts[block + 1];
+        int pieces = (int) ((end - start + BLOCK - 1) / BLOCK);
+        int added = pieces - 1;
+        if (blockCount + added + 1 > blockStarts.length) {
+            int capacity = Math.max(blockCount + added + 1, blockStarts.length * 2);
+            blockStarts = Arrays.copyOf(blockStarts, capacity);
+            blockWords = Arrays.copyOf(blockWords, capacity);
+            stamps = Arrays.copyOf(stamps, capacity);
+        }
+        System.arraycopy(blockStarts, block + 1, blockStarts, block + 1 + added, blockCount - block);
+        System.arraycopy(blockWords, block + 1, blockWords, block + 1 + added, blockCount - block - 1);
+        System.arraycopy(stamps, block + 1, stamps, block + 1 + added, blockCount - block - 1);
+        for (int i = 1; i < pieces; i++) {
+            blockStarts[block + i] = start + (long) i * BLOCK;
+            blockWords[block + i] = null;
+            stamps[block + i] = nextStamp++;
+        }
+        blockCount += added;
+        dirtyCount += added;
+    }
+
+    // reads the dirty blocks in the background, unless that is already under way
+    private void update() {
+        if (running || dirtyCount == 0 || doc == null) {
+            return;
+        }
+        running = true;
+        int runVersion = version;
+        long[] ranges = new long[2 * dirtyCount];
+        int[] runStamps = new int[dirtyCount];
+        int count = 0;
+        for (int i = 0; i < blockCount; i++) {
+            if (blockWords[i] == null) {
+                ranges[2 * count] = blockStarts[i];
+                ranges[2 * count + 1] = blockStarts[i + 1];
+                runStamps[count++] = stamps[i];
+            }
+        }
+        Vocabulary runVocabulary = vocabulary;
+        DocumentSnapshot snapshot = new DocumentSnapshot(doc.snapshot());
+        Workers.words().execute(() -> readInBackground(runVersion, runVocabulary, snapshot, ranges, runStamps));
+    }
+
+    private void readInBackground(int runVersion, Vocabulary runVocabulary, DocumentSnapshot snapshot, long[] ranges, int[] runStamps) {
+        char[] buffer = new char[bufferSize(ranges, ranges.length)];
+        List<int[]> found = new ArrayList<>();
+        int from = 0;
+        long lastPublish = System.nanoTime();
+        for (int b = 0; b < runStamps.length && version == runVersion; b++) {
+            long start = ranges[2 * b];
+            long readFrom = start > 0 ? start - 1 : 0;
+            int n = read(snapshot, start, ranges[2 * b + 1], buffer);
+            found.add(runVocabulary.readBlock(buffer, n, (int) (start - readFrom), (int) (ranges[2 * b + 1] - readFrom)));
+            long now = System.nanoTime();
+            boolean last = b == runStamps.length - 1;
+            if (now - lastPublish > PUBLISH_INTERVAL || last) {
+                runVocabulary.sortNewWords(last);
+                lastPublish = now;
+                List<int[]> batch = found;
+                int batchFrom = from;
+                SwingUtilities.invokeLater(() -> publish(runVersion, runStamps, batchFrom, batch, last));
+                found = new ArrayList<>();
+                from = b + 1;
+            }
+        }
+    }
+
+    // the blocks still holding the text they were read from get their words; the others wait for the next run
+    private void publish(int runVersion, int[] runStamps, int from, List<int[]> found, boolean last) {
+        if (version != runVersion) {
+            return;
+        }
+        // blocks keep their order, so each stamp is looked for after the last one found
+        int block = 0;
+        for (int b = 0; b < found.size(); b++) {
+            int stamp = runStamps[from + b];
+            int at = block;
+            while (at < blockCount && stamps[at] != stamp) {
+                at++;
+            }
+            if (at == blockCount) {
+                // edited again since it was read
+                continue;
+            }
+            block = at;
+            int[] ids = found.get(b);
+            if (ids.length > 0 && ids[ids.length - 1] >= frequencies.length) {
+                frequencies = Arrays.copyOf(frequencies, Math.max(ids[ids.length - 1] + 1, frequencies.length * 2));
+            }
+            for (int id : ids) {
+                frequencies[id]++;
+            }
+            blockWords[block] = ids;
+            dirtyCount--;
+        }
+        if (last) {
+            running = false;
+            if (dirtyCount > 0) {
+                // edited while these blocks were read
+            }
+            if (isReady()) {
+                listener.wordsIndexed();
+            }
+        }
+    }
+
+    // room for the longest of the ranges with what read adds around it
+    private static int bufferSize(long[] ranges, int count) {
+        long longest = 0;
+        for (int r = 0; r < count; r += 2) {
+            longest = Math.max(longest, ranges[r + 1] - ranges[r]);
+        }
+        return (int) longest + MAX_WORD + 1;
+    }
+
+    // reads start to end into buffer, with the char before start first when there is one and up to MAX_WORD chars
+    // past end, so that the words starting in the range are seen whole; returns the number of chars read
+    private static int read(DocumentSnapshot snapshot, long start, long end, char[] buffer) {
+        long from = start > 0 ? start - 1 : 0;
+        long to = Math.min(snapshot.length(), end + MAX_WORD);
+        snapshot.getChars(from, to, buffer, 0);
+        return (int) (to - from);
+    }
+
+    // reports every word starting at or after from and before to in the n chars of buffer; a run of word chars that
+    // started before from is not a word start
+    private static void scan(char[] buffer, int n, int from, int to, WordSink sink) {
+        int i = from;
+        if (from > 0) {
+            while (i < n && isWordChar(buffer[i]) && isWordChar(buffer[i - 1])) {
+                i++;
+            }
+        }
+        while (i < to) {
+            if (!isWordChar(buffer[i])) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < n && isWordChar(buffer[i])) {
+                i++;
+            }
+            if (i - start <= MAX_WORD && !Character.isDigit(buffer[start])) {
+                sink.word(start, i);
+            }
+        }
+    }
+
+    private interface WordSink {
+        void word(int start, int end);
+    }
+
+    private static boolean sameChars(String word, char[] chars, int start, int end) {
+        if (word.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (word.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // every word seen, by id. The words thread adds to it and is the only writer, so it reads without locking; the
+    // event dispatch thread looks words up holding the lock
+    private static final class Vocabulary {
+        // the chars of word id are pool[wordStarts[id]] to pool[wordStarts[id + 1]]
+        private char[] pool = new char[4096];
+        private int[] wordStarts = new int[257];
+        private int[] hashes = new int[256];
+        private int count;
+        // open addressing: id + 1 at the slot of the word's hash, 0 for a free slot
+        private int[] table = new int[1024];
+        // ids below sortedCount in the alphabetical order of their words; later ones are not sorted yet
+        private int[] sorted = new int[0];
+        private int sortedCount;
+        // words thread only: the block each word was last seen in, so a block lists its words once
+        private int[] seen = new int[256];
+        private int blockMark;
+
+        // the sorted ids of the distinct words starting at or after from and before to in the n chars of buffer
+        synchronized int[] readBlock(char[] buffer, int n, int from, int to) {
+            int mark = ++blockMark;
+            int[][] ids = {new int[64]};
+            int[] found = {0};
+            scan(buffer, n, from, to, (start, end) -> {
+                int id = intern(buffer, start, end);
+                if (seen[id] != mark) {
+                    seen[id] = mark;
+                    if (found[0] == ids[0].length) {
+                        ids[0] = Arrays.copyOf(ids[0], found[0] * 2);
+                    }
+                    ids[0][found[0]++] = id;
+                }
+            });
+            int[] result = Arrays.copyOf(ids[0], found[0]);
+            Arrays.sort(result);
+            return result;
+        }
+
+        synchronized int find(String word) {
+            int hash = word.hashCode();
+            int mask = table.length - 1;
+            for (int slot = slot(hash, mask); table[slot] != 0; slot = (slot + 1) & mask) {
+                int id = table[slot] - 1;
+                if (hashes[id] == hash && sameChars(word, pool, wordStarts[id], wordStarts[id + 1])) {
+                    return id;
+                }
+            }
+            return -1;
+        }
+
+        // frequencies says which words are still in the text; ids past its end are not yet
+        synchronized String[] complete(String prefix, int max, int[] frequencies) {
+            List<String> found = new ArrayList<>();
+            int low = 0;
+            int high = sortedCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compare(sorted[mid], prefix) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            for (int i = low; i < sortedCount && found.size() < max && startsWith(sorted[i], prefix); i++) {
+                addCompletion(sorted[i], prefix, frequencies, found);
+            }
+            for (int id = sortedCount; id < count; id++) {
+                if (startsWith(id, prefix)) {
+                    addCompletion(id, prefix, frequencies, found);
+                }
+            }
+            found.sort(null);
+            return found.subList(0, Math.min(max, found.size())).toArray(new String[0]);
+        }
+
+        private void addCompletion(int id, String prefix, int[] frequencies, List<String> found) {
+            int start = wordStarts[id];
+            if (id < frequencies.length && frequencies[id] > 0 && wordStarts[id + 1] - start > prefix.length()) {
+                found.add(new String(pool, start, wordStarts[id + 1] - start));
+            }
+        }
+
+        private boolean startsWith(int id, String prefix) {
+            int start = wordStarts[id];
+            if (wordStarts[id + 1] - start < prefix.length()) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length(); i++) {
+                if (pool[start + i] != prefix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // the same order as String.compareTo
+        private int compare(int id, String word) {
+            int start = wordStarts[id];
+            int wordLength = wordStarts[id + 1] - start;
+            for (int i = 0; i < Math.min(wordLength, word.length()); i++) {
+                if (pool[start + i] != word.charAt(i)) {
+                    return pool[start + i] - word.charAt(i);
+                }
+            }
+            return wordLength - word.length();
+        }
+
+        private int compare(int id, int other) {
+            int start = wordStarts[id];
+            int otherStart = wordStarts[other];
+            int wordLength = wordStarts[id + 1] - start;
+            int otherLength = wordStarts[other + 1] - otherStart;
+            for (int i = 0; i < Math.min(wordLength, otherLength); i++) {
+                if (pool[start + i] != pool[otherStart + i]) {
+                    return pool[start + i] - pool[otherStart + i];
+                }
+            }
+            return wordLength - otherLength;
+        }
+
+        // words thread only: merges the words added since the last time into the alphabetical order, once there are
+        // enough of them or when all must be
+        void sortNewWords(boolean all) {
+            int total = count;
+            int added = total - sortedCount;
+            if (added == 0 || !all && added < Math.max(UNSORTED_WORDS, sortedCount)) {
+                return;
+            }
+            String[] words = new String[added];
+            for (int i = 0; i < added; i++) {
+                int start = wordStarts[sortedCount + i];
+                words[i] = new String(pool, start, wordStarts[sortedCount + i + 1] - start);
+            }
+            Arrays.sort(words);
+            int[] ids = new int[added];
+            for (int i = 0; i < added; i++) {
+                ids[i] = find(words[i]);
+            }
+            int[] merged = new int[total];
+            int a = 0;
+            int b = 0;
+            for (int i = 0; i < total; i++) {
+                if (b == added || a < sortedCount && compare(sorted[a], ids[b]) < 0) {
+                    merged[i] = sorted[a++];
+                } else {
+                    merged[i] = ids[b++];
+                }
+            }
+            synchronized (this) {
+                sorted = merged;
+                sortedCount = total;
+            }
+        }
+
+        synchronized long getMemoryUsage() {
+            return 2L * pool.length + 4L * (wordStarts.length + hashes.length + table.length + sorted.length + seen.length);
+        }
+
+        private int intern(char[] chars, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + chars[i];
+            }
+            int mask = table.length - 1;
+            int slot = slot(hash, mask);
+            for (; table[slot] != 0; slot = (slot + 1) & mask) {
+                int id = table[slot] - 1;
+                if (hashes[id] == hash && wordStarts[id + 1] - wordStarts[id] == end - start
+                        && Arrays.equals(pool, wordStarts[id], wordStarts[id + 1], chars, start, end)) {
+                    return id;
+                }
+            }
+            int id = count++;
+            if (id + 2 > wordStarts.length) {
+                wordStarts = Arrays.copyOf(wordStarts, wordStarts.length * 2);
+                hashes = Arrays.copyOf(hashes, wordStarts.length);
+                seen = Arrays.copyOf(seen, wordStarts.length);
+            }
+            int poolStart = wordStarts[id];
+            if (poolStart + end - start > pool.length) {
+                pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolStart + end - start));
+            }
+            System.arraycopy(chars, start, pool, poolStart, end - start);
+            wordStarts[id + 1] = poolStart + end - start;
+            hashes[id] = hash;
+            if (count * 2 > table.length) {
+                table = new int[table.length * 2];
+                for (int i = 0; i < count; i++) {
+                    insertSlot(i);
+                }
+            } else {
+                table[slot] = id + 1;
+            }
+            return id;
+        }
+
+        private void insertSlot(int id) {
+            int mask = table.length - 1;
+            int slot = slot(hashes[id], mask);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+
+        // String hashes of similar words are close together, so they are spread before probing
+        private static int slot(int hash, int mask) {
+            int spread = hash * 0x9E3779B9;
+            return (spread ^ spread >>> 16) & mask;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+
+// background executors shared by everything that must stay off the event dispatch thread
+public class Workers {
+    private static final ExecutorService IO = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "editor io");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ExecutorService SEARCH = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "editor search");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ExecutorService HIGHLIGHT = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "editor highlight");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private static final ExecutorService STRUCTURE = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "editor structure");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private static final ExecutorService WORDS = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "editor words");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private static final ScheduledExecutorService JOURNAL = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "editor journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ScheduledExecutorService FOLLOW = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "editor follow");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "editor watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ForkJoinPool PARALLEL = new ForkJoinPool();
+
+    private Workers() {
+    }
+
+    public static ExecutorService io() {
+        return IO;
+    }
+
+    // one search at a time; a new query cancels the running one, so there is never a backlog
+    public static ExecutorService search() {
+        return SEARCH;
+    }
+
+    // lexes the lines the viewer has not reached, for every open document in turn
+    public static ExecutorService highlight() {
+        return HIGHLIGHT;
+    }
+
+    // finds the brackets and tags of regions too big to scan on the event dispatch thread
+    public static ExecutorService structure() {
+        return STRUCTURE;
+    }
+
+    // reads the words of every open document into its word index
+    public static ExecutorService words() {
+        return WORDS;
+    }
+
+    // writes the autosave journals, grouping the changes made within one commit interval
+    public static ScheduledExecutorService journal() {
+        return JOURNAL;
+    }
+
+    // polls the files being followed, all of them on one thread
+    public static ScheduledExecutorService follow() {
+        return FOLLOW;
+    }
+
+    // probes the event dispatch thread for stalls while metrics are recorded
+    public static ScheduledExecutorService watchdog() {
+        return WATCHDOG;
+    }
+
+    // for work split across every core, such as scanning a whole document
+    public static ForkJoinPool parallel() {
+        return PARALLEL;
+    }
+}
@@ -0,0 +1,297 @@
+import java.util.Arrays;
+import java.util.Random;
+
+// visual rows of every line when lines wrap at the viewer's width, and none for lines hidden in a fold;
+// lines not measured yet count as one row
+public class WrapIndex {
+    private static final int CACHED_LINES = 1024;
+    private static final int[] ONE_ROW = {0};
+
+    private final Random random = new Random();
+    // runs of one-row lines, runs of hidden lines and single lines of several rows, in document order
+    private Node root;
+    private int width;
+    // column where each row starts, for the lines measured recently
+    private final int[] cachedLines = new int[CACHED_LINES];
+    private final int[][] cachedStarts = new int[CACHED_LINES][];
+
+    // results of the last split
+    private Node splitLeft;
+    private Node splitRight;
+
+    public WrapIndex() {
+        reset(1, 0);
+    }
+
+    // forgets every measurement, for a new document, font or width
+    public void reset(int lineCount, int width) {
+        this.width = width;
+        root = newRun(lineCount);
+        Arrays.fill(cachedLines, -1);
+        Arrays.fill(cachedStarts, null);
+    }
+
+    public int getLineCount() {
+        return lines(root);
+    }
+
+    public int getRowCount() {
+        return rows(root);
+    }
+
+    // first row of the line, or of the next line shown when it is hidden; past the last line every line counts as one row
+    public int rowOf(int line) {
+        if (line >= lines(root)) {
+            return rows(root) + line - lines(root);
+        }
+        int row = 0;
+        Node t = root;
+        while (true) {
+            int leftLines = lines(t.left);
+            if (line < leftLines) {
+                t = t.left;
+            } else if (line < leftLines + t.lines) {
+                return row + rows(t.left) + (t.lines == 1 || t.rows == 0 ? 0 : line - leftLines);
+            } else {
+                row += rows(t.left) + t.rows;
+                line -= leftLines + t.lines;
+                t = t.right;
+            }
+        }
+    }
+
+    // the line the row belongs to, which is never a hidden one
+    public int lineAt(int row) {
+        if (row >= rows(root)) {
+            return lines(root) + row - rows(root);
+        }
+        int line = 0;
+        Node t = root;
+        while (true) {
+            int leftRows = rows(t.left);
+            if (row < leftRows) {
+                t = t.left;
+            } else if (row < leftRows + t.rows) {
+                return line + lines(t.left) + (t.lines == 1 ? 0 : row - leftRows);
+            } else {
+                line += lines(t.left) + t.lines;
+                row -= leftRows + t.rows;
+                t = t.right;
+            }
+        }
+    }
+
+    public int getRows(int line) {
+        Node t = root;
+        while (true) {
+            int leftLines = lines(t.left);
+            if (line < leftLines) {
+                t = t.left;
+            } else if (line < leftLines + t.lines) {
+                return t.lines == 1 || t.rows == 0 ? t.rows : 1;
+            } else {
+                line -= leftLines + t.lines;
+                t = t.right;
+            }
+        }
+    }
+
+    // null when the line has to be measured
+    public int[] getRowStarts(int line) {
+        int slot = line & (CACHED_LINES - 1);
+        return cachedLines[slot] == line ? cachedStarts[slot] : null;
+    }
+
+    // breaks the line into rows no wider than the wrap width, after the last space where there is one; a hidden line
+    // keeps no rows and is measured again once shown
+    public int[] measure(int line, CharSequence text, GlyphWidths glyphs) {
+        int[] starts = ONE_ROW;
+        if (width > 0) {
+            int count = 1;
+            int x = 0;
+            int rowStart = 0;
+            int lastSpace = -1;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                int w = glyphs.charWidth(c);
+                while (x + w > width && i > rowStart) {
+                    rowStart = lastSpace >= rowStart ? lastSpace + 1 : i;
+                    if (count == starts.length) {
+                        starts = Arrays.copyOf(starts, count * 2);
+                    }
+                    starts[count++] = rowStart;
+                    x = glyphs.width(text, rowStart, i);
+                    lastSpace = -1;
+                }
+                if (c == ' ' || c == '\t') {
+                    lastSpace = i;
+                }
+                x += w;
+            }
+            if (count < starts.length) {
+                starts = Arrays.copyOf(starts, count);
+            }
+        }
+        if (getRows(line) == 0) {
+            return starts;
+        }
+        setRows(line, starts.length);
+        int slot = line & (CACHED_LINES - 1);
+        cachedLines[slot] = line;
+        cachedStarts[slot] = starts;
+        return starts;
+    }
+
+    // an edit touched the given line; its old row count stands until it is measured again
+    public void linesChanged(int line, int lineDelta) {
+        if (lineDelta > 0) {
+            split(root, line + 1);
+            root = merge(merge(splitLeft, newRun(lineDelta)), splitRight);
+        } else if (lineDelta < 0) {
+            split(root, line + 1);
+            Node head = splitLeft;
+            split(splitRight, -lineDelta);
+            root = merge(head, splitRight);
+        }
+        for (int slot = 0; slot < CACHED_LINES; slot++) {
+            if (lineDelta == 0 ? cachedLines[slot] == line : cachedLines[slot] >= line) {
+                cachedLines[slot] = -1;
+                cachedStarts[slot] = null;
+            }
+        }
+    }
+
+    // hides lines from..to, or shows them again as lines not measured yet
+    public void setHidden(int from, int to, boolean hidden) {
+        if (from > to) {
+            return;
+        }
+        split(root, from);
+        Node head = splitLeft;
+        split(splitRight, to - from + 1);
+        int count = to - from + 1;
+        root = merge(merge(head, new Node(count, hidden ? 0 : count, random.nextInt())), splitRight);
+        for (int slot = 0; slot < CACHED_LINES; slot++) {
+            if (cachedLines[slot] >= from && cachedLines[slot] <= to) {
+                cachedLines[slot] = -1;
+                cachedStarts[slot] = null;
+            }
+        }
+    }
+
+    // shows every hidden line again
+    public void showAll() {
+        root = showAll(root);
+    }
+
+    private Node showAll(Node t) {
+        if (t == null) {
+            return null;
+        }
+        Node left = showAll(t.left);
+        Node right = showAll(t.right);
+        if (t.rows == 0) {
+            t = new Node(t.lines, t.lines, t.priority);
+        }
+        t.left = left;
+        t.right = right;
+        update(t);
+        return t;
+    }
+
+    private void setRows(int line, int rows) {
+        if (getRows(line) == rows) {
+            return;
+        }
+        split(root, line);
+        Node head = splitLeft;
+        split(splitRight, 1);
+        Node node = new Node(1, rows, random.nextInt());
+        root = merge(merge(head, node), splitRight);
+    }
+
+    private Node newRun(int lines) {
+        return new Node(lines, lines, random.nextInt());
+    }
+
+    // splits off the first count lines
+    private void split(Node t, int count) {
+        if (t == null) {
+            splitLeft = null;
+            splitRight = null;
+            return;
+        }
+        int leftLines = lines(t.left);
+        if (count <= leftLines) {
+            split(t.left, count);
+            t.left = splitRight;
+            update(t);
+            splitRight = t;
+        } else if (count >= leftLines + t.lines) {
+            split(t.right, count - leftLines - t.lines);
+            t.right = splitLeft;
+            update(t);
+            splitLeft = t;
+        } else {
+            // only runs of one-row or of hidden lines hold more than one line
+            int cut = count - leftLines;
+            Node head = new Node(cut, t.rows == 0 ? 0 : cut, t.priority);
+            Node tail = new Node(t.lines - cut, t.rows == 0 ? 0 : t.lines - cut, t.priority);
+            head.left = t.left;
+            tail.right = t.right;
+            update(head);
+            update(tail);
+            splitLeft = head;
+            splitRight = tail;
+        }
+    }
+
+    private Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        } else {
+            b.left = merge(a, b.left);
+            update(b);
+            return b;
+        }
+    }
+
+    private static int lines(Node t) {
+        return t == null ? 0 : t.totalLines;
+    }
+
+    private static int rows(Node t) {
+        return t == null ? 0 : t.totalRows;
+    }
+
+    private static void update(Node t) {
+        t.totalLines = lines(t.left) + t.lines + lines(t.right);
+        t.totalRows = rows(t.left) + t.rows + rows(t.right);
+    }
+
+    private static class Node {
+        private final int lines;
+        private final int rows;
+        private final int priority;
+        private int totalLines;
+        private int totalRows;
+        private Node left;
+        private Node right;
+
+        Node(int lines, int rows, int priority) {
+            this.lines = lines;
+            this.rows = rows;
+            this.priority = priority;
+            this.totalLines = lines;
+            this.totalRows = rows;
+        }
+    }
+}